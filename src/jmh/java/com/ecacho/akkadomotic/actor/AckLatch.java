@@ -0,0 +1,39 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.AbstractActor;
+import akka.actor.Props;
+import java.util.concurrent.CompletableFuture;
+import lombok.AllArgsConstructor;
+
+// Counts replies sent to it and completes a future once the expected number arrived.
+// Benchmarks use it as the sender of pipelined requests.
+public class AckLatch extends AbstractActor {
+
+  CompletableFuture<Void> done;
+  int remaining;
+
+  public static Props props() {
+    return Props.create(AckLatch.class, AckLatch::new);
+  }
+
+  @AllArgsConstructor
+  public static final class Expect {
+    final int count;
+    final CompletableFuture<Void> done;
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+        .match(Expect.class, e -> {
+          done = e.done;
+          remaining = e.count;
+        })
+        .matchAny(ack -> {
+          if (--remaining == 0) {
+            done.complete(null);
+          }
+        })
+        .build();
+  }
+}
@@ -0,0 +1,75 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Cost per reading of evaluating a group's alert rules, as DeviceGroup does on every
+// TemperatureUpdated. Half of the rules are per device, spread over the group, half are
+// delta rules; groupWide of them apply to every device. The readings stay below the
+// thresholds so no events are produced.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AlertEngineBenchmark {
+
+  static final int DEVICES = 1_000;
+
+  @Param({"0", "10", "1000"})
+  int deviceRules;
+
+  @Param({"0", "2"})
+  int groupWide;
+
+  AlertEngine engine;
+  String[] deviceIds;
+  AlertEngine.Listener listener;
+  int next;
+  long timestamp;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    engine = new AlertEngine();
+    deviceIds = new String[DEVICES];
+    for (int d = 0; d < DEVICES; d++) {
+      deviceIds[d] = "device" + d;
+    }
+    for (int r = 0; r < deviceRules; r++) {
+      String deviceId = deviceIds[r * DEVICES / Math.max(1, deviceRules)];
+      engine.register(rule("device-rule" + r, deviceId, r), ActorRef.noSender());
+    }
+    for (int r = 0; r < groupWide; r++) {
+      engine.register(rule("group-rule" + r, null, r), ActorRef.noSender());
+    }
+    listener = (owner, event) -> blackhole.consume(event);
+  }
+
+  private static AlertRule rule(String ruleId, String deviceId, int r) {
+    return r % 2 == 0
+        ? AlertRule.above(ruleId, deviceId, 100.0, Duration.ofSeconds(30))
+        : AlertRule.deltaWithin(ruleId, deviceId, 100.0, Duration.ofMinutes(1));
+  }
+
+  @Benchmark
+  public void evaluateReading() {
+    int device = next;
+    next = (next + 1) % DEVICES;
+    timestamp += 10;
+    engine.evaluate(deviceIds[device], 20.0 + (device & 7), timestamp, listener);
+  }
+}
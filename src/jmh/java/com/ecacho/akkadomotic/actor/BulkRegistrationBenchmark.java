@@ -0,0 +1,84 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.typesafe.config.ConfigFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cold start of a whole fleet through RequestTrackDevices, one batch per group, into a fresh
+// actor system. The device actors are only created by the first message for each device, so
+// this measures the registration itself.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class BulkRegistrationBenchmark {
+
+  @Param({"100000", "1000000"})
+  int devices;
+
+  @Param({"100"})
+  int groups;
+
+  List<List<String>> deviceIdsByGroup;
+  ActorSystem system;
+  ActorRef manager;
+  ActorRef latch;
+
+  @Setup(Level.Trial)
+  public void createDeviceIds() {
+    deviceIdsByGroup = new ArrayList<>();
+    for (int group = 0; group < groups; group++) {
+      deviceIdsByGroup.add(new ArrayList<>(devices / groups + 1));
+    }
+    for (int device = 0; device < devices; device++) {
+      deviceIdsByGroup.get(device % groups).add("device" + device);
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    system = ActorSystem.create("bulk-registration", ConfigFactory
+        .parseString("akka.loglevel = WARNING")
+        .withFallback(ConfigFactory.load()));
+    manager = system.actorOf(DeviceManager.props());
+    latch = system.actorOf(AckLatch.props());
+  }
+
+  @TearDown(Level.Iteration)
+  public void teardown() {
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public void registerFleet() throws Exception {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    latch.tell(new AckLatch.Expect(groups, done), ActorRef.noSender());
+    for (int group = 0; group < groups; group++) {
+      manager.tell(
+          new DeviceManager.RequestTrackDevices(
+              group, "group" + group, deviceIdsByGroup.get(group)),
+          latch);
+    }
+    done.get(5, TimeUnit.MINUTES);
+  }
+}
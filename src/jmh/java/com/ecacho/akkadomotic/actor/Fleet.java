@@ -0,0 +1,71 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Setup helpers shared by the benchmarks.
+final class Fleet {
+
+  private Fleet() {
+  }
+
+  // registers groups x devicesPerGroup devices and returns their actors
+  static ActorRef[] register(ActorSystem system, ActorRef manager, int groups, int devicesPerGroup)
+      throws Exception {
+    CompletableFuture<ActorRef[]> registered = new CompletableFuture<>();
+    ActorRef collector = system.actorOf(
+        Props.create(RegisteredDevices.class, groups * devicesPerGroup, registered));
+    for (int g = 0; g < groups; g++) {
+      for (int d = 0; d < devicesPerGroup; d++) {
+        manager.tell(new DeviceManager.RequestTrackDevice("group" + g, "device" + d), collector);
+      }
+    }
+    return registered.get(5, TimeUnit.MINUTES);
+  }
+
+  static void recordOnce(ActorSystem system, ActorRef[] devices) throws Exception {
+    ActorRef latch = system.actorOf(AckLatch.props());
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    latch.tell(new AckLatch.Expect(devices.length, done), ActorRef.noSender());
+    for (int i = 0; i < devices.length; i++) {
+      devices[i].tell(new Device.RecordTemperature(i, 20d), latch);
+    }
+    done.get(5, TimeUnit.MINUTES);
+  }
+
+  // devices are children of their group
+  static ActorRef groupOf(ActorSystem system, ActorRef device) throws Exception {
+    return system.actorSelection(device.path().parent())
+        .resolveOne(Duration.ofSeconds(10))
+        .toCompletableFuture()
+        .get();
+  }
+
+  static class RegisteredDevices extends AbstractActor {
+    final ActorRef[] devices;
+    final CompletableFuture<ActorRef[]> registered;
+    int count = 0;
+
+    RegisteredDevices(int expected, CompletableFuture<ActorRef[]> registered) {
+      this.devices = new ActorRef[expected];
+      this.registered = registered;
+    }
+
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+          .match(DeviceManager.DeviceRegistered.class, r -> {
+            devices[count++] = getSender();
+            if (count == devices.length) {
+              registered.complete(devices);
+            }
+          })
+          .build();
+    }
+  }
+}
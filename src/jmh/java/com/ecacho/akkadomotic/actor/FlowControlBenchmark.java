@@ -0,0 +1,88 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time to get a burst of readings recorded and acknowledged by one device. "tell" sends them
+// all at once into an unbounded mailbox, which then holds the whole burst; "sink" writes them
+// through TemperatureFlowControl.deviceSink, which never has more than the granted credits
+// queued for the device. Run with -prof gc to compare the allocation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlowControlBenchmark {
+
+  static final Device.RecordTemperature READING =
+      new Device.RecordTemperature(Device.RecordTemperature.UNCORRELATED, 21.5);
+
+  @Param({"1000000"})
+  int readings;
+
+  @Param({"tell", "sink"})
+  String producer;
+
+  ActorSystem system;
+  Materializer materializer;
+  ActorRef device;
+  ActorRef latch;
+  long requestId;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Config config = "tell".equals(producer)
+        ? ConfigFactory.parseString(
+            "akkadomotic.device-mailbox.mailbox-type = \"akka.dispatch.UnboundedMailbox\"")
+        : ConfigFactory.empty();
+    system = ActorSystem.create("flow-control", config.withFallback(ConfigFactory.load()));
+    materializer = ActorMaterializer.create(system);
+    device = system.actorOf(Device.props("group", "device"));
+    latch = system.actorOf(AckLatch.props());
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public void recordBurst() throws Exception {
+    if ("tell".equals(producer)) {
+      CompletableFuture<Void> done = new CompletableFuture<>();
+      latch.tell(new AckLatch.Expect(readings, done), ActorRef.noSender());
+      for (int i = 0; i < readings; i++) {
+        device.tell(READING, latch);
+      }
+      done.get(1, TimeUnit.MINUTES);
+    } else {
+      Source.repeat(21.5)
+          .take(readings)
+          .runWith(TemperatureFlowControl.deviceSink(device, requestId++), materializer)
+          .toCompletableFuture()
+          .get(1, TimeUnit.MINUTES);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// RequestAllTemperatures and RequestTemperatureSummary latency percentiles as the group
+// grows, every device has a reading.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GroupQueryBenchmark {
+
+  @Param({"10", "100", "1000", "10000", "100000"})
+  int groupSize;
+
+  static final double[] PERCENTILES = {0.5, 0.99};
+  static final double[] HISTOGRAM_BOUNDS = {0, 10, 20, 30, 40};
+
+  ActorSystem system;
+  ActorRef groupActor;
+  long requestId;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    system = ActorSystem.create("group-query");
+    ActorRef[] devices =
+        Fleet.register(system, system.actorOf(DeviceManager.props()), 1, groupSize);
+    Fleet.recordOnce(system, devices);
+    groupActor = Fleet.groupOf(system, devices[0]);
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public Object requestAllTemperatures() throws Exception {
+    return Patterns
+        .ask(groupActor, new DeviceGroup.RequestAllTemperatures(requestId++),
+            Duration.ofMinutes(1))
+        .toCompletableFuture()
+        .get();
+  }
+
+  @Benchmark
+  public Object requestTemperatureSummary() throws Exception {
+    return Patterns
+        .ask(groupActor,
+            new DeviceGroup.RequestTemperatureSummary(
+                requestId++, PERCENTILES, HISTOGRAM_BOUNDS),
+            Duration.ofMinutes(1))
+        .toCompletableFuture()
+        .get();
+  }
+}
@@ -0,0 +1,93 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// RecordTemperature and ReadTemperatureValue throughput against one device and spread over
+// a whole group.
+// Run with -prof gc to get the allocation rate per recorded reading.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IngestionBenchmark {
+
+  static final int PIPELINED = 10_000;
+  static final Device.RecordTemperature UNCORRELATED_READING =
+      new Device.RecordTemperature(Device.RecordTemperature.UNCORRELATED, 21.5);
+  static final Device.ReadTemperatureValue READ_VALUE = new Device.ReadTemperatureValue(0L);
+
+  @Param({"1", "1000"})
+  int devices;
+
+  ActorSystem system;
+  ActorRef latch;
+  ActorRef[] deviceActors;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    system = ActorSystem.create("ingestion");
+    latch = system.actorOf(AckLatch.props());
+    deviceActors = Fleet.register(system, system.actorOf(DeviceManager.props()), 1, devices);
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().join();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINED)
+  public void recordTemperature() throws Exception {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    latch.tell(new AckLatch.Expect(PIPELINED, done), ActorRef.noSender());
+    for (int i = 0; i < PIPELINED; i++) {
+      deviceActors[i % deviceActors.length]
+          .tell(new Device.RecordTemperature(i, i * 0.1), latch);
+    }
+    done.get(1, TimeUnit.MINUTES);
+  }
+
+  // the same immutable message for every reading and the shared ack, so what remains is
+  // the cost of the device itself and of the mailbox
+  @Benchmark
+  @OperationsPerInvocation(PIPELINED)
+  public void recordTemperatureUncorrelated() throws Exception {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    latch.tell(new AckLatch.Expect(PIPELINED, done), ActorRef.noSender());
+    for (int i = 0; i < PIPELINED; i++) {
+      deviceActors[i % deviceActors.length].tell(UNCORRELATED_READING, latch);
+    }
+    done.get(1, TimeUnit.MINUTES);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINED)
+  public void readTemperatureValue() throws Exception {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    latch.tell(new AckLatch.Expect(PIPELINED, done), ActorRef.noSender());
+    for (int i = 0; i < PIPELINED; i++) {
+      deviceActors[i % deviceActors.length].tell(READ_VALUE, latch);
+    }
+    done.get(1, TimeUnit.MINUTES);
+  }
+}
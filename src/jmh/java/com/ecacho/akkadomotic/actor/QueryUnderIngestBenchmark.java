@@ -0,0 +1,123 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// RequestAllTemperatures latency percentiles for a 1000-device group while background
+// threads keep every device of the fleet busy with readings. "shared" deploys every actor
+// on the default dispatcher, as before the dedicated dispatchers, "dedicated" keeps the
+// dispatchers the props() factories choose. "fifo" gives the devices and groups plain
+// mailboxes, "priority" the PriorityMailbox that dequeues the query traffic ahead of readings.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryUnderIngestBenchmark {
+
+  static final int GROUPS = 8;
+  static final int DEVICES_PER_GROUP = 1_000;
+  static final int INGEST_THREADS = 2;
+  static final int PIPELINED = 10_000;
+  static final Device.RecordTemperature READING =
+      new Device.RecordTemperature(Device.RecordTemperature.UNCORRELATED, 21.5);
+
+  @Param({"shared", "dedicated"})
+  String dispatchers;
+
+  @Param({"fifo", "priority"})
+  String mailboxes;
+
+  ActorSystem system;
+  ActorRef groupActor;
+  Thread[] ingest;
+  volatile boolean running;
+  long requestId;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Config config = "shared".equals(dispatchers)
+        ? ConfigFactory.parseString(
+            "akka.actor.deployment { \"/**\" { dispatcher = akka.actor.default-dispatcher } }")
+        : ConfigFactory.empty();
+    if ("fifo".equals(mailboxes)) {
+      config = config.withFallback(ConfigFactory.parseString(
+          "akkadomotic.device-mailbox.mailbox-type = \"akka.dispatch.UnboundedMailbox\"\n"
+              + "akkadomotic.group-mailbox.mailbox-type = "
+              + "\"com.ecacho.akkadomotic.metrics.MeteredMailbox\""));
+    }
+    system = ActorSystem.create("query-under-ingest", config.withFallback(ConfigFactory.load()));
+
+    ActorRef[] devices = Fleet.register(
+        system, system.actorOf(DeviceManager.props()), GROUPS, DEVICES_PER_GROUP);
+    Fleet.recordOnce(system, devices);
+    groupActor = Fleet.groupOf(system, devices[0]);
+
+    running = true;
+    ingest = new Thread[INGEST_THREADS];
+    for (int t = 0; t < INGEST_THREADS; t++) {
+      ActorRef latch = system.actorOf(AckLatch.props());
+      int offset = t;
+      ingest[t] = new Thread(() -> ingest(devices, latch, offset), "ingest-" + t);
+      ingest[t].setDaemon(true);
+      ingest[t].start();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    running = false;
+    for (Thread thread : ingest) {
+      thread.join();
+    }
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public Object requestAllTemperatures() throws Exception {
+    return Patterns
+        .ask(groupActor, new DeviceGroup.RequestAllTemperatures(requestId++),
+            Duration.ofMinutes(1))
+        .toCompletableFuture()
+        .get();
+  }
+
+  // pipelines rounds of readings over the whole fleet, each round waits for its acks
+  private void ingest(ActorRef[] devices, ActorRef latch, int offset) {
+    int next = offset;
+    try {
+      while (running) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        latch.tell(new AckLatch.Expect(PIPELINED, done), ActorRef.noSender());
+        for (int i = 0; i < PIPELINED; i++) {
+          devices[next].tell(READING, latch);
+          next = (next + INGEST_THREADS) % devices.length;
+        }
+        done.get(1, TimeUnit.MINUTES);
+      }
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Latency of a ReadTemperature sent to a device right behind a backlog of readings. "fifo"
+// gives the device a plain mailbox, so the read waits for the backlog; "priority" the
+// PriorityMailbox, which dequeues the read first.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReadUnderBacklogBenchmark {
+
+  static final Device.RecordTemperature READING =
+      new Device.RecordTemperature(Device.RecordTemperature.UNCORRELATED, 21.5);
+
+  @Param({"100000"})
+  int backlog;
+
+  @Param({"fifo", "priority"})
+  String mailboxes;
+
+  ActorSystem system;
+  ActorRef device;
+  ActorRef latch;
+  CompletableFuture<Void> drained;
+  long requestId;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Config config = "fifo".equals(mailboxes)
+        ? ConfigFactory.parseString(
+            "akkadomotic.device-mailbox.mailbox-type = \"akka.dispatch.UnboundedMailbox\"")
+        : ConfigFactory.parseString("akkadomotic.device-mailbox.ingest-capacity = " + backlog);
+    system = ActorSystem.create("read-under-backlog", config.withFallback(ConfigFactory.load()));
+    device = system.actorOf(Device.props("group", "device"));
+    latch = system.actorOf(AckLatch.props());
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().join();
+  }
+
+  @Setup(Level.Invocation)
+  public void fillBacklog() {
+    drained = new CompletableFuture<>();
+    latch.tell(new AckLatch.Expect(backlog, drained), ActorRef.noSender());
+    for (int i = 0; i < backlog; i++) {
+      device.tell(READING, latch);
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void awaitBacklog() throws Exception {
+    drained.get(1, TimeUnit.MINUTES);
+  }
+
+  @Benchmark
+  public Object readTemperature() throws Exception {
+    return Patterns.ask(device, new Device.ReadTemperature(requestId++), Duration.ofSeconds(10))
+        .toCompletableFuture()
+        .get();
+  }
+}
@@ -0,0 +1,72 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// RequestTrackDevice registration rate through DeviceManager or ShardedDeviceManager, every
+// operation creates a new device actor. The actor system is recreated per iteration so the
+// fleet stays bounded.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RegistrationBenchmark {
+
+  static final int REGISTRATIONS = 1_000;
+
+  @Param({"1", "100"})
+  int groups;
+
+  @Param({"false", "true"})
+  boolean sharded;
+
+  ActorSystem system;
+  ActorRef manager;
+  ActorRef latch;
+  long nextDevice;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    system = ActorSystem.create("registration");
+    manager = system.actorOf(sharded ? ShardedDeviceManager.props() : DeviceManager.props());
+    latch = system.actorOf(AckLatch.props());
+  }
+
+  @TearDown(Level.Iteration)
+  public void teardown() {
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().join();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(REGISTRATIONS)
+  public void registerDevices() throws Exception {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    latch.tell(new AckLatch.Expect(REGISTRATIONS, done), ActorRef.noSender());
+    for (int i = 0; i < REGISTRATIONS; i++) {
+      long device = nextDevice++;
+      manager.tell(
+          new DeviceManager.RequestTrackDevice("group" + device % groups, "device" + device),
+          latch);
+    }
+    done.get(1, TimeUnit.MINUTES);
+  }
+}
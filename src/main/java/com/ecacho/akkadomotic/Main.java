@@ -1,8 +1,32 @@
 package com.ecacho.akkadomotic;
 
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.ecacho.akkadomotic.actor.DeviceManager;
+import com.ecacho.akkadomotic.actor.ShardedDeviceManager;
+import com.ecacho.akkadomotic.load.LoadGenerator;
+import com.ecacho.akkadomotic.load.LoadSettings;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+// Runs the soak test configured under akkadomotic.load against a fresh device manager.
 public class Main {
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws Exception {
+    Config config = ConfigFactory.systemProperties()
+        .withFallback(ConfigFactory.parseString("akka.loglevel = WARNING"))
+        .withFallback(ConfigFactory.load());
+    LoadSettings settings = new LoadSettings(config.getConfig("akkadomotic.load"));
 
+    ActorSystem system = ActorSystem.create("akkadomotic", config);
+    try {
+      ActorRef manager = system.actorOf(
+          settings.sharded() ? ShardedDeviceManager.props() : DeviceManager.props(),
+          "devices");
+      new LoadGenerator(system, manager, settings, System.out).run();
+    } finally {
+      system.terminate();
+      system.getWhenTerminated().toCompletableFuture().join();
+    }
   }
 }
@@ -0,0 +1,265 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Registry of the children of a group or manager. Every registered id is given a dense int
+// slot that it keeps until it is removed, with or without a live actor, so callers can keep
+// per-child state in primitive arrays indexed by slot. Lookups in both directions go through
+// open-addressing int tables holding slot + 1, which costs a few ints per entry instead of a
+// HashMap node per entry and map; removed slots are handed out again before new ones.
+final class ActorRegistry {
+
+  private static final int EMPTY = 0;
+
+  // by slot, null ids are free slots and null actors are ids without a live actor
+  private String[] ids;
+  private ActorRef[] actors;
+  // grown as slots are freed, most registries never free one
+  private int[] freeSlots = new int[0];
+  private int freeCount = 0;
+  // slots handed out so far, every used slot is below it
+  private int slotLimit = 0;
+  private int size = 0;
+  private int liveCount = 0;
+  // power-of-two tables kept at most half full; the actor table follows the live actors
+  // only, so ids that mostly sit passivated do not pay for it
+  private int[] idTable;
+  private int[] actorTable;
+  // the ids in ascending order, dropped when an id is added or removed and sorted again
+  // on the next call to sortedIds; never modified once built, so it can be shared
+  private String[] sortedIds;
+
+  ActorRegistry() {
+    this(16);
+  }
+
+  ActorRegistry(int expectedSize) {
+    int capacity = Math.max(expectedSize, 4);
+    ids = new String[capacity];
+    actors = new ActorRef[capacity];
+    idTable = new int[tableSizeFor(capacity)];
+    actorTable = new int[tableSizeFor(4)];
+  }
+
+  int size() {
+    return size;
+  }
+
+  int liveCount() {
+    return liveCount;
+  }
+
+  // slots are below this, arrays indexed by slot must be at least this long
+  int capacity() {
+    return ids.length;
+  }
+
+  // every used slot is below this, iterate up to it and skip those whose id is null
+  int slotLimit() {
+    return slotLimit;
+  }
+
+  String id(int slot) {
+    return ids[slot];
+  }
+
+  ActorRef actor(int slot) {
+    return actors[slot];
+  }
+
+  // -1 if the id is not registered
+  int slotOf(String id) {
+    int position = findId(id);
+    return position < 0 ? -1 : idTable[position] - 1;
+  }
+
+  // -1 if the actor is not registered
+  int slotOf(ActorRef actor) {
+    int position = findActor(actor);
+    return position < 0 ? -1 : actorTable[position] - 1;
+  }
+
+  // null if the id is not registered or has no live actor
+  ActorRef actorOf(String id) {
+    int slot = slotOf(id);
+    return slot < 0 ? null : actors[slot];
+  }
+
+  // registers the id without an actor; its slot, or -1 if the id is already registered
+  int add(String id) {
+    if (findId(id) >= 0) {
+      return -1;
+    }
+    ensureCapacity(size + 1);
+    int slot = freeCount > 0 ? freeSlots[--freeCount] : slotLimit++;
+    ids[slot] = id;
+    insert(idTable, hash(id), slot);
+    size++;
+    sortedIds = null;
+    return slot;
+  }
+
+  // the slot must not have a live actor yet
+  void setActor(int slot, ActorRef actor) {
+    if (2 * (liveCount + 1) > actorTable.length) {
+      actorTable = new int[actorTable.length * 2];
+      for (int s = 0; s < slotLimit; s++) {
+        if (actors[s] != null) {
+          insert(actorTable, hash(actors[s]), s);
+        }
+      }
+    }
+    actors[slot] = actor;
+    insert(actorTable, hash(actor), slot);
+    liveCount++;
+  }
+
+  // the actor the slot had, null if it had none
+  ActorRef clearActor(int slot) {
+    ActorRef actor = actors[slot];
+    if (actor != null) {
+      delete(actorTable, findActor(actor), false);
+      actors[slot] = null;
+      liveCount--;
+    }
+    return actor;
+  }
+
+  void remove(int slot) {
+    clearActor(slot);
+    delete(idTable, findId(ids[slot]), true);
+    ids[slot] = null;
+    if (freeCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, Math.max(4, freeCount * 2));
+    }
+    freeSlots[freeCount++] = slot;
+    size--;
+    sortedIds = null;
+  }
+
+  // sizes the registry for expectedSize ids at once instead of doubling through a batch
+  void ensureCapacity(int expectedSize) {
+    if (expectedSize <= ids.length) {
+      return;
+    }
+    int capacity = Math.max(expectedSize, ids.length * 2);
+    ids = Arrays.copyOf(ids, capacity);
+    actors = Arrays.copyOf(actors, capacity);
+    idTable = new int[tableSizeFor(capacity)];
+    for (int slot = 0; slot < slotLimit; slot++) {
+      if (ids[slot] != null) {
+        insert(idTable, hash(ids[slot]), slot);
+      }
+    }
+  }
+
+  // snapshots for the queries and listings, which outlive the message that asked for them
+
+  Map<ActorRef, String> liveActors() {
+    Map<ActorRef, String> live = new HashMap<>((int) (liveCount / 0.75f) + 1);
+    for (int slot = 0; slot < slotLimit; slot++) {
+      if (actors[slot] != null) {
+        live.put(actors[slot], ids[slot]);
+      }
+    }
+    return live;
+  }
+
+  Set<String> ids() {
+    Set<String> registered = new HashSet<>((int) (size / 0.75f) + 1);
+    for (int slot = 0; slot < slotLimit; slot++) {
+      if (ids[slot] != null) {
+        registered.add(ids[slot]);
+      }
+    }
+    return registered;
+  }
+
+  // the registered ids in ascending order; callers must not modify the array
+  String[] sortedIds() {
+    if (sortedIds == null) {
+      String[] sorted = new String[size];
+      int i = 0;
+      for (int slot = 0; slot < slotLimit; slot++) {
+        if (ids[slot] != null) {
+          sorted[i++] = ids[slot];
+        }
+      }
+      Arrays.sort(sorted);
+      sortedIds = sorted;
+    }
+    return sortedIds;
+  }
+
+  // bytes held by the registry's own arrays, the ids and actors themselves excluded;
+  // assumes 4-byte references
+  long footprint() {
+    return 4L * (ids.length + actors.length + freeSlots.length
+        + idTable.length + actorTable.length);
+  }
+
+  private int findId(String id) {
+    int mask = idTable.length - 1;
+    for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+      int entry = idTable[i];
+      if (entry == EMPTY) {
+        return -1;
+      }
+      if (ids[entry - 1].equals(id)) {
+        return i;
+      }
+    }
+  }
+
+  private int findActor(ActorRef actor) {
+    int mask = actorTable.length - 1;
+    for (int i = hash(actor) & mask; ; i = (i + 1) & mask) {
+      int entry = actorTable[i];
+      if (entry == EMPTY) {
+        return -1;
+      }
+      if (actors[entry - 1].equals(actor)) {
+        return i;
+      }
+    }
+  }
+
+  private static void insert(int[] table, int hash, int slot) {
+    int mask = table.length - 1;
+    int i = hash & mask;
+    while (table[i] != EMPTY) {
+      i = (i + 1) & mask;
+    }
+    table[i] = slot + 1;
+  }
+
+  // backward-shift deletion: entries further along the probe run move up into the hole
+  // whenever their home position allows it, so lookups never meet a tombstone
+  private void delete(int[] table, int position, boolean byId) {
+    int mask = table.length - 1;
+    int hole = position;
+    for (int i = (hole + 1) & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+      int slot = table[i] - 1;
+      int home = (byId ? hash(ids[slot]) : hash(actors[slot])) & mask;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        table[hole] = table[i];
+        hole = i;
+      }
+    }
+    table[hole] = EMPTY;
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int tableSizeFor(int entries) {
+    return Integer.highestOneBit(Math.max(entries, 2) * 2 - 1) * 2;
+  }
+}
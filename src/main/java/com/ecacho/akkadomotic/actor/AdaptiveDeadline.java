@@ -0,0 +1,68 @@
+package com.ecacho.akkadomotic.actor;
+
+import com.typesafe.config.Config;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import scala.concurrent.duration.FiniteDuration;
+
+// Deadline of a group's queries, derived from the latest device reply latencies the group's
+// queries reported: the configured percentile of them times a factor, kept within
+// [deadline-min, query-timeout]. Until enough replies have been seen, and for requests that
+// want every device, it is the plain query-timeout.
+final class AdaptiveDeadline {
+
+  // replies needed before the percentile is trusted
+  static final int MIN_SAMPLES = 64;
+
+  final boolean enabled;
+  final long queryTimeoutNanos;
+  final long minNanos;
+  final double percentile;
+  final double factor;
+  // ring of the latest reply latencies
+  final long[] samples;
+  int next = 0;
+  int size = 0;
+  // derived from samples, recomputed only after new samples arrived
+  long deadlineNanos;
+  boolean stale = true;
+
+  AdaptiveDeadline(Config group) {
+    this.enabled = group.getBoolean("adaptive-deadline");
+    this.queryTimeoutNanos = group.getDuration("query-timeout", TimeUnit.NANOSECONDS);
+    this.minNanos = group.getDuration("deadline-min", TimeUnit.NANOSECONDS);
+    this.percentile = group.getDouble("deadline-percentile");
+    this.factor = group.getDouble("deadline-factor");
+    this.samples = new long[enabled ? group.getInt("deadline-samples") : 0];
+    if (enabled && samples.length <= 0) {
+      throw new IllegalArgumentException(
+          "deadline-samples must be positive with adaptive-deadline on, was " + samples.length);
+    }
+  }
+
+  void record(long[] latencies, int count) {
+    if (!enabled) {
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      samples[next] = latencies[i];
+      next = (next + 1) % samples.length;
+      size = Math.min(size + 1, samples.length);
+    }
+    stale = stale || count > 0;
+  }
+
+  FiniteDuration deadline(boolean complete) {
+    if (complete || !enabled || size < Math.min(MIN_SAMPLES, samples.length)) {
+      return FiniteDuration.create(queryTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+    if (stale) {
+      long[] sorted = Arrays.copyOf(samples, size);
+      Arrays.sort(sorted);
+      long observed = sorted[Math.max(0, (int) Math.ceil(percentile * size) - 1)];
+      deadlineNanos = Math.max(minNanos, Math.min(queryTimeoutNanos, (long) (observed * factor)));
+      stale = false;
+    }
+    return FiniteDuration.create(deadlineNanos, TimeUnit.NANOSECONDS);
+  }
+}
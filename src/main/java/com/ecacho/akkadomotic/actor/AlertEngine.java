@@ -0,0 +1,230 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The alert rules of one group, indexed by device so a reading is only checked against the
+// rules that name its device plus the group-wide ones. Every rule keeps just enough state
+// per device to decide on the next reading: the start of the current run above threshold,
+// or the monotonic min/max queues of its window. Nothing is rescanned.
+final class AlertEngine {
+
+  interface Listener {
+    void alert(ActorRef owner, Object event);
+  }
+
+  final Map<String, List<Entry>> byDevice = new HashMap<>();
+  final List<Entry> groupWide = new ArrayList<>();
+  final Map<String, Entry> byRuleId = new HashMap<>();
+  // rule ids by the actor that registered them, so a Terminated of any other actor, e.g. a
+  // device, costs one lookup
+  final Map<ActorRef, Set<String>> byOwner = new HashMap<>();
+
+  static final class Entry {
+    final AlertRule rule;
+    final ActorRef owner;
+    // per device, a single one for device rules
+    final Map<String, RuleState> states = new HashMap<>();
+
+    Entry(AlertRule rule, ActorRef owner) {
+      this.rule = rule;
+      this.owner = owner;
+    }
+  }
+
+  boolean isEmpty() {
+    return byRuleId.isEmpty();
+  }
+
+  void register(AlertRule rule, ActorRef owner) {
+    remove(rule.ruleId);
+    Entry entry = new Entry(rule, owner);
+    byRuleId.put(rule.ruleId, entry);
+    byOwner.computeIfAbsent(owner, o -> new HashSet<>(2)).add(rule.ruleId);
+    if (rule.deviceId == null) {
+      groupWide.add(entry);
+    } else {
+      byDevice.computeIfAbsent(rule.deviceId, d -> new ArrayList<>(2)).add(entry);
+    }
+  }
+
+  boolean remove(String ruleId) {
+    Entry entry = byRuleId.remove(ruleId);
+    if (entry == null) {
+      return false;
+    }
+    Set<String> owned = byOwner.get(entry.owner);
+    if (owned != null && owned.remove(ruleId) && owned.isEmpty()) {
+      byOwner.remove(entry.owner);
+    }
+    if (entry.rule.deviceId == null) {
+      groupWide.remove(entry);
+    } else {
+      List<Entry> entries = byDevice.get(entry.rule.deviceId);
+      entries.remove(entry);
+      if (entries.isEmpty()) {
+        byDevice.remove(entry.rule.deviceId);
+      }
+    }
+    return true;
+  }
+
+  // drops every rule registered by owner
+  boolean removeOwner(ActorRef owner) {
+    Set<String> owned = byOwner.remove(owner);
+    if (owned == null) {
+      return false;
+    }
+    owned.forEach(this::remove);
+    return true;
+  }
+
+  boolean hasOwner(ActorRef owner) {
+    return byOwner.containsKey(owner);
+  }
+
+  // a device that left the group takes its rule state with it
+  void forgetDevice(String deviceId) {
+    for (Entry entry : groupWide) {
+      entry.states.remove(deviceId);
+    }
+    List<Entry> entries = byDevice.get(deviceId);
+    if (entries != null) {
+      for (Entry entry : entries) {
+        entry.states.clear();
+      }
+    }
+  }
+
+  void evaluate(String deviceId, double value, long timestamp, Listener listener) {
+    List<Entry> entries = byDevice.get(deviceId);
+    if (entries != null) {
+      for (int i = 0; i < entries.size(); i++) {
+        evaluate(entries.get(i), deviceId, value, timestamp, listener);
+      }
+    }
+    for (int i = 0; i < groupWide.size(); i++) {
+      evaluate(groupWide.get(i), deviceId, value, timestamp, listener);
+    }
+  }
+
+  private static void evaluate(Entry entry, String deviceId, double value, long timestamp,
+      Listener listener) {
+    RuleState state = entry.states.get(deviceId);
+    if (state == null) {
+      state = new RuleState();
+      entry.states.put(deviceId, state);
+    }
+
+    boolean firing;
+    AlertRule rule = entry.rule;
+    if (rule.kind == AlertRule.Kind.ABOVE_FOR) {
+      if (value > rule.threshold) {
+        if (state.aboveSince < 0) {
+          state.aboveSince = timestamp;
+        }
+        firing = timestamp - state.aboveSince >= rule.windowMillis;
+      } else {
+        state.aboveSince = -1;
+        firing = false;
+      }
+    } else {
+      state.window().add(timestamp, value, timestamp - rule.windowMillis);
+      firing = state.window.spread() > rule.threshold;
+    }
+
+    if (firing != state.raised) {
+      state.raised = firing;
+      listener.alert(entry.owner, firing
+          ? new DeviceGroup.AlertRaised(rule.ruleId, deviceId, value, timestamp)
+          : new DeviceGroup.AlertCleared(rule.ruleId, deviceId, value, timestamp));
+    }
+  }
+
+  static final class RuleState {
+    boolean raised = false;
+    long aboveSince = -1;
+    MinMaxWindow window;
+
+    MinMaxWindow window() {
+      if (window == null) {
+        window = new MinMaxWindow();
+      }
+      return window;
+    }
+  }
+
+  // sliding min and max in amortized O(1) per reading: each queue holds the readings that
+  // can still become the extreme, in timestamp order, so its head is the current one
+  static final class MinMaxWindow {
+    final MonotonicQueue min = new MonotonicQueue(true);
+    final MonotonicQueue max = new MonotonicQueue(false);
+
+    void add(long timestamp, double value, long evictBefore) {
+      min.add(timestamp, value, evictBefore);
+      max.add(timestamp, value, evictBefore);
+    }
+
+    double spread() {
+      return max.head() - min.head();
+    }
+  }
+
+  static final class MonotonicQueue {
+    final boolean ascending;
+    long[] timestamps = new long[4];
+    double[] values = new double[4];
+    int head = 0;
+    int size = 0;
+
+    MonotonicQueue(boolean ascending) {
+      this.ascending = ascending;
+    }
+
+    void add(long timestamp, double value, long evictBefore) {
+      while (size > 0 && dominates(value, values[index(size - 1)])) {
+        size--;
+      }
+      if (size == values.length) {
+        grow();
+      }
+      timestamps[index(size)] = timestamp;
+      values[index(size)] = value;
+      size++;
+      // the reading just added is never evicted, so the queue is never empty
+      while (timestamps[head] < evictBefore) {
+        head = (head + 1) % values.length;
+        size--;
+      }
+    }
+
+    double head() {
+      return values[head];
+    }
+
+    private boolean dominates(double value, double last) {
+      return ascending ? value <= last : value >= last;
+    }
+
+    private int index(int i) {
+      return (head + i) % values.length;
+    }
+
+    private void grow() {
+      long[] newTimestamps = new long[values.length * 2];
+      double[] newValues = new double[values.length * 2];
+      for (int i = 0; i < size; i++) {
+        newTimestamps[i] = timestamps[index(i)];
+        newValues[i] = values[index(i)];
+      }
+      timestamps = newTimestamps;
+      values = newValues;
+      head = 0;
+    }
+  }
+}
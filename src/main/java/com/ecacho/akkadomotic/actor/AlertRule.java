@@ -0,0 +1,50 @@
+package com.ecacho.akkadomotic.actor;
+
+import java.time.Duration;
+import lombok.ToString;
+
+// A condition on the readings of one device, or of every device of a group when deviceId
+// is null. Registered on a DeviceGroup with RegisterAlertRule and evaluated as each
+// reading arrives.
+@ToString
+public final class AlertRule {
+
+  enum Kind {
+    // every reading above threshold for at least window
+    ABOVE_FOR,
+    // highest minus lowest reading within the last window above threshold
+    DELTA_WITHIN
+  }
+
+  final String ruleId;
+  final String deviceId;
+  final Kind kind;
+  final double threshold;
+  final long windowMillis;
+
+  private AlertRule(String ruleId, String deviceId, Kind kind, double threshold,
+      long windowMillis) {
+    if (windowMillis < 0) {
+      throw new IllegalArgumentException("Negative window for rule " + ruleId);
+    }
+    this.ruleId = ruleId;
+    this.deviceId = deviceId;
+    this.kind = kind;
+    this.threshold = threshold;
+    this.windowMillis = windowMillis;
+  }
+
+  // raised once the readings have stayed above threshold for the duration, cleared by the
+  // first reading at or below it; a zero duration raises on the first reading above
+  public static AlertRule above(String ruleId, String deviceId, double threshold,
+      Duration duration) {
+    return new AlertRule(ruleId, deviceId, Kind.ABOVE_FOR, threshold, duration.toMillis());
+  }
+
+  // raised when the readings of the last window spread by more than delta, cleared once
+  // they no longer do
+  public static AlertRule deltaWithin(String ruleId, String deviceId, double delta,
+      Duration window) {
+    return new AlertRule(ruleId, deviceId, Kind.DELTA_WITHIN, delta, window.toMillis());
+  }
+}
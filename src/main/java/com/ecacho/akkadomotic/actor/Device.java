@@ -1,24 +1,83 @@
 package com.ecacho.akkadomotic.actor;
 
-import akka.actor.AbstractLoggingActor;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Terminated;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import com.ecacho.akkadomotic.persistence.DevicePersistence;
+import com.ecacho.akkadomotic.persistence.Journal;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import lombok.AllArgsConstructor;
+import lombok.Getter;
+import scala.concurrent.duration.FiniteDuration;
 
-public class Device extends AbstractLoggingActor {
+public class Device extends MeteredActor {
   //private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
   final String groupId;
   final String deviceId;
-  Optional<Double> lastTemperatureReading = Optional.empty();
+  // started by a DeviceGroup, which keeps our last reading and stops us on Passivate; a
+  // device created on its own has nobody to send either to
+  final boolean inGroup;
+  final int historyCapacity;
+  final long passivateAfterMillis;
+  // shared by every producer asking for credits, never more than the mailbox queues
+  final TemperatureCredits credits;
+  final Journal journal;
+  final byte[] journalGroupId;
+  final byte[] journalDeviceId;
+  // kept primitive so recording boxes nothing; the Optional for RespondTemperature is
+  // built on the first read after a recording and reused until the next one
+  boolean hasTemperature;
+  double lastTemperature;
+  Optional<Double> lastTemperatureReading;
+  TemperatureHistory history;
+  final TemperatureSubscribers subscribers = new TemperatureSubscribers();
 
-  public Device(String groupId, String deviceId) {
+  public Device(String groupId, String deviceId, Optional<Double> lastTemperatureReading,
+      boolean inGroup) {
     this.groupId = groupId;
     this.deviceId = deviceId;
+    this.inGroup = inGroup;
+    this.hasTemperature = lastTemperatureReading.isPresent();
+    this.lastTemperature = lastTemperatureReading.orElse(0d);
+    this.lastTemperatureReading = lastTemperatureReading;
+    this.historyCapacity = getContext().getSystem().settings().config()
+        .getInt("akkadomotic.device.history-capacity");
+    this.passivateAfterMillis = getContext().getSystem().settings().config()
+        .getDuration("akkadomotic.device.passivate-after", TimeUnit.MILLISECONDS);
+    this.credits = new TemperatureCredits(Math.min(
+        getContext().getSystem().settings().config()
+            .getInt("akkadomotic.flow-control.device-credits"),
+        getContext().getSystem().settings().config()
+            .getInt("akkadomotic.device-mailbox.ingest-capacity")));
+    this.journal = DevicePersistence.get(getContext().getSystem()).journal();
+    this.journalGroupId = journal != null ? Journal.key(groupId) : null;
+    this.journalDeviceId = journal != null ? Journal.key(deviceId) : null;
   }
 
   public static Props props(String groupId, String deviceId) {
-    return Props.create(Device.class, groupId, deviceId);
+    return props(groupId, deviceId, Optional.empty());
+  }
+
+  // used when the device is restored with the reading it had before a restart
+  public static Props props(
+      String groupId, String deviceId, Optional<Double> lastTemperatureReading) {
+    return props(groupId, deviceId, lastTemperatureReading, false);
+  }
+
+  // a device of a DeviceGroup, which is sent every reading and may passivate the device
+  static Props groupMemberProps(
+      String groupId, String deviceId, Optional<Double> lastTemperatureReading) {
+    return props(groupId, deviceId, lastTemperatureReading, true);
+  }
+
+  private static Props props(String groupId, String deviceId,
+      Optional<Double> lastTemperatureReading, boolean inGroup) {
+    return Props.create(Device.class, groupId, deviceId, lastTemperatureReading, inGroup)
+        .withMailbox("akkadomotic.device-mailbox")
+        .withDispatcher("akkadomotic.device-dispatcher");
   }
 
   /*
@@ -44,15 +103,74 @@ public class Device extends AbstractLoggingActor {
     final Optional<Double> value;
   }
 
+  // primitive variant of ReadTemperature, answered without an Optional or a boxed Double
+  @AllArgsConstructor
+  public static final class ReadTemperatureValue {
+    final long requestId;
+  }
+
+  @AllArgsConstructor
+  public static final class RespondTemperatureValue {
+    final long requestId;
+    final boolean hasValue;
+    // 0 when hasValue is false
+    final double value;
+  }
+
   @AllArgsConstructor
   public static final class RecordTemperature {
+    // readings recorded with this id are all acknowledged with the same shared instance
+    public static final long UNCORRELATED = -1L;
+
     final long requestId;
     final double value;
+    // sent on a credit this device granted, which the mailbox gives back if it drops it
+    final boolean credited;
+
+    public RecordTemperature(long requestId, double value) {
+      this(requestId, value, false);
+    }
   }
 
   @AllArgsConstructor
+  @Getter
   public static final class TemperatureRecorded {
+    public static final TemperatureRecorded UNCORRELATED =
+        new TemperatureRecorded(RecordTemperature.UNCORRELATED);
+
+    final long requestId;
+  }
+
+  @AllArgsConstructor
+  public static final class ReadTemperatureRange {
+    final long requestId;
+    final long from;
+    final long to;
+  }
+
+  @AllArgsConstructor
+  public static final class RespondTemperatureRange {
+    final long requestId;
+    final long[] timestamps;
+    final double[] values;
+  }
+
+  @AllArgsConstructor
+  public static final class ReadDownsampled {
+    final long requestId;
+    final long from;
+    final long to;
+    final long step;
+  }
+
+  @AllArgsConstructor
+  public static final class RespondDownsampled {
     final long requestId;
+    final long[] bucketStarts;
+    final double[] min;
+    final double[] max;
+    final double[] avg;
+    final int[] counts;
   }
 
   /*
@@ -69,12 +187,21 @@ public class Device extends AbstractLoggingActor {
 
   @Override
   public void preStart() {
-    log().info("Device actor {}-{} started", groupId, deviceId);
+    // debug, a bulk registration or a wave of rehydrations starts devices by the thousand
+    if (log().isDebugEnabled()) {
+      log().debug("Device actor {}-{} started", groupId, deviceId);
+    }
+    if (inGroup && passivateAfterMillis > 0) {
+      getContext().setReceiveTimeout(
+          FiniteDuration.create(passivateAfterMillis, TimeUnit.MILLISECONDS));
+    }
   }
 
   @Override
   public void postStop() {
-    log().info("Device actor {}-{} stopped", groupId, deviceId);
+    if (log().isDebugEnabled()) {
+      log().debug("Device actor {}-{} stopped", groupId, deviceId);
+    }
   }
 
   @Override
@@ -93,16 +220,122 @@ public class Device extends AbstractLoggingActor {
           }
         })
         .match(ReadTemperature.class, r -> {
+          if (lastTemperatureReading == null) {
+            lastTemperatureReading = Optional.of(lastTemperature);
+          }
           getSender().tell(
               new RespondTemperature(r.requestId, lastTemperatureReading),
               getSelf());
         })
+        .match(ReadTemperatureValue.class, r -> {
+          getSender().tell(
+              new RespondTemperatureValue(r.requestId, hasTemperature, lastTemperature),
+              getSelf());
+        })
+        .match(ReadTemperatureRange.class, r -> {
+          getSender().tell(
+              history().range(r.requestId, r.from, r.to),
+              getSelf());
+        })
+        .match(ReadDownsampled.class, r -> {
+          if (r.step <= 0) {
+            // answered empty so the requester does not wait out its own timeout
+            log().warning("Rejecting downsampled read {} with step {}", r.requestId, r.step);
+            getSender().tell(
+                new RespondDownsampled(r.requestId, new long[0], new double[0],
+                    new double[0], new double[0], new int[0]),
+                getSelf());
+            return;
+          }
+          getSender().tell(
+              history().downsample(r.requestId, r.from, r.to, r.step),
+              getSelf());
+        })
         .match(RecordTemperature.class, r -> {
-          log().info("Recorded temperature reading {} with {}", r.requestId, r.value);
+          if (log().isDebugEnabled()) {
+            log().debug("Recorded temperature reading {} with {}", r.requestId, r.value);
+          }
 
-          lastTemperatureReading = Optional.of(r.value);
-          getSender().tell(new TemperatureRecorded(r.requestId), getSelf());
+          record(r.value);
+          if (r.credited) {
+            credits.consumed(getSender(), getSelf());
+          }
+          getSender().tell(
+              r.requestId == RecordTemperature.UNCORRELATED
+                  ? TemperatureRecorded.UNCORRELATED
+                  : new TemperatureRecorded(r.requestId),
+              getSelf());
+        })
+        .match(DeviceManager.DeviceReading.class, r -> {
+          // readings that arrive as part of a batch are acknowledged by the group
+          record(r.value);
+        })
+        .match(PriorityMailbox.ReadingDropped.class, r -> {
+          credits.consumed(r.sender, getSelf());
+        })
+        .match(TemperatureFlowControl.RequestCredits.class, r -> {
+          if (!credits.contains(getSender())) {
+            getContext().watch(getSender());
+          }
+          credits.request(getSender(), r.requestId, getSelf());
+        })
+        .match(TemperatureSubscription.Subscribe.class, r -> {
+          getContext().watch(getSender());
+          subscribers.subscribe(getSender(), r.requestId);
+        })
+        .match(TemperatureSubscription.Request.class, r -> {
+          subscribers.request(getSender(), r.n, getSelf());
+        })
+        .match(TemperatureSubscription.Unsubscribe.class, r -> {
+          if (subscribers.remove(getSender())) {
+            getContext().unwatch(getSender());
+          }
+        })
+        .match(Terminated.class, t -> {
+          credits.remove(t.getActor(), getSelf());
+          subscribers.remove(t.getActor());
+        })
+        .match(ReceiveTimeout.class, r -> {
+          if (!subscribers.isEmpty()) {
+            // subscribers would silently stop getting updates, stay up while there are any
+            return;
+          }
+          // the group stops us once it has taken over our last reading
+          getContext().cancelReceiveTimeout();
+          getContext().getParent().tell(DeviceGroup.Passivate.INSTANCE, getSelf());
         })
         .build();
   }
+
+  private void record(double value) {
+    long timestamp = System.currentTimeMillis();
+    hasTemperature = true;
+    lastTemperature = value;
+    lastTemperatureReading = null;
+    if (historyCapacity > 0) {
+      history().record(timestamp, value);
+    }
+    if (journal != null) {
+      journal.appendRecord(journalGroupId, journalDeviceId, value);
+    }
+
+    if (!subscribers.isEmpty()) {
+      subscribers.publish(deviceId, value, timestamp, getSelf());
+    }
+
+    // keep the group's last-known snapshot current
+    if (inGroup) {
+      getContext().getParent().tell(
+          new DeviceGroup.TemperatureUpdated(deviceId, value, timestamp),
+          getSelf());
+    }
+  }
+
+  // allocated lazily so devices that never report cost nothing
+  private TemperatureHistory history() {
+    if (history == null) {
+      history = new TemperatureHistory(historyCapacity);
+    }
+    return history;
+  }
 }
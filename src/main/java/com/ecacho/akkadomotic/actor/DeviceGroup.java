@@ -1,32 +1,96 @@
 package com.ecacho.akkadomotic.actor;
 
 
-import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
 import akka.actor.Terminated;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import com.ecacho.akkadomotic.persistence.DevicePersistence;
+import com.ecacho.akkadomotic.persistence.Journal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.ToString;
+import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
-public class DeviceGroup extends AbstractLoggingActor {
+public class DeviceGroup extends MeteredActor {
 
   final String groupId;
-  final Map<String, ActorRef> deviceIdToActor = new HashMap<>();
-  final Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+  // every device of the group, live or passivated; for a passivated device its slot and
+  // last reading are all that is left of it until a message for it arrives
+  final ActorRegistry registry = new ActorRegistry();
+  // last reading of every device, by registry slot
+  double[] lastTemperatures = new double[registry.capacity()];
+  boolean[] hasTemperature = new boolean[registry.capacity()];
+  // devices whose actor is stopping after a Passivate, with what arrived for them meanwhile
+  final Map<String, List<Buffered>> passivating = new HashMap<>();
+  final Map<ActorRef, String> passivatingActors = new HashMap<>();
+  final boolean passivation;
+  final TemperatureSubscribers subscribers = new TemperatureSubscribers();
+  final AlertEngine alerts = new AlertEngine();
+  // null when no windows are configured
+  final WindowedAggregates aggregates;
+  final AdaptiveDeadline deadline;
+  final boolean coalesceQueries;
+  final long coalesceWindowMillis;
+  final int listPageMax;
+  // shared by every producer asking for credits, for all devices of the group
+  final TemperatureCredits credits;
+  // the fan-out answering coalescedRequests, null when none is running
+  ActorRef coalescedQuery;
+  final List<QueryWaiter> coalescedRequests = new ArrayList<>();
+  // result of the last fan-out, reused until lastQueryExpires or the registry changes
+  Map<String, TemperatureReading> lastQueryResult;
+  long lastQueryExpires;
+  // the running fan-out started before the registry changed, its result is not reused
+  boolean coalescedQueryStale;
+  final AlertEngine.Listener alertListener = (owner, event) -> owner.tell(event, getSelf());
+  long snapshotLagMillis = 0;
+  final Journal journal;
+  final byte[] journalGroupId;
 
   public DeviceGroup(String groupId) {
     this.groupId = groupId;
+    this.journal = DevicePersistence.get(getContext().getSystem()).journal();
+    this.journalGroupId = journal != null ? Journal.key(groupId) : null;
+    this.passivation = !getContext().getSystem().settings().config()
+        .getDuration("akkadomotic.device.passivate-after").isZero();
+    List<java.time.Duration> windows = getContext().getSystem().settings().config()
+        .getDurationList("akkadomotic.group.aggregate-windows");
+    this.aggregates = windows.isEmpty()
+        ? null
+        : new WindowedAggregates(windows, getContext().getSystem().settings().config()
+            .getInt("akkadomotic.group.aggregate-buckets"));
+    this.deadline = new AdaptiveDeadline(
+        getContext().getSystem().settings().config().getConfig("akkadomotic.group"));
+    this.coalesceQueries = getContext().getSystem().settings().config()
+        .getBoolean("akkadomotic.group.coalesce-queries");
+    this.coalesceWindowMillis = getContext().getSystem().settings().config()
+        .getDuration("akkadomotic.group.coalesce-window", TimeUnit.MILLISECONDS);
+    this.listPageMax = getContext().getSystem().settings().config()
+        .getInt("akkadomotic.group.list-page-max");
+    this.credits = new TemperatureCredits(Math.min(
+        getContext().getSystem().settings().config()
+            .getInt("akkadomotic.flow-control.group-credits"),
+        getContext().getSystem().settings().config()
+            .getInt("akkadomotic.group-mailbox.ingest-capacity")));
   }
 
   public static Props props(String groupId) {
-    return Props.create(DeviceGroup.class, groupId);
+    return Props.create(DeviceGroup.class, groupId)
+        .withMailbox("akkadomotic.group-mailbox")
+        .withDispatcher("akkadomotic.registry-dispatcher");
   }
 
   /*
@@ -52,17 +116,248 @@ public class DeviceGroup extends AbstractLoggingActor {
     final Set<String> list;
   }
 
+  // one page of the device ids in ascending order: the first limit ids after the cursor
+  // that start with prefix. The limit is capped at akkadomotic.group.list-page-max
+  @AllArgsConstructor
+  public static final class RequestDeviceListPage {
+    final long requestId;
+    // "" lists every device
+    final String prefix;
+    // nextCursor of the previous page, null for the first page
+    final String after;
+    final int limit;
+  }
+
+  @AllArgsConstructor
+  public static final class ReplyDeviceListPage {
+    final long requestId;
+    final List<String> deviceIds;
+    // pass as after to get the next page, null on the last page
+    final String nextCursor;
+  }
+
   @AllArgsConstructor
   public static final class RequestAllTemperatures {
     final long requestId;
+    // how far behind the devices an answer may be; zero asks every device
+    final FiniteDuration maxStaleness;
+    // fraction of the live devices whose replies complete the query, the others are
+    // reported as DeviceTimeout; 1 waits for every device
+    final double quorum;
+    // wait up to the full query-timeout rather than the adaptive deadline
+    final boolean complete;
+
+    public RequestAllTemperatures(long requestId) {
+      this(requestId, Duration.Zero());
+    }
+
+    public RequestAllTemperatures(long requestId, FiniteDuration maxStaleness) {
+      this(requestId, maxStaleness, 1.0, false);
+    }
   }
 
   @AllArgsConstructor
+  @Getter
   public static final class RespondAllTemperatures {
     final long requestId;
     final Map<String, TemperatureReading> temperatures;
   }
 
+  // answered from the aggregates the group keeps up to date, without asking the devices
+  @AllArgsConstructor
+  public static final class RequestGroupAggregates {
+    final long requestId;
+  }
+
+  @AllArgsConstructor
+  @Getter
+  public static final class RespondGroupAggregates {
+    final long requestId;
+    // per configured window, the readings of the last window up to now
+    final Map<java.time.Duration, WindowAggregate> sliding;
+    // per configured window, the readings of the last complete window aligned to its size
+    final Map<java.time.Duration, WindowAggregate> tumbling;
+  }
+
+  @AllArgsConstructor
+  @Getter
+  @ToString
+  public static final class WindowAggregate {
+    // epoch millis, from inclusive, to exclusive
+    final long from;
+    final long to;
+    final long count;
+    // NaN when count is 0
+    final double min;
+    final double max;
+    final double mean;
+  }
+
+  // reduced by the query while it collects, instead of a map with an entry per device
+  @AllArgsConstructor
+  public static final class RequestTemperatureSummary {
+    final long requestId;
+    // fractions within [0, 1], e.g. 0.5 and 0.99
+    final double[] percentiles;
+    // strictly ascending upper bounds of the histogram buckets, a last bucket takes
+    // everything above; empty for no histogram
+    final double[] histogramBounds;
+
+    public RequestTemperatureSummary(long requestId) {
+      this(requestId, new double[0], new double[0]);
+    }
+  }
+
+  @AllArgsConstructor
+  @Getter
+  public static final class RespondTemperatureSummary {
+    final long requestId;
+    // devices that answered with a temperature
+    final int count;
+    final int notAvailable;
+    final int devicesNotAvailable;
+    final int timedOut;
+    // NaN when count is 0
+    final double min;
+    final double max;
+    final double mean;
+    // one per requested percentile, in the same order
+    final double[] percentiles;
+    // histogramBounds.length + 1 counts, or none
+    final long[] histogram;
+  }
+
+  // streamed as TemperatureChunk messages of at most chunkSize devices while the devices
+  // answer, then a TemperatureChunksCompleted
+  @AllArgsConstructor
+  public static final class RequestTemperatureChunks {
+    final long requestId;
+    final int chunkSize;
+  }
+
+  @AllArgsConstructor
+  @Getter
+  public static final class TemperatureChunk {
+    final long requestId;
+    // 0 for the first chunk of a request
+    final int sequenceNr;
+    // devices that answered, with a Temperature or TemperatureNotAvailable
+    final Map<String, TemperatureReading> temperatures;
+  }
+
+  @AllArgsConstructor
+  @Getter
+  public static final class TemperatureChunksCompleted {
+    final long requestId;
+    final int chunks;
+    final int devicesAnswered;
+    // stopped while the query ran
+    final Set<String> devicesNotAvailable;
+    final Set<String> devicesTimedOut;
+  }
+
+  @AllArgsConstructor
+  public static final class RestoreDevices {
+    // last reading per device, null for devices that never reported
+    final Map<String, Double> lastTemperatures;
+  }
+
+  @AllArgsConstructor
+  public static final class TemperatureUpdated {
+    final String deviceId;
+    final double value;
+    final long timestamp;
+  }
+
+  // the sender receives the AlertRaised and AlertCleared events of the rule; a rule with
+  // the id of an existing one replaces it
+  @AllArgsConstructor
+  public static final class RegisterAlertRule {
+    final long requestId;
+    final AlertRule rule;
+  }
+
+  @AllArgsConstructor
+  public static final class AlertRuleRegistered {
+    final long requestId;
+  }
+
+  @AllArgsConstructor
+  public static final class RemoveAlertRule {
+    final long requestId;
+    final String ruleId;
+  }
+
+  @AllArgsConstructor
+  public static final class AlertRuleRemoved {
+    final long requestId;
+    // false if the group had no such rule
+    final boolean removed;
+  }
+
+  @AllArgsConstructor
+  @Getter
+  @ToString
+  public static final class AlertRaised {
+    final String ruleId;
+    final String deviceId;
+    final double value;
+    final long timestamp;
+  }
+
+  @AllArgsConstructor
+  @Getter
+  @ToString
+  public static final class AlertCleared {
+    final String ruleId;
+    final String deviceId;
+    final double value;
+    final long timestamp;
+  }
+
+  // sent by an idle device, the group stops it and keeps only its last reading
+  public enum Passivate {
+    INSTANCE
+  }
+
+  @AllArgsConstructor
+  static final class PassivationCompleted {
+    final String deviceId;
+  }
+
+  // asked by a query whose device stopped before answering; answered from the compact record
+  // if the device was passivated, as DeviceNotAvailable if it is gone. Ordered behind the
+  // device's last TemperatureUpdated, so the record is final, see PriorityMailbox
+  @AllArgsConstructor
+  static final class ReadStoppedDevice {
+    final String deviceId;
+    final ActorRef deviceActor;
+  }
+
+  @AllArgsConstructor
+  static final class RespondStoppedDevice {
+    final ActorRef deviceActor;
+    final TemperatureReading reading;
+  }
+
+  // the coalesced fan-out stopped; sent to ourselves so its answer, if any, comes first
+  @AllArgsConstructor
+  static final class CoalescedQueryStopped {
+    final ActorRef query;
+  }
+
+  @AllArgsConstructor
+  private static final class QueryWaiter {
+    final long requestId;
+    final ActorRef requester;
+  }
+
+  @AllArgsConstructor
+  private static final class Buffered {
+    final Object message;
+    final ActorRef sender;
+  }
+
   public static interface TemperatureReading{}
 
   @AllArgsConstructor
@@ -111,45 +406,298 @@ public class DeviceGroup extends AbstractLoggingActor {
   public Receive createReceive() {
     return receiveBuilder()
         .match(DeviceManager.RequestTrackDevice.class, this::onTrackDevice)
+        .match(DeviceManager.RequestTrackDevices.class, this::onTrackDevices)
+        .match(DeviceManager.RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+        .match(DeviceManager.DeviceEnvelope.class, this::onDeviceEnvelope)
+        .match(Passivate.class, p -> onPassivate())
+        .match(PassivationCompleted.class, this::onPassivationCompleted)
         .match(RequestDeviceList.class, this::onDeviceList)
+        .match(RequestDeviceListPage.class, this::onDeviceListPage)
         .match(Terminated.class, this::onTerminated)
         .match(RequestAllTemperatures.class, this::onRequestAllTemperatures)
+        .match(RespondAllTemperatures.class, this::onCoalescedQueryCompleted)
+        .match(CoalescedQueryStopped.class, this::onCoalescedQueryStopped)
+        .match(ReadStoppedDevice.class, this::onReadStoppedDevice)
+        .match(DeviceGroupQuery.ReplyLatencies.class,
+            r -> deadline.record(r.latencies, r.count))
+        .match(RequestTemperatureSummary.class, this::onRequestTemperatureSummary)
+        .match(RequestTemperatureChunks.class, this::onRequestTemperatureChunks)
+        .match(TemperatureUpdated.class, this::onTemperatureUpdated)
+        .match(RestoreDevices.class, this::onRestoreDevices)
+        .match(RequestGroupAggregates.class, this::onRequestGroupAggregates)
+        .match(TemperatureFlowControl.RequestCredits.class, this::onRequestCredits)
+        .match(PriorityMailbox.ReadingDropped.class, r -> credits.consumed(r.sender, getSelf()))
+        .match(TemperatureSubscription.Subscribe.class, this::onSubscribe)
+        .match(TemperatureSubscription.Request.class,
+            r -> subscribers.request(getSender(), r.n, getSelf()))
+        .match(TemperatureSubscription.Unsubscribe.class, this::onUnsubscribe)
+        .match(RegisterAlertRule.class, this::onRegisterAlertRule)
+        .match(RemoveAlertRule.class, r -> getSender().tell(
+            new AlertRuleRemoved(r.requestId, alerts.remove(r.ruleId)), getSelf()))
         .build();
   }
 
+  private void onRestoreDevices(RestoreDevices restore) {
+    log().info("Restoring {} devices for group {}", restore.lastTemperatures.size(), groupId);
+
+    ensureCapacity(registry.size() + restore.lastTemperatures.size());
+    for (Map.Entry<String, Double> device : restore.lastTemperatures.entrySet()) {
+      int slot = register(device.getKey());
+      if (slot < 0) {
+        continue;
+      }
+      if (device.getValue() != null) {
+        hasTemperature[slot] = true;
+        lastTemperatures[slot] = device.getValue();
+      }
+      // with passivation the restored devices start passivated and wake up on demand
+      if (!passivation) {
+        startDevice(slot);
+      }
+    }
+  }
+
+  private void onTemperatureUpdated(TemperatureUpdated update) {
+    int slot = registry.slotOf(update.deviceId);
+    if (slot >= 0) {
+      hasTemperature[slot] = true;
+      lastTemperatures[slot] = update.value;
+      snapshotLagMillis = Math.max(0, System.currentTimeMillis() - update.timestamp);
+      if (!subscribers.isEmpty()) {
+        subscribers.publish(update.deviceId, update.value, update.timestamp, getSelf());
+      }
+      if (!alerts.isEmpty()) {
+        alerts.evaluate(update.deviceId, update.value, update.timestamp, alertListener);
+      }
+      if (aggregates != null) {
+        aggregates.record(update.timestamp, update.value);
+      }
+    }
+  }
+
+  private void onRequestGroupAggregates(RequestGroupAggregates rq) {
+    long now = System.currentTimeMillis();
+    getSender().tell(
+        aggregates == null
+            ? new RespondGroupAggregates(
+                rq.requestId, Collections.emptyMap(), Collections.emptyMap())
+            : new RespondGroupAggregates(
+                rq.requestId, aggregates.sliding(now), aggregates.tumbling(now)),
+        getSelf());
+  }
+
+  private void onRegisterAlertRule(RegisterAlertRule register) {
+    // rules go with their owner
+    getContext().watch(getSender());
+    alerts.register(register.rule, getSender());
+    getSender().tell(new AlertRuleRegistered(register.requestId), getSelf());
+  }
+
+  // every update of the group reaches us as TemperatureUpdated, so group subscribers are
+  // served from here and outlive the passivation of the devices they follow
+  private void onSubscribe(TemperatureSubscription.Subscribe subscribe) {
+    getContext().watch(getSender());
+    subscribers.subscribe(getSender(), subscribe.requestId);
+  }
+
+  private void onUnsubscribe(TemperatureSubscription.Unsubscribe unsubscribe) {
+    if (subscribers.remove(getSender()) && !alerts.hasOwner(getSender())) {
+      getContext().unwatch(getSender());
+    }
+  }
+
   private void onRequestAllTemperatures(RequestAllTemperatures rq) {
-    Map<ActorRef, String> map = Collections.unmodifiableMap(actorToDeviceId);
+    // the snapshot trails the devices by the updates still queued for us, which the
+    // lag of the latest update approximates; within the caller's bound no fan-out is needed
+    if (rq.maxStaleness.toMillis() > 0 && snapshotLagMillis <= rq.maxStaleness.toMillis()) {
+      getSender().tell(
+          new RespondAllTemperatures(
+              rq.requestId,
+              Collections.unmodifiableMap(readings(false))),
+          getSelf());
+      return;
+    }
+
+    if (!(rq.quorum > 0 && rq.quorum <= 1)) {
+      // answered empty so the requester does not wait out its own timeout
+      log().warning("Rejecting temperature request {} with quorum {}", rq.requestId, rq.quorum);
+      getSender().tell(
+          new RespondAllTemperatures(rq.requestId, Collections.emptyMap()), getSelf());
+      return;
+    }
+
+    // only requests with the default quorum and deadline share a fan-out
+    if (!coalesceQueries || rq.quorum < 1 || rq.complete) {
+      startQuery(null, null, rq.requestId, getSender(), rq.quorum, rq.complete);
+      return;
+    }
+
+    if (lastQueryResult != null && System.currentTimeMillis() < lastQueryExpires) {
+      metrics.queriesCoalesced.increment();
+      getSender().tell(new RespondAllTemperatures(rq.requestId, lastQueryResult), getSelf());
+      return;
+    }
+
+    // every request arriving while a fan-out runs is answered by it, so the devices are
+    // read once per fan-out however many clients ask
+    coalescedRequests.add(new QueryWaiter(rq.requestId, getSender()));
+    if (coalescedQuery != null) {
+      metrics.queriesCoalesced.increment();
+      return;
+    }
+    coalescedQuery = startQuery(null, null, rq.requestId, getSelf(), 1.0, false);
+    coalescedQueryStale = false;
+    getContext().watch(coalescedQuery);
+  }
+
+  // a device joined or left, answers reused from before would miss it or still list it
+  private void forgetLastQuery() {
+    lastQueryResult = null;
+    coalescedQueryStale = coalescedQuery != null;
+  }
+
+  private void onCoalescedQueryCompleted(RespondAllTemperatures response) {
+    if (!getSender().equals(coalescedQuery)) {
+      return;
+    }
+    getContext().unwatch(coalescedQuery);
+    coalescedQuery = null;
+
+    Map<String, TemperatureReading> result = Collections.unmodifiableMap(response.temperatures);
+    for (QueryWaiter waiter : coalescedRequests) {
+      waiter.requester.tell(new RespondAllTemperatures(waiter.requestId, result), getSelf());
+    }
+    coalescedRequests.clear();
+
+    if (coalesceWindowMillis > 0 && !coalescedQueryStale) {
+      lastQueryResult = result;
+      lastQueryExpires = System.currentTimeMillis() + coalesceWindowMillis;
+    }
+  }
+
+  private void onCoalescedQueryStopped(CoalescedQueryStopped stopped) {
+    if (!stopped.query.equals(coalescedQuery)) {
+      return;
+    }
+    // it stopped without answering; the waiters get the last-known readings rather than
+    // nothing, and the next request starts a new fan-out
+    log().warning("Coalesced temperature query {} stopped without answering", stopped.query);
+    coalescedQuery = null;
+    Map<String, TemperatureReading> snapshot = Collections.unmodifiableMap(readings(false));
+    for (QueryWaiter waiter : coalescedRequests) {
+      waiter.requester.tell(new RespondAllTemperatures(waiter.requestId, snapshot), getSelf());
+    }
+    coalescedRequests.clear();
+  }
+
+  private void onReadStoppedDevice(ReadStoppedDevice rq) {
+    // passivated devices lost their actor, or were brought back with a new one
+    int slot = registry.slotOf(rq.deviceId);
+    getSender().tell(
+        new RespondStoppedDevice(
+            rq.deviceActor,
+            slot >= 0 && !rq.deviceActor.equals(registry.actor(slot))
+                ? reading(slot)
+                : DeviceNotAvailable.INSTANCE),
+        getSelf());
+  }
+
+  private void onRequestTemperatureSummary(RequestTemperatureSummary rq) {
+    if (!TemperatureSummaryBuilder.isValid(rq.percentiles, rq.histogramBounds)) {
+      // answered empty so the requester does not wait out its own timeout
+      log().warning("Rejecting temperature summary {} with percentiles {} and bounds {}",
+          rq.requestId, Arrays.toString(rq.percentiles), Arrays.toString(rq.histogramBounds));
+      getSender().tell(
+          new RespondTemperatureSummary(rq.requestId, 0, 0, 0, 0,
+              Double.NaN, Double.NaN, Double.NaN, new double[0], new long[0]),
+          getSelf());
+      return;
+    }
+
+    startQuery(
+        new TemperatureSummaryBuilder(
+            rq.percentiles, rq.histogramBounds, registry.size()),
+        null,
+        rq.requestId,
+        getSender(),
+        1.0,
+        false);
+  }
 
-    getContext()
+  private void onRequestTemperatureChunks(RequestTemperatureChunks rq) {
+    if (rq.chunkSize <= 0) {
+      // completed with nothing answered so the requester does not wait out its own timeout
+      log().warning("Rejecting chunked temperature request {} with chunk size {}",
+          rq.requestId, rq.chunkSize);
+      getSender().tell(
+          new TemperatureChunksCompleted(
+              rq.requestId, 0, 0, Collections.emptySet(), Collections.emptySet()),
+          getSelf());
+      return;
+    }
+    startQuery(
+        null,
+        new TemperatureChunker(rq.requestId, getSender(), rq.chunkSize),
+        rq.requestId,
+        getSender(),
+        1.0,
+        false);
+  }
+
+  private ActorRef startQuery(TemperatureSummaryBuilder summary, TemperatureChunker chunks,
+      long requestId, ActorRef requester, double quorum, boolean complete) {
+    return getContext()
         .actorOf(
             DeviceGroupQuery.props(
-                map,
-                rq.requestId,
-                getSender(),
-                new FiniteDuration(3, TimeUnit.SECONDS)
+                Collections.unmodifiableMap(registry.liveActors()),
+                readings(true),
+                summary,
+                chunks,
+                requestId,
+                requester,
+                deadline.deadline(complete),
+                quorum,
+                getSelf(),
+                getSelf()
             )
         );
   }
 
+  // snapshot of the last readings, of the passivated devices only or of all of them; the
+  // queries run on their own, so they get copies rather than views of the registry
+  private Map<String, TemperatureReading> readings(boolean passivatedOnly) {
+    int expected = passivatedOnly ? registry.size() - registry.liveCount() : registry.size();
+    Map<String, TemperatureReading> readings = new HashMap<>((int) (expected / 0.75f) + 1);
+    if (expected > 0) {
+      for (int slot = 0; slot < registry.slotLimit(); slot++) {
+        if (registry.id(slot) != null && !(passivatedOnly && registry.actor(slot) != null)) {
+          readings.put(registry.id(slot), reading(slot));
+        }
+      }
+    }
+    return readings;
+  }
+
+  private TemperatureReading reading(int slot) {
+    return hasTemperature[slot]
+        ? new Temperature(lastTemperatures[slot])
+        : TemperatureNotAvailable.INSTANCE;
+  }
+
   private void onTrackDevice(DeviceManager.RequestTrackDevice trackMsg) {
     if (this.groupId.equals(trackMsg.groupId)) {
-      ActorRef deviceActor = deviceIdToActor.get(trackMsg.deviceId);
-
-      if (deviceActor!= null) {
-        deviceActor.forward(trackMsg, getContext());
-      } else {
+      int slot = register(trackMsg.deviceId);
+      if (slot >= 0) {
         log().info("Creating device actor for {}", trackMsg.deviceId);
 
-        deviceActor = getContext().actorOf(
-            Device.props(groupId, trackMsg.deviceId),
-            "device-" + trackMsg.deviceId);
-
-        getContext().watch(deviceActor);
-        deviceIdToActor.put(trackMsg.deviceId, deviceActor);
-        actorToDeviceId.put(deviceActor, trackMsg.deviceId);
-
-        deviceActor.forward(trackMsg, getContext());
+        startDevice(slot);
+        metrics.registrations.increment();
+        if (journal != null) {
+          journal.appendTrack(journalGroupId, Journal.key(trackMsg.deviceId));
+        }
       }
+
+      deliver(trackMsg.deviceId, trackMsg, getSender());
     } else {
       log().warning(
           "Ignoring TrackDevice request for {}. this actor is responsible for {}.",
@@ -158,20 +706,241 @@ public class DeviceGroup extends AbstractLoggingActor {
     }
   }
 
+  private void onTrackDevices(DeviceManager.RequestTrackDevices trackMsg) {
+    if (!this.groupId.equals(trackMsg.groupId)) {
+      log().warning(
+          "Ignoring TrackDevices request {} for {}. this actor is responsible for {}.",
+          trackMsg.requestId, trackMsg.groupId, this.groupId
+      );
+      return;
+    }
+    ensureCapacity(registry.size() + trackMsg.deviceIds.size());
+
+    // no actors are started here: the devices are registered like passivated ones and the
+    // first message for a device creates its actor, so the cost of a bulk registration is
+    // a registry slot per device and the actors are created as the devices come into use
+    int registered = 0;
+    for (String deviceId : trackMsg.deviceIds) {
+      if (register(deviceId) < 0) {
+        continue;
+      }
+      registered++;
+      if (journal != null) {
+        journal.appendTrack(journalGroupId, Journal.key(deviceId));
+      }
+    }
+    metrics.registrations.add(registered);
+    log().info("Registered {} devices in group {}", registered, groupId);
+
+    getSender().tell(
+        new DeviceManager.DevicesRegistered(
+            trackMsg.requestId, registered, trackMsg.deviceIds.size() - registered),
+        getSelf()
+    );
+  }
+
+  // the new device's slot, without a reading; -1 if the group knows the device already
+  private int register(String deviceId) {
+    int slot = registry.add(deviceId);
+    if (slot >= 0) {
+      growReadings();
+      hasTemperature[slot] = false;
+      forgetLastQuery();
+    }
+    return slot;
+  }
+
+  // sizes the registry for a whole batch at once instead of growing it step by step
+  private void ensureCapacity(int expectedSize) {
+    registry.ensureCapacity(expectedSize);
+    growReadings();
+  }
+
+  private void growReadings() {
+    if (registry.capacity() > lastTemperatures.length) {
+      lastTemperatures = Arrays.copyOf(lastTemperatures, registry.capacity());
+      hasTemperature = Arrays.copyOf(hasTemperature, registry.capacity());
+    }
+  }
+
+  private void onRecordTemperatureBatch(DeviceManager.RecordTemperatureBatch batch) {
+    // accepted once forwarded, the device's mailbox can still drop the reading
+    int accepted = 0;
+    for (DeviceManager.DeviceReading reading : batch.readings) {
+      if (this.groupId.equals(reading.groupId)
+          && deliver(reading.deviceId, reading, getSelf())) {
+        accepted++;
+      }
+    }
+
+    getSender().tell(
+        new DeviceManager.TemperatureBatchRecorded(
+            batch.requestId, accepted, batch.readings.size() - accepted + batch.overflowed),
+        getSelf()
+    );
+  }
+
+  private void onRequestCredits(TemperatureFlowControl.RequestCredits request) {
+    if (!credits.contains(getSender())) {
+      getContext().watch(getSender());
+    }
+    credits.request(getSender(), request.requestId, getSelf());
+  }
+
+  private void onDeviceEnvelope(DeviceManager.DeviceEnvelope envelope) {
+    // the reading left our mailbox, whether or not its device is known
+    if (envelope.credited) {
+      credits.consumed(getSender(), getSelf());
+    }
+    if (!deliver(envelope.deviceId, envelope.message, getSender())) {
+      log().warning("Dropping {} for unknown device {}",
+          envelope.message.getClass().getSimpleName(), envelope.deviceId);
+    }
+  }
+
+  private void onPassivate() {
+    ActorRef deviceActor = getSender();
+    int slot = registry.slotOf(deviceActor);
+    if (slot < 0) {
+      return;
+    }
+    String deviceId = registry.id(slot);
+    registry.clearActor(slot);
+    passivatingActors.put(deviceActor, deviceId);
+    passivating.put(deviceId, new ArrayList<>());
+    metrics.passivations.increment();
+
+    // an ordinary message, so everything already sent to the device is handled before it stops
+    deviceActor.tell(PoisonPill.getInstance(), getSelf());
+  }
+
+  private void onPassivationCompleted(PassivationCompleted completed) {
+    List<Buffered> buffered = passivating.remove(completed.deviceId);
+    if (buffered != null && !buffered.isEmpty()) {
+      ActorRef deviceActor = rehydrate(registry.slotOf(completed.deviceId));
+      for (Buffered message : buffered) {
+        deviceActor.tell(message.message, message.sender);
+      }
+    }
+  }
+
+  // hands the message to the device, bringing it back first if it is passivated;
+  // false if the group does not know the device
+  private boolean deliver(String deviceId, Object message, ActorRef sender) {
+    int slot = registry.slotOf(deviceId);
+    if (slot < 0) {
+      return false;
+    }
+    ActorRef deviceActor = registry.actor(slot);
+    if (deviceActor == null) {
+      List<Buffered> buffer = passivating.get(deviceId);
+      if (buffer != null) {
+        buffer.add(new Buffered(message, sender));
+        return true;
+      }
+      deviceActor = rehydrate(slot);
+    }
+    deviceActor.tell(message, sender);
+    return true;
+  }
+
+  private ActorRef rehydrate(int slot) {
+    metrics.rehydrations.increment();
+    return startDevice(slot);
+  }
+
+  // starts the device with its last reading
+  private ActorRef startDevice(int slot) {
+    String deviceId = registry.id(slot);
+    ActorRef deviceActor = getContext().actorOf(
+        Device.groupMemberProps(groupId, deviceId, hasTemperature[slot]
+            ? Optional.of(lastTemperatures[slot])
+            : Optional.empty()),
+        "device-" + deviceId);
+
+    getContext().watch(deviceActor);
+    registry.setActor(slot, deviceActor);
+    return deviceActor;
+  }
+
   private void onTerminated(Terminated t) {
+    if (t.getActor().equals(coalescedQuery)) {
+      getSelf().tell(new CoalescedQueryStopped(t.getActor()), getSelf());
+      return;
+    }
+    boolean producer = credits.remove(t.getActor(), getSelf());
+    boolean subscriber = subscribers.remove(t.getActor());
+    if (alerts.removeOwner(t.getActor()) || subscriber || producer) {
+      return;
+    }
     ActorRef deviceActor = t.getActor();
 
-    String deviceId = actorToDeviceId.get(deviceActor);
+    String passivatedDeviceId = passivatingActors.remove(deviceActor);
+    if (passivatedDeviceId != null) {
+      // Terminated overtakes ordinary messages, so readings the device sent before stopping
+      // may still be queued; completing through our own mailbox lets them land first
+      getSelf().tell(new PassivationCompleted(passivatedDeviceId), getSelf());
+      return;
+    }
+
+    int slot = registry.slotOf(deviceActor);
+    if (slot < 0) {
+      // a subscriber or rule owner that has since unsubscribed or removed its rules
+      return;
+    }
+    String deviceId = registry.id(slot);
 
     log().info("Device actor for {} has been terminated", deviceId);
+    metrics.terminations.increment();
 
-    actorToDeviceId.remove(deviceActor);
-    deviceIdToActor.remove(deviceId);
+    registry.remove(slot);
+    alerts.forgetDevice(deviceId);
+    forgetLastQuery();
   }
 
   private void onDeviceList(RequestDeviceList rq) {
     getSender().tell(
-        new ReplyDeviceList(rq.requestId, deviceIdToActor.keySet()),
+        new ReplyDeviceList(
+            rq.requestId,
+            Collections.unmodifiableSet(registry.ids())),
+        getSelf()
+    );
+  }
+
+  // the pages come from the registry's sorted ids, sorted again only after devices were
+  // registered or terminated; the cursor is the last id sent, so a page is never shifted
+  // by devices coming or going in between
+  private void onDeviceListPage(RequestDeviceListPage rq) {
+    if (rq.limit <= 0 || rq.prefix == null) {
+      // answered with an empty last page so the requester does not wait out its own timeout
+      log().warning("Rejecting device list page {} with prefix {} and limit {}",
+          rq.requestId, rq.prefix, rq.limit);
+      getSender().tell(
+          new ReplyDeviceListPage(rq.requestId, Collections.emptyList(), null), getSelf());
+      return;
+    }
+    String[] sorted = registry.sortedIds();
+    String from = rq.after != null && rq.after.compareTo(rq.prefix) >= 0 ? rq.after : rq.prefix;
+    int start = Arrays.binarySearch(sorted, from);
+    if (start < 0) {
+      start = -start - 1;
+    } else if (from.equals(rq.after)) {
+      start++;
+    }
+
+    int limit = Math.min(rq.limit, listPageMax);
+    List<String> page = new ArrayList<>(Math.min(limit, sorted.length - start));
+    int i = start;
+    while (i < sorted.length && page.size() < limit && sorted[i].startsWith(rq.prefix)) {
+      page.add(sorted[i++]);
+    }
+    boolean more = i < sorted.length && sorted[i].startsWith(rq.prefix);
+
+    getSender().tell(
+        new ReplyDeviceListPage(
+            rq.requestId,
+            Collections.unmodifiableList(page),
+            more ? page.get(page.size() - 1) : null),
         getSelf()
     );
   }
@@ -1,31 +1,80 @@
 package com.ecacho.akkadomotic.actor;
 
-import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.Terminated;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
 import scala.concurrent.duration.FiniteDuration;
 
-public class DeviceGroupQuery extends AbstractLoggingActor {
+public class DeviceGroupQuery extends MeteredActor {
 
   final Map<ActorRef, String> actorToDeviceId;
   final Long requestId;
   final ActorRef requester;
+  final Map<String, DeviceGroup.TemperatureReading> repliesSoFar;
+  final Set<ActorRef> stillWaiting;
+  // set for a RequestTemperatureSummary, which folds the readings instead of mapping them
+  final TemperatureSummaryBuilder summary;
+  // set for a RequestTemperatureChunks, which sends the readings on as they arrive
+  final TemperatureChunker chunks;
+  final Map<String, DeviceGroup.TemperatureReading> passivated;
+  // live devices whose replies complete the query, the rest then count as timed out
+  final int quorum;
+  // told the reply latencies of the live devices when the query ends, may be null; a device
+  // that did not answer counts with the time it was given, so a slow device pushes the
+  // group's deadline out instead of being left out of the samples and timed out every time
+  final ActorRef latencyListener;
+  // asked for the last reading of a device that stops while we wait for it, may be null;
+  // the device may have been passivated, the group then has its reading
+  final ActorRef group;
+  final long[] latencies;
+  int latencyCount = 0;
+  long startNanos;
   Cancellable queryTimeoutTimer;
+  Cancellable chunkFlushTimer;
 
   public DeviceGroupQuery(
       Map<ActorRef, String> actorToDeviceId,
+      Map<String, DeviceGroup.TemperatureReading> passivated,
+      TemperatureSummaryBuilder summary,
+      TemperatureChunker chunks,
       Long requestId,
       ActorRef requester,
-      FiniteDuration timeout) {
+      FiniteDuration timeout,
+      double quorum,
+      ActorRef latencyListener,
+      ActorRef group) {
     this.actorToDeviceId = actorToDeviceId;
     this.requestId = requestId;
     this.requester = requester;
+    this.summary = summary;
+    this.chunks = chunks;
+    this.passivated = passivated;
+    this.quorum = (int) Math.ceil(quorum * actorToDeviceId.size());
+    this.latencyListener = latencyListener;
+    this.group = group;
+    this.latencies = latencyListener == null ? null : new long[actorToDeviceId.size()];
+    // passivated devices are answered from the group's compact record, not woken up;
+    // chunks can only be sent from preStart
+    if (summary != null) {
+      this.repliesSoFar = null;
+      passivated.values().forEach(summary::add);
+    } else if (chunks != null) {
+      this.repliesSoFar = null;
+    } else {
+      this.repliesSoFar =
+          new HashMap<>(capacityFor(actorToDeviceId.size() + passivated.size()));
+      this.repliesSoFar.putAll(passivated);
+    }
+    this.stillWaiting = new HashSet<>(actorToDeviceId.keySet());
 
     queryTimeoutTimer = getContext()
           .getSystem()
@@ -37,16 +86,82 @@ public class DeviceGroupQuery extends AbstractLoggingActor {
               getContext().getDispatcher(),
               getSelf()
           );
+    if (chunks != null) {
+      FiniteDuration flushInterval = FiniteDuration.create(
+          getContext().getSystem().settings().config().getDuration(
+              "akkadomotic.group.chunk-flush-interval", TimeUnit.MILLISECONDS),
+          TimeUnit.MILLISECONDS);
+      chunkFlushTimer = getContext()
+          .getSystem()
+          .getScheduler()
+          .schedule(
+              flushInterval,
+              flushInterval,
+              getSelf(),
+              FlushChunk.INSTANCE,
+              getContext().getDispatcher(),
+              getSelf()
+          );
+    }
+  }
+
+  public static Props props(
+      Map<ActorRef, String> actorToDeviceId,
+      Long requestId,
+      ActorRef requester,
+      FiniteDuration timeout) {
+    return props(actorToDeviceId, Collections.emptyMap(), requestId, requester, timeout);
+  }
 
+  public static Props props(
+      Map<ActorRef, String> actorToDeviceId,
+      Map<String, DeviceGroup.TemperatureReading> passivated,
+      Long requestId,
+      ActorRef requester,
+      FiniteDuration timeout) {
+    return props(actorToDeviceId, passivated, null, requestId, requester, timeout);
   }
 
   public static Props props(
       Map<ActorRef, String> actorToDeviceId,
+      Map<String, DeviceGroup.TemperatureReading> passivated,
+      TemperatureSummaryBuilder summary,
       Long requestId,
       ActorRef requester,
       FiniteDuration timeout) {
+    return props(actorToDeviceId, passivated, summary, null, requestId, requester, timeout,
+        1.0, null);
+  }
+
+  public static Props props(
+      Map<ActorRef, String> actorToDeviceId,
+      Map<String, DeviceGroup.TemperatureReading> passivated,
+      TemperatureSummaryBuilder summary,
+      TemperatureChunker chunks,
+      Long requestId,
+      ActorRef requester,
+      FiniteDuration timeout,
+      double quorum,
+      ActorRef latencyListener) {
+    return props(actorToDeviceId, passivated, summary, chunks, requestId, requester, timeout,
+        quorum, latencyListener, null);
+  }
+
+  public static Props props(
+      Map<ActorRef, String> actorToDeviceId,
+      Map<String, DeviceGroup.TemperatureReading> passivated,
+      TemperatureSummaryBuilder summary,
+      TemperatureChunker chunks,
+      Long requestId,
+      ActorRef requester,
+      FiniteDuration timeout,
+      double quorum,
+      ActorRef latencyListener,
+      ActorRef group) {
     return Props.create(DeviceGroupQuery.class,
-        () -> new DeviceGroupQuery(actorToDeviceId, requestId, requester, timeout));
+        () -> new DeviceGroupQuery(actorToDeviceId, passivated, summary, chunks, requestId,
+            requester, timeout, quorum, latencyListener, group))
+        .withDispatcher("akkadomotic.query-dispatcher");
   }
 
   /*
@@ -65,6 +180,19 @@ public class DeviceGroupQuery extends AbstractLoggingActor {
 
   }
 
+  // sends the readings collected so far in chunked mode
+  enum FlushChunk {
+    INSTANCE
+  }
+
+  // how long each live device took to answer, or was waited for before it timed out, in
+  // nanoseconds
+  @AllArgsConstructor
+  static final class ReplyLatencies {
+    final long[] latencies;
+    final int count;
+  }
+
 
 
 
@@ -82,85 +210,168 @@ public class DeviceGroupQuery extends AbstractLoggingActor {
 
   @Override
   public void preStart()  {
+    startNanos = System.nanoTime();
+    if (chunks != null) {
+      passivated.forEach((deviceId, reading) -> chunks.add(deviceId, reading, getSelf()));
+    }
     for (ActorRef deviceActor : actorToDeviceId.keySet()) {
       getContext().watch(deviceActor);
-      deviceActor.tell(new Device.ReadTemperature(requestId), getSelf());
+      deviceActor.tell(
+          summary == null
+              ? new Device.ReadTemperature(requestId)
+              : new Device.ReadTemperatureValue(requestId),
+          getSelf());
+    }
+    if (stillWaiting.isEmpty()) {
+      replyAndStop();
     }
   }
 
   @Override
   public void postStop()  {
     queryTimeoutTimer.cancel();
+    if (chunkFlushTimer != null) {
+      chunkFlushTimer.cancel();
+    }
+    if (latencyListener != null && latencyCount > 0) {
+      latencyListener.tell(new ReplyLatencies(latencies, latencyCount), getSelf());
+    }
   }
 
   @Override
   public Receive createReceive() {
-    return waitingForReplies(new HashMap<String, DeviceGroup.TemperatureReading>(),
-        actorToDeviceId.keySet());
-  }
-
-  private Receive waitingForReplies(
-      HashMap<String, DeviceGroup.TemperatureReading> repliesSoFar,
-      Set<ActorRef> stillWaiting) {
     return receiveBuilder()
         .match(
             Device.RespondTemperature.class,
             r -> {
               ActorRef deviceActor = getSender();
+              recordLatency(deviceActor);
               DeviceGroup.TemperatureReading reading =
                   r.value
                       .map(v -> (DeviceGroup.TemperatureReading) new DeviceGroup.Temperature(v))
                       .orElse(DeviceGroup.TemperatureNotAvailable.INSTANCE);
-              receivedResponse(deviceActor, reading, stillWaiting, repliesSoFar);
+              receivedResponse(deviceActor, reading);
+            })
+        .match(
+            Device.RespondTemperatureValue.class,
+            r -> {
+              if (stillWaiting.contains(getSender())) {
+                recordLatency(getSender());
+                if (r.hasValue) {
+                  summary.add(r.value);
+                } else {
+                  summary.notAvailable++;
+                }
+              }
+              receivedResponse(getSender(), null);
             })
         .match(
             Terminated.class,
             t -> {
-              receivedResponse(
-                  t.getActor(),
-                  DeviceGroup.DeviceNotAvailable.INSTANCE,
-                  stillWaiting,
-                  repliesSoFar);
+              ActorRef deviceActor = t.getActor();
+              if (group != null && stillWaiting.contains(deviceActor)) {
+                group.tell(
+                    new DeviceGroup.ReadStoppedDevice(
+                        actorToDeviceId.get(deviceActor), deviceActor),
+                    getSelf());
+                return;
+              }
+              stoppedDevice(deviceActor, DeviceGroup.DeviceNotAvailable.INSTANCE);
             })
+        .match(
+            DeviceGroup.RespondStoppedDevice.class,
+            r -> stoppedDevice(r.deviceActor, r.reading))
+        .match(FlushChunk.class, f -> chunks.flush(getSelf()))
         .match(
             CollectionTimeout.class,
             t -> {
-              Map<String, DeviceGroup.TemperatureReading> replies = new HashMap<>(repliesSoFar);
-              for (ActorRef deviceActor : stillWaiting) {
-                String deviceId = actorToDeviceId.get(deviceActor);
-                replies.put(deviceId, DeviceGroup.DeviceTimeout.INSTANCE);
-              }
-              requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, replies), getSelf());
+              metrics.queriesTimedOut.increment();
+              timeOutStragglers();
+              requester.tell(reply(), getSelf());
               getContext().stop(getSelf());
             })
         .build();
+  }
+
+  // accumulators are updated in place so a whole fan-out stays O(n); the map is
+  // handed over to the requester only once, right before the query stops. A summary
+  // query has already folded a value reply, reading is null then
+  private void receivedResponse(ActorRef deviceActor, DeviceGroup.TemperatureReading reading) {
+    getContext().unwatch(deviceActor);
+
+    if (!stillWaiting.remove(deviceActor)) {
+      // late duplicate or a Terminated racing the reply, the device has already been counted
+      return;
+    }
+    if (summary != null) {
+      if (reading != null) {
+        summary.add(reading);
+      }
+    } else if (chunks != null) {
+      chunks.add(actorToDeviceId.get(deviceActor), reading, getSelf());
+    } else {
+      repliesSoFar.put(actorToDeviceId.get(deviceActor), reading);
+    }
 
+    if (stillWaiting.isEmpty()) {
+      replyAndStop();
+    } else if (actorToDeviceId.size() - stillWaiting.size() >= quorum) {
+      timeOutStragglers();
+      replyAndStop();
+    }
   }
 
-  private void receivedResponse(
-      ActorRef deviceActor,
-      DeviceGroup.TemperatureReading reading,
-      Set<ActorRef> stillWaiting, HashMap<String,
-      DeviceGroup.TemperatureReading> repliesSoFar) {
+  private void stoppedDevice(ActorRef deviceActor, DeviceGroup.TemperatureReading reading) {
+    if (reading == DeviceGroup.DeviceNotAvailable.INSTANCE
+        && stillWaiting.contains(deviceActor)) {
+      metrics.devicesNotAvailable.increment();
+    }
+    receivedResponse(deviceActor, reading);
+  }
 
-    getContext().unwatch(deviceActor);
-    String deviceId = actorToDeviceId.get(deviceActor);
+  private void timeOutStragglers() {
+    long censoredNanos = System.nanoTime() - startNanos;
+    for (ActorRef deviceActor : stillWaiting) {
+      if (latencies != null) {
+        latencies[latencyCount++] = censoredNanos;
+      }
+      String deviceId = actorToDeviceId.get(deviceActor);
+      if (summary != null) {
+        summary.timedOut++;
+      } else if (chunks != null) {
+        chunks.add(deviceId, DeviceGroup.DeviceTimeout.INSTANCE, getSelf());
+      } else {
+        repliesSoFar.put(deviceId, DeviceGroup.DeviceTimeout.INSTANCE);
+      }
+    }
+    metrics.deviceTimeouts.add(stillWaiting.size());
+    stillWaiting.clear();
+  }
 
-    HashSet<ActorRef> newStillWaiting = new HashSet<>(stillWaiting);
-    newStillWaiting.remove(deviceActor);
+  private void recordLatency(ActorRef deviceActor) {
+    if (latencies != null && stillWaiting.contains(deviceActor)) {
+      latencies[latencyCount++] = System.nanoTime() - startNanos;
+    }
+  }
 
-    HashMap<String, DeviceGroup.TemperatureReading> newRepliesSoFar = new HashMap<>(repliesSoFar);
-    newRepliesSoFar.put(deviceId, reading);
+  private void replyAndStop() {
+    metrics.queriesCompleted.increment();
+    requester.tell(reply(), getSelf());
+    getContext().stop(getSelf());
+  }
 
-    if (newStillWaiting.isEmpty()) {
-      requester.tell(new DeviceGroup.RespondAllTemperatures(
-          requestId,
-          newRepliesSoFar
-      ), getSelf());
-      getContext().stop(getSelf());
-    } else {
-      getContext().become(waitingForReplies(newRepliesSoFar, newStillWaiting));
+  private Object reply() {
+    if (summary != null) {
+      return summary.build(requestId);
+    }
+    if (chunks != null) {
+      return chunks.complete(getSelf());
     }
+    return new DeviceGroup.RespondAllTemperatures(requestId, repliesSoFar);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    return (int) (expectedSize / 0.75f) + 1;
   }
 
 }
@@ -1,21 +1,42 @@
 package com.ecacho.akkadomotic.actor;
 
-import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.actor.Terminated;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import com.ecacho.akkadomotic.persistence.DevicePersistence;
+import com.ecacho.akkadomotic.persistence.FleetState;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import lombok.AllArgsConstructor;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
-public class DeviceManager extends AbstractLoggingActor {
+public class DeviceManager extends MeteredActor {
 
 
-  final Map<String, ActorRef> groupIdToActor = new HashMap<>();
-  final Map<ActorRef, String> actorToGroupId = new HashMap<>();
+  final ActorRegistry registry = new ActorRegistry();
+  // groups to restore on start, null to take them from DevicePersistence
+  final Map<String, Map<String, Double>> recoveredGroups;
+
+  public DeviceManager(Map<String, Map<String, Double>> recoveredGroups) {
+    this.recoveredGroups = recoveredGroups;
+  }
 
   public static Props props() {
-    return Props.create(DeviceManager.class, DeviceManager::new);
+    return props(null);
+  }
+
+  // used by ShardedDeviceManager to hand every shard its part of the recovered fleet
+  static Props props(Map<String, Map<String, Double>> recoveredGroups) {
+    return Props.create(DeviceManager.class, () -> new DeviceManager(recoveredGroups))
+        .withMailbox("akkadomotic.metered-mailbox")
+        .withDispatcher("akkadomotic.registry-dispatcher");
   }
   /*
 
@@ -39,6 +60,109 @@ public class DeviceManager extends AbstractLoggingActor {
 
   }
 
+  // registers many devices of one group in a single pass, answered by one DevicesRegistered
+  // instead of a DeviceRegistered per device; the device refs are not handed out, address
+  // the devices with a DeviceEnvelope
+  @AllArgsConstructor
+  public static final class RequestTrackDevices {
+    final long requestId;
+    final String groupId;
+    final Collection<String> deviceIds;
+  }
+
+  @AllArgsConstructor
+  public static final class DevicesRegistered {
+    final long requestId;
+    // devices new to the group
+    final int registered;
+    // devices the group already knew, including ids repeated in the request
+    final int alreadyRegistered;
+  }
+
+  // addresses a device through its group instead of its ActorRef; with passivation on the
+  // ref from DeviceRegistered dies when the device goes idle, the envelope brings it back
+  @AllArgsConstructor
+  public static final class DeviceEnvelope {
+    final String groupId;
+    final String deviceId;
+    final Object message;
+    // sent on a credit the group granted, which the mailbox gives back if it drops it
+    final boolean credited;
+
+    public DeviceEnvelope(String groupId, String deviceId, Object message) {
+      this(groupId, deviceId, message, false);
+    }
+  }
+
+  @AllArgsConstructor
+  public static final class DeviceReading {
+    final String groupId;
+    final String deviceId;
+    final double value;
+  }
+
+  @AllArgsConstructor
+  public static final class RecordTemperatureBatch {
+    final long requestId;
+    final List<DeviceReading> readings;
+    // readings cut off by a full group mailbox, answered as rejected
+    final int overflowed;
+
+    public RecordTemperatureBatch(long requestId, List<DeviceReading> readings) {
+      this(requestId, readings, 0);
+    }
+  }
+
+  // accepted readings were handed to their device, whose mailbox may still drop them under
+  // load like any other reading; wait for TemperatureRecorded, or read the device, to know
+  // a reading was stored. Rejected readings were for unknown groups or devices, or did not
+  // fit in a full mailbox.
+  @AllArgsConstructor
+  public static final class TemperatureBatchRecorded {
+    final long requestId;
+    final int accepted;
+    final int rejected;
+  }
+
+  // RequestAllTemperatures of every group, under one deadline. The answer streams back as
+  // FleetTemperaturesChunk messages of at most chunkSize devices, each from one group,
+  // followed by a single FleetTemperaturesCompleted.
+  @AllArgsConstructor
+  public static final class RequestFleetTemperatures {
+    final long requestId;
+    final FiniteDuration timeout;
+    final int chunkSize;
+    // passed on to every group, see DeviceGroup.RequestAllTemperatures
+    final FiniteDuration maxStaleness;
+
+    public RequestFleetTemperatures(long requestId, FiniteDuration timeout, int chunkSize) {
+      this(requestId, timeout, chunkSize, Duration.Zero());
+    }
+  }
+
+  @AllArgsConstructor
+  public static final class FleetTemperaturesChunk {
+    final long requestId;
+    final String groupId;
+    final Map<String, DeviceGroup.TemperatureReading> temperatures;
+  }
+
+  @AllArgsConstructor
+  public static final class FleetTemperaturesCompleted {
+    final long requestId;
+    final int groupsAnswered;
+    // groups that did not answer before the deadline or stopped meanwhile
+    final Set<String> groupsMissing;
+    // shards of a ShardedDeviceManager that stopped or never completed; their groups are
+    // unknown to the merge and missing from the answer whole
+    final Set<String> shardsMissing;
+
+    public FleetTemperaturesCompleted(long requestId, int groupsAnswered,
+        Set<String> groupsMissing) {
+      this(requestId, groupsAnswered, groupsMissing, Collections.emptySet());
+    }
+  }
+
   /*
 
   ########  ######## ##     ##    ###    ##     ## ####  #######  ########
@@ -55,6 +179,16 @@ public class DeviceManager extends AbstractLoggingActor {
   @Override
   public void preStart() {
     log().info("DeviceManager started");
+
+    Map<String, Map<String, Double>> groups = recoveredGroups;
+    if (groups == null) {
+      FleetState recovered = DevicePersistence.get(getContext().getSystem()).takeRecoveredState();
+      groups = recovered != null ? recovered.groups() : Collections.emptyMap();
+    }
+    for (Map.Entry<String, Map<String, Double>> group : groups.entrySet()) {
+      createGroup(group.getKey())
+          .tell(new DeviceGroup.RestoreDevices(group.getValue()), getSelf());
+    }
   }
 
   @Override
@@ -66,6 +200,10 @@ public class DeviceManager extends AbstractLoggingActor {
   public Receive createReceive() {
     return receiveBuilder()
         .match(RequestTrackDevice.class, this::onTrackDevice)
+        .match(RequestTrackDevices.class, this::onTrackDevices)
+        .match(RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+        .match(DeviceEnvelope.class, this::onDeviceEnvelope)
+        .match(RequestFleetTemperatures.class, this::onRequestFleetTemperatures)
         .match(Terminated.class, this::onTerminated)
         .build();
   }
@@ -73,28 +211,94 @@ public class DeviceManager extends AbstractLoggingActor {
   private void onTerminated(Terminated t) {
     ActorRef groupActor = t.getActor();
 
-    String groupId = actorToGroupId.get(groupActor);
+    int slot = registry.slotOf(groupActor);
+    if (slot < 0) {
+      return;
+    }
 
-    log().info("Device group actor for {} has beend terminated", groupId);
-    actorToGroupId.remove(groupActor);
-    groupIdToActor.remove(groupId);
+    log().info("Device group actor for {} has beend terminated", registry.id(slot));
+    registry.remove(slot);
   }
 
   private void onTrackDevice(RequestTrackDevice trackMsg) {
     String groupId = trackMsg.groupId;
-    ActorRef ref = groupIdToActor.get(groupId);
+    ActorRef ref = registry.actorOf(groupId);
+    if (ref != null) {
+      ref.forward(trackMsg, getContext());
+    } else {
+      createGroup(groupId).forward(trackMsg, getContext());
+    }
+  }
+
+  private void onTrackDevices(RequestTrackDevices trackMsg) {
+    ActorRef ref = registry.actorOf(trackMsg.groupId);
     if (ref != null) {
       ref.forward(trackMsg, getContext());
     } else {
-      log().info("Creating device group actor for {}", groupId);
+      createGroup(trackMsg.groupId).forward(trackMsg, getContext());
+    }
+  }
+
+  private void onDeviceEnvelope(DeviceEnvelope envelope) {
+    ActorRef ref = registry.actorOf(envelope.groupId);
+    if (ref != null) {
+      ref.forward(envelope, getContext());
+    } else {
+      log().warning("Dropping {} for unknown group {}",
+          envelope.message.getClass().getSimpleName(), envelope.groupId);
+    }
+  }
+
+  private void onRequestFleetTemperatures(RequestFleetTemperatures rq) {
+    if (rq.chunkSize <= 0) {
+      // completed with nothing answered so the requester does not wait out its own timeout
+      log().warning("Rejecting fleet query {} with chunk size {}", rq.requestId, rq.chunkSize);
+      getSender().tell(
+          new FleetTemperaturesCompleted(rq.requestId, 0, Collections.emptySet()), getSelf());
+      return;
+    }
+    getContext().actorOf(FleetQuery.props(
+        Collections.unmodifiableMap(registry.liveActors()), rq, getSender()));
+  }
 
-      ActorRef groupActor = getContext().actorOf(DeviceGroup.props(trackMsg.groupId));
+  private ActorRef createGroup(String groupId) {
+    log().info("Creating device group actor for {}", groupId);
 
-      getContext().watch(groupActor);
-      groupActor.forward(trackMsg, getContext());
+    ActorRef groupActor = getContext().actorOf(DeviceGroup.props(groupId));
 
-      groupIdToActor.put(groupId, groupActor);
-      actorToGroupId.put(groupActor, groupId);
+    getContext().watch(groupActor);
+    registry.setActor(registry.add(groupId), groupActor);
+    return groupActor;
+  }
+
+  private void onRecordTemperatureBatch(RecordTemperatureBatch batch) {
+    Map<String, List<DeviceReading>> readingsByGroup = new HashMap<>();
+    for (DeviceReading reading : batch.readings) {
+      readingsByGroup
+          .computeIfAbsent(reading.groupId, groupId -> new ArrayList<>())
+          .add(reading);
+    }
+
+    Map<ActorRef, RecordTemperatureBatch> batchesByGroup = new HashMap<>();
+    int rejected = 0;
+    for (Map.Entry<String, List<DeviceReading>> entry : readingsByGroup.entrySet()) {
+      ActorRef groupActor = registry.actorOf(entry.getKey());
+      if (groupActor != null) {
+        batchesByGroup.put(groupActor,
+            new RecordTemperatureBatch(batch.requestId, entry.getValue()));
+      } else {
+        rejected += entry.getValue().size();
+      }
+    }
+
+    if (batchesByGroup.isEmpty()) {
+      getSender().tell(new TemperatureBatchRecorded(batch.requestId, 0, rejected), getSelf());
+    } else if (batchesByGroup.size() == 1 && rejected == 0) {
+      // the whole batch belongs to one group, so the group can ack the requester directly
+      batchesByGroup.keySet().iterator().next().forward(batch, getContext());
+    } else {
+      getContext().actorOf(
+          TemperatureBatchCollector.props(batch.requestId, getSender(), batchesByGroup, rejected));
     }
   }
 
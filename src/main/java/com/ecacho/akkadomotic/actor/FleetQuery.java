@@ -0,0 +1,156 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+// Fans RequestAllTemperatures out to every group of one DeviceManager and streams each
+// group's answer to the requester as soon as it arrives, cut into chunks. Nothing is kept
+// once a group has been passed on, so memory is bounded by the largest single group.
+public class FleetQuery extends MeteredActor {
+
+  final Map<ActorRef, String> actorToGroupId;
+  final DeviceManager.RequestFleetTemperatures request;
+  final ActorRef requester;
+  // groups still to answer by the request id they were asked with; replies are matched on
+  // it because a group answers through the DeviceGroupQuery it starts, not itself
+  final Map<Long, ActorRef> stillWaiting;
+  final Map<ActorRef, Long> subRequestIds;
+  final Set<String> groupsMissing = new HashSet<>();
+  int groupsAnswered = 0;
+  Cancellable queryTimeoutTimer;
+
+  public FleetQuery(
+      Map<ActorRef, String> actorToGroupId,
+      DeviceManager.RequestFleetTemperatures request,
+      ActorRef requester) {
+    this.actorToGroupId = actorToGroupId;
+    this.request = request;
+    this.requester = requester;
+    this.stillWaiting = new HashMap<>((int) (actorToGroupId.size() / 0.75f) + 1);
+    this.subRequestIds = new HashMap<>((int) (actorToGroupId.size() / 0.75f) + 1);
+
+    queryTimeoutTimer = getContext()
+        .getSystem()
+        .getScheduler()
+        .scheduleOnce(
+            request.timeout,
+            getSelf(),
+            new DeviceGroupQuery.CollectionTimeout(),
+            getContext().getDispatcher(),
+            getSelf()
+        );
+  }
+
+  public static Props props(
+      Map<ActorRef, String> actorToGroupId,
+      DeviceManager.RequestFleetTemperatures request,
+      ActorRef requester) {
+    return Props.create(FleetQuery.class,
+        () -> new FleetQuery(actorToGroupId, request, requester))
+        .withDispatcher("akkadomotic.query-dispatcher");
+  }
+
+  /*
+
+  ########  ######## ##     ##    ###    ##     ## ####  #######  ########
+  ##     ## ##       ##     ##   ## ##   ##     ##  ##  ##     ## ##     ##
+  ##     ## ##       ##     ##  ##   ##  ##     ##  ##  ##     ## ##     ##
+  ########  ######   ######### ##     ## ##     ##  ##  ##     ## ########
+  ##     ## ##       ##     ## #########  ##   ##   ##  ##     ## ##   ##
+  ##     ## ##       ##     ## ##     ##   ## ##    ##  ##     ## ##    ##
+  ########  ######## ##     ## ##     ##    ###    ####  #######  ##     ##
+
+   */
+
+  @Override
+  public void preStart() {
+    long subRequestId = 0;
+    for (ActorRef groupActor : actorToGroupId.keySet()) {
+      stillWaiting.put(subRequestId, groupActor);
+      subRequestIds.put(groupActor, subRequestId);
+      getContext().watch(groupActor);
+      groupActor.tell(
+          new DeviceGroup.RequestAllTemperatures(subRequestId, request.maxStaleness),
+          getSelf());
+      subRequestId++;
+    }
+    if (stillWaiting.isEmpty()) {
+      complete();
+    }
+  }
+
+  @Override
+  public void postStop() {
+    queryTimeoutTimer.cancel();
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+        .match(DeviceGroup.RespondAllTemperatures.class, r -> {
+          ActorRef groupActor = stillWaiting.remove(r.requestId);
+          if (groupActor != null) {
+            getContext().unwatch(groupActor);
+            groupsAnswered++;
+            sendChunks(actorToGroupId.get(groupActor), r.temperatures);
+            if (stillWaiting.isEmpty()) {
+              complete();
+            }
+          }
+        })
+        .match(Terminated.class, t -> {
+          Long subRequestId = subRequestIds.get(t.getActor());
+          if (subRequestId != null && stillWaiting.remove(subRequestId) != null) {
+            groupsMissing.add(actorToGroupId.get(t.getActor()));
+            if (stillWaiting.isEmpty()) {
+              complete();
+            }
+          }
+        })
+        .match(DeviceGroupQuery.CollectionTimeout.class, t -> complete())
+        .build();
+  }
+
+  private void sendChunks(
+      String groupId, Map<String, DeviceGroup.TemperatureReading> temperatures) {
+    if (temperatures.size() <= request.chunkSize) {
+      requester.tell(
+          new DeviceManager.FleetTemperaturesChunk(request.requestId, groupId, temperatures),
+          getSelf());
+      return;
+    }
+
+    Iterator<Map.Entry<String, DeviceGroup.TemperatureReading>> it =
+        temperatures.entrySet().iterator();
+    while (it.hasNext()) {
+      Map<String, DeviceGroup.TemperatureReading> chunk =
+          new HashMap<>((int) (request.chunkSize / 0.75f) + 1);
+      while (it.hasNext() && chunk.size() < request.chunkSize) {
+        Map.Entry<String, DeviceGroup.TemperatureReading> entry = it.next();
+        chunk.put(entry.getKey(), entry.getValue());
+      }
+      requester.tell(
+          new DeviceManager.FleetTemperaturesChunk(request.requestId, groupId, chunk),
+          getSelf());
+    }
+  }
+
+  private void complete() {
+    for (ActorRef groupActor : stillWaiting.values()) {
+      groupsMissing.add(actorToGroupId.get(groupActor));
+    }
+    requester.tell(
+        new DeviceManager.FleetTemperaturesCompleted(
+            request.requestId, groupsAnswered, groupsMissing),
+        getSelf());
+    getContext().stop(getSelf());
+  }
+}
@@ -0,0 +1,143 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import scala.concurrent.duration.FiniteDuration;
+
+// Runs a fleet query on every shard of a ShardedDeviceManager and merges them into one
+// answer. Chunks are passed straight through; only the completions are combined, so
+// the requester still sees every chunk before the single FleetTemperaturesCompleted.
+public class FleetQueryMerge extends MeteredActor {
+
+  // the shards answer at the deadline themselves, this only covers a shard that never does
+  static final FiniteDuration GRACE = new FiniteDuration(1, TimeUnit.SECONDS);
+
+  final List<ActorRef> shards;
+  final DeviceManager.RequestFleetTemperatures request;
+  final ActorRef requester;
+  // shards still to complete by the request id they were asked with, see FleetQuery
+  final Map<Long, ActorRef> stillWaiting = new HashMap<>();
+  final Set<String> groupsMissing = new HashSet<>();
+  final Set<String> shardsMissing = new HashSet<>();
+  int groupsAnswered = 0;
+  Cancellable queryTimeoutTimer;
+
+  public FleetQueryMerge(
+      List<ActorRef> shards,
+      DeviceManager.RequestFleetTemperatures request,
+      ActorRef requester) {
+    this.shards = shards;
+    this.request = request;
+    this.requester = requester;
+
+    queryTimeoutTimer = getContext()
+        .getSystem()
+        .getScheduler()
+        .scheduleOnce(
+            request.timeout.plus(GRACE),
+            getSelf(),
+            new DeviceGroupQuery.CollectionTimeout(),
+            getContext().getDispatcher(),
+            getSelf()
+        );
+  }
+
+  public static Props props(
+      List<ActorRef> shards,
+      DeviceManager.RequestFleetTemperatures request,
+      ActorRef requester) {
+    return Props.create(FleetQueryMerge.class,
+        () -> new FleetQueryMerge(shards, request, requester))
+        .withDispatcher("akkadomotic.query-dispatcher");
+  }
+
+  /*
+
+  ########  ######## ##     ##    ###    ##     ## ####  #######  ########
+  ##     ## ##       ##     ##   ## ##   ##     ##  ##  ##     ## ##     ##
+  ##     ## ##       ##     ##  ##   ##  ##     ##  ##  ##     ## ##     ##
+  ########  ######   ######### ##     ## ##     ##  ##  ##     ## ########
+  ##     ## ##       ##     ## #########  ##   ##   ##  ##     ## ##   ##
+  ##     ## ##       ##     ## ##     ##   ## ##    ##  ##     ## ##    ##
+  ########  ######## ##     ## ##     ##    ###    ####  #######  ##     ##
+
+   */
+
+  @Override
+  public void preStart() {
+    long subRequestId = 0;
+    for (ActorRef shard : shards) {
+      stillWaiting.put(subRequestId, shard);
+      getContext().watch(shard);
+      shard.tell(
+          new DeviceManager.RequestFleetTemperatures(
+              subRequestId, request.timeout, request.chunkSize, request.maxStaleness),
+          getSelf());
+      subRequestId++;
+    }
+  }
+
+  @Override
+  public void postStop() {
+    queryTimeoutTimer.cancel();
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+        .match(DeviceManager.FleetTemperaturesChunk.class, c ->
+            requester.tell(
+                new DeviceManager.FleetTemperaturesChunk(
+                    request.requestId, c.groupId, c.temperatures),
+                getSelf()))
+        .match(DeviceManager.FleetTemperaturesCompleted.class, c -> {
+          ActorRef shard = stillWaiting.remove(c.requestId);
+          if (shard != null) {
+            getContext().unwatch(shard);
+            groupsAnswered += c.groupsAnswered;
+            groupsMissing.addAll(c.groupsMissing);
+            completeIfDone();
+          }
+        })
+        .match(Terminated.class, t -> {
+          if (stillWaiting.values().remove(t.getActor())) {
+            log().warning("Shard {} stopped during fleet query {}",
+                t.getActor().path().name(), request.requestId);
+            shardsMissing.add(t.getActor().path().name());
+            completeIfDone();
+          }
+        })
+        .match(DeviceGroupQuery.CollectionTimeout.class, t -> {
+          log().warning("{} shards did not complete fleet query {}",
+              stillWaiting.size(), request.requestId);
+          for (ActorRef shard : stillWaiting.values()) {
+            shardsMissing.add(shard.path().name());
+          }
+          complete();
+        })
+        .build();
+  }
+
+  private void completeIfDone() {
+    if (stillWaiting.isEmpty()) {
+      complete();
+    }
+  }
+
+  private void complete() {
+    requester.tell(
+        new DeviceManager.FleetTemperaturesCompleted(
+            request.requestId, groupsAnswered, groupsMissing, shardsMissing),
+        getSelf());
+    getContext().stop(getSelf());
+  }
+}
@@ -0,0 +1,254 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.actor.PoisonPill;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import com.ecacho.akkadomotic.metrics.DomoticMetrics;
+import com.typesafe.config.Config;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import scala.Option;
+
+// Mailbox of the Device and DeviceGroup actors with two lanes. Readings and what has to stay
+// behind them go to the ingestion lane, everything else to the control lane, which is always
+// dequeued first: a read, a registration or a query does not wait behind a burst of readings.
+// The ingestion lane holds at most ingest-capacity readings; on overflow a reading is dropped
+// to dead letters, the new one or the oldest queued one, unacknowledged. A RecordTemperatureBatch
+// counts as its readings and is cut to the room left, the cut readings answered as rejected.
+//
+// A reading sent on a credit the owner granted is given back to it as a ReadingDropped when it
+// is dropped, so the credit is not lost with it.
+//
+// The control lane is unbounded: dropping a registration or a query would leave its sender
+// waiting for an answer that never comes. Its messages are requests answered one by one and
+// the acknowledgements of the actor's own requests, so it holds at most what the senders have
+// outstanding; the unbounded producers are the readings, and those are capped.
+//
+// Messages of the same sender keep their order within a lane only, so a read may overtake a
+// reading sent before it; wait for TemperatureRecorded to read your own writes.
+public class PriorityMailbox implements MailboxType,
+    ProducesMessageQueue<PriorityMailbox.PriorityQueue> {
+
+  enum Overflow {
+    DROP_NEW, DROP_OLDEST
+  }
+
+  final int ingestCapacity;
+  final Overflow overflow;
+  final boolean metered;
+
+  public PriorityMailbox(ActorSystem.Settings settings, Config config) {
+    this.ingestCapacity = config.getInt("ingest-capacity");
+    this.overflow = Overflow.valueOf(
+        config.getString("overflow").toUpperCase().replace('-', '_'));
+    this.metered = config.getBoolean("metered");
+  }
+
+  @Override
+  public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+    if (owner.isEmpty() || system.isEmpty()) {
+      return new PriorityQueue(
+          ingestCapacity, overflow, null, null, null, new AtomicInteger());
+    }
+    DomoticMetrics metrics = DomoticMetrics.get(system.get());
+    String path = owner.get().path().toStringWithoutAddress();
+    return new PriorityQueue(
+        ingestCapacity,
+        overflow,
+        system.get().deadLetters(),
+        metrics,
+        metered && metrics.enabled() ? path : null,
+        metered && metrics.enabled() ? metrics.mailboxDepth(path) : new AtomicInteger());
+  }
+
+  // readings may be dropped on overflow; the ordered messages share their lane so they are
+  // handled after the readings sent before them, but are never dropped, batches being trimmed
+  // instead
+  static boolean isReading(Object message) {
+    return message instanceof Device.RecordTemperature
+        || message instanceof DeviceManager.DeviceReading
+        || (message instanceof DeviceManager.DeviceEnvelope
+            && isReading(((DeviceManager.DeviceEnvelope) message).message));
+  }
+
+  // a device stops after the readings queued before the group's PoisonPill, the group
+  // rehydrates a device only after the device's last TemperatureUpdated, and a request
+  // answered from the group's snapshot, or a stopped device's reading asked for by a query,
+  // sees the updates that reached the group before it.
+  // TemperatureUpdated itself is never dropped: the group's snapshot, the record a device is
+  // rehydrated from, its alerts and aggregates all follow it. It needs no bound of its own,
+  // a device sends one per reading it took from its own bounded lane
+  static boolean isOrdered(Object message) {
+    return message instanceof PoisonPill
+        || message instanceof DeviceGroup.TemperatureUpdated
+        || message instanceof DeviceGroup.PassivationCompleted
+        || message instanceof DeviceGroup.ReadStoppedDevice
+        || message instanceof DeviceManager.RecordTemperatureBatch
+        || (message instanceof DeviceGroup.RequestAllTemperatures
+            && ((DeviceGroup.RequestAllTemperatures) message).maxStaleness.toMillis() > 0);
+  }
+
+  static boolean isCredited(Object message) {
+    return (message instanceof Device.RecordTemperature
+        && ((Device.RecordTemperature) message).credited)
+        || (message instanceof DeviceManager.DeviceEnvelope
+        && ((DeviceManager.DeviceEnvelope) message).credited);
+  }
+
+  // tells the owner that a reading of the sender's, sent on its credit, was dropped
+  static final class ReadingDropped {
+    final ActorRef sender;
+
+    ReadingDropped(ActorRef sender) {
+      this.sender = sender;
+    }
+  }
+
+  public static class PriorityQueue implements MessageQueue {
+    final Queue<Envelope> control = new ConcurrentLinkedQueue<>();
+    final Queue<Envelope> ingest = new ConcurrentLinkedQueue<>();
+    // readings in the ingestion lane, including those of batches; the other ordered messages
+    // are not counted
+    final AtomicInteger readings = new AtomicInteger();
+    final int ingestCapacity;
+    final Overflow overflow;
+    final ActorRef deadLetters;
+    final DomoticMetrics metrics;
+    // null unless the depth is published
+    final String path;
+    final AtomicInteger depth;
+
+    PriorityQueue(int ingestCapacity, Overflow overflow, ActorRef deadLetters,
+        DomoticMetrics metrics, String path, AtomicInteger depth) {
+      this.ingestCapacity = ingestCapacity;
+      this.overflow = overflow;
+      this.deadLetters = deadLetters;
+      this.metrics = metrics;
+      this.path = path;
+      this.depth = depth;
+    }
+
+    @Override
+    public void enqueue(ActorRef receiver, Envelope handle) {
+      Object message = handle.message();
+      if (isReading(message)) {
+        if (readings.incrementAndGet() > ingestCapacity) {
+          Envelope oldest = overflow == Overflow.DROP_OLDEST ? dropOldestReading() : null;
+          readings.decrementAndGet();
+          if (oldest == null) {
+            drop(receiver, handle);
+            return;
+          }
+          depth.decrementAndGet();
+          drop(receiver, oldest);
+        }
+        ingest.offer(handle);
+      } else if (message instanceof DeviceManager.RecordTemperatureBatch) {
+        ingest.offer(reserve(handle, (DeviceManager.RecordTemperatureBatch) message));
+      } else if (isOrdered(message)) {
+        ingest.offer(handle);
+      } else {
+        control.offer(handle);
+      }
+      depth.incrementAndGet();
+    }
+
+    @Override
+    public Envelope dequeue() {
+      Envelope envelope = control.poll();
+      if (envelope == null) {
+        envelope = ingest.poll();
+        if (envelope != null) {
+          readings.addAndGet(-weight(envelope.message()));
+        }
+      }
+      if (envelope != null) {
+        depth.decrementAndGet();
+      }
+      return envelope;
+    }
+
+    // takes as many of the batch's readings as there is room for, the batch is cut to them
+    private Envelope reserve(Envelope handle, DeviceManager.RecordTemperatureBatch batch) {
+      int size = batch.readings.size();
+      int queued;
+      int taken;
+      do {
+        queued = readings.get();
+        taken = Math.max(0, Math.min(size, ingestCapacity - queued));
+      } while (!readings.compareAndSet(queued, queued + taken));
+      if (taken == size) {
+        return handle;
+      }
+      if (metrics != null) {
+        metrics.readingsDropped.add(size - taken);
+      }
+      return handle.copy(
+          new DeviceManager.RecordTemperatureBatch(
+              batch.requestId,
+              new ArrayList<>(batch.readings.subList(0, taken)),
+              batch.overflowed + size - taken),
+          handle.sender());
+    }
+
+    private static int weight(Object message) {
+      if (message instanceof DeviceManager.RecordTemperatureBatch) {
+        return ((DeviceManager.RecordTemperatureBatch) message).readings.size();
+      }
+      return isReading(message) ? 1 : 0;
+    }
+
+    // null if another thread took the readings first
+    private Envelope dropOldestReading() {
+      Iterator<Envelope> it = ingest.iterator();
+      while (it.hasNext()) {
+        Envelope envelope = it.next();
+        if (isReading(envelope.message()) && ingest.remove(envelope)) {
+          return envelope;
+        }
+      }
+      return null;
+    }
+
+    private void drop(ActorRef receiver, Envelope envelope) {
+      if (metrics != null) {
+        metrics.readingsDropped.increment();
+      }
+      if (deadLetters != null) {
+        deadLetters.tell(
+            new DeadLetter(envelope.message(), envelope.sender(), receiver), envelope.sender());
+      }
+      if (receiver != null && isCredited(envelope.message())) {
+        receiver.tell(new ReadingDropped(envelope.sender()), ActorRef.noSender());
+      }
+    }
+
+    @Override
+    public int numberOfMessages() {
+      return depth.get();
+    }
+
+    @Override
+    public boolean hasMessages() {
+      return !control.isEmpty() || !ingest.isEmpty();
+    }
+
+    @Override
+    public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+      for (Envelope envelope = dequeue(); envelope != null; envelope = dequeue()) {
+        deadLetters.enqueue(owner, envelope);
+      }
+      if (path != null) {
+        metrics.removeMailboxDepth(path);
+      }
+    }
+  }
+}
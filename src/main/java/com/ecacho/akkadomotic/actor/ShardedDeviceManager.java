@@ -0,0 +1,162 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.routing.ConsistentHash;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import com.ecacho.akkadomotic.persistence.DevicePersistence;
+import com.ecacho.akkadomotic.persistence.FleetState;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Speaks the DeviceManager protocol but spreads the groups over several DeviceManager
+// shards by consistent hash of the group id, so group creation, registration and
+// Terminated handling run on as many actors as there are cores. Routing itself is a
+// hash lookup and a forward.
+public class ShardedDeviceManager extends MeteredActor {
+
+  static final int VIRTUAL_NODES_FACTOR = 16;
+
+  final int shardCount;
+  final ActorRef[] shards;
+  // hashes shard indexes rather than refs, so a group keeps its shard when one is
+  // restarted and recovered groups can be placed before the shards exist
+  final ConsistentHash<Integer> ring;
+
+  public ShardedDeviceManager(int shardCount) {
+    if (shardCount <= 0) {
+      shardCount = getContext().getSystem().settings().config()
+          .getInt("akkadomotic.manager.shards");
+    }
+    this.shardCount = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+    this.shards = new ActorRef[this.shardCount];
+
+    List<Integer> indexes = new ArrayList<>();
+    for (int i = 0; i < this.shardCount; i++) {
+      indexes.add(i);
+    }
+    this.ring = ConsistentHash.create(indexes, VIRTUAL_NODES_FACTOR);
+  }
+
+  // shard count from akkadomotic.manager.shards
+  public static Props props() {
+    return props(0);
+  }
+
+  public static Props props(int shardCount) {
+    return Props.create(ShardedDeviceManager.class, () -> new ShardedDeviceManager(shardCount))
+        .withMailbox("akkadomotic.metered-mailbox")
+        .withDispatcher("akkadomotic.registry-dispatcher");
+  }
+
+  /*
+
+  ########  ######## ##     ##    ###    ##     ## ####  #######  ########
+  ##     ## ##       ##     ##   ## ##   ##     ##  ##  ##     ## ##     ##
+  ##     ## ##       ##     ##  ##   ##  ##     ##  ##  ##     ## ##     ##
+  ########  ######   ######### ##     ## ##     ##  ##  ##     ## ########
+  ##     ## ##       ##     ## #########  ##   ##   ##  ##     ## ##   ##
+  ##     ## ##       ##     ## ##     ##   ## ##    ##  ##     ## ##    ##
+  ########  ######## ##     ## ##     ##    ###    ####  #######  ##     ##
+
+   */
+
+  @Override
+  public void preStart() {
+    log().info("ShardedDeviceManager started with {} shards", shardCount);
+
+    List<Map<String, Map<String, Double>>> recoveredByShard = new ArrayList<>();
+    for (int i = 0; i < shardCount; i++) {
+      recoveredByShard.add(new HashMap<>());
+    }
+    FleetState recovered = DevicePersistence.get(getContext().getSystem()).takeRecoveredState();
+    if (recovered != null) {
+      recovered.groups().forEach((groupId, devices) ->
+          recoveredByShard.get(ring.nodeFor(groupId)).put(groupId, devices));
+    }
+
+    for (int i = 0; i < shardCount; i++) {
+      startShard(i, recoveredByShard.get(i));
+    }
+  }
+
+  @Override
+  public void postStop() {
+    log().info("ShardedDeviceManager stopped");
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+        .match(DeviceManager.RequestTrackDevice.class, r ->
+            shardFor(r.groupId).forward(r, getContext()))
+        .match(DeviceManager.RequestTrackDevices.class, r ->
+            shardFor(r.groupId).forward(r, getContext()))
+        .match(DeviceManager.DeviceEnvelope.class, e ->
+            shardFor(e.groupId).forward(e, getContext()))
+        .match(DeviceManager.RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+        .match(DeviceManager.RequestFleetTemperatures.class, this::onRequestFleetTemperatures)
+        .match(Terminated.class, this::onTerminated)
+        .build();
+  }
+
+  private void onRecordTemperatureBatch(DeviceManager.RecordTemperatureBatch batch) {
+    Map<ActorRef, List<DeviceManager.DeviceReading>> readingsByShard = new HashMap<>();
+    for (DeviceManager.DeviceReading reading : batch.readings) {
+      readingsByShard
+          .computeIfAbsent(shardFor(reading.groupId), shard -> new ArrayList<>())
+          .add(reading);
+    }
+
+    if (readingsByShard.size() <= 1) {
+      ActorRef shard = readingsByShard.isEmpty()
+          ? shards[0]
+          : readingsByShard.keySet().iterator().next();
+      shard.forward(batch, getContext());
+    } else {
+      Map<ActorRef, DeviceManager.RecordTemperatureBatch> batchesByShard = new HashMap<>();
+      readingsByShard.forEach((shard, readings) -> batchesByShard.put(
+          shard, new DeviceManager.RecordTemperatureBatch(batch.requestId, readings)));
+      getContext().actorOf(
+          TemperatureBatchCollector.props(batch.requestId, getSender(), batchesByShard, 0));
+    }
+  }
+
+  private void onRequestFleetTemperatures(DeviceManager.RequestFleetTemperatures rq) {
+    if (rq.chunkSize <= 0) {
+      // completed with nothing answered so the requester does not wait out its own timeout
+      log().warning("Rejecting fleet query {} with chunk size {}", rq.requestId, rq.chunkSize);
+      getSender().tell(
+          new DeviceManager.FleetTemperaturesCompleted(
+              rq.requestId, 0, Collections.emptySet()),
+          getSelf());
+      return;
+    }
+    getContext().actorOf(
+        FleetQueryMerge.props(Arrays.asList(shards.clone()), rq, getSender()));
+  }
+
+  private void onTerminated(Terminated t) {
+    for (int i = 0; i < shardCount; i++) {
+      if (shards[i].equals(t.getActor())) {
+        // its groups went down with it, they come back on their next registration
+        log().warning("Device manager shard {} has been terminated, starting a new one", i);
+        startShard(i, new HashMap<>());
+      }
+    }
+  }
+
+  private void startShard(int index, Map<String, Map<String, Double>> recoveredGroups) {
+    shards[index] = getContext().actorOf(DeviceManager.props(recoveredGroups), "shard-" + index);
+    getContext().watch(shards[index]);
+  }
+
+  ActorRef shardFor(String groupId) {
+    return shards[ring.nodeFor(groupId)];
+  }
+}
@@ -0,0 +1,105 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import com.ecacho.akkadomotic.metrics.MeteredActor;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class TemperatureBatchCollector extends MeteredActor {
+
+  final long requestId;
+  final ActorRef requester;
+  final Map<ActorRef, DeviceManager.RecordTemperatureBatch> batchesByTarget;
+  // sub-batches still unacknowledged, keyed by the request id they were sent with; acks
+  // are matched on it because a shard's ack comes from one of its groups, not the shard
+  final Map<Long, DeviceManager.RecordTemperatureBatch> stillWaiting = new HashMap<>();
+  final Map<Long, ActorRef> targets = new HashMap<>();
+  int accepted = 0;
+  int rejected;
+
+  public TemperatureBatchCollector(
+      long requestId,
+      ActorRef requester,
+      Map<ActorRef, DeviceManager.RecordTemperatureBatch> batchesByTarget,
+      int rejected) {
+    this.requestId = requestId;
+    this.requester = requester;
+    this.batchesByTarget = batchesByTarget;
+    this.rejected = rejected;
+  }
+
+  public static Props props(
+      long requestId,
+      ActorRef requester,
+      Map<ActorRef, DeviceManager.RecordTemperatureBatch> batchesByTarget,
+      int rejected) {
+    return Props.create(TemperatureBatchCollector.class,
+        () -> new TemperatureBatchCollector(requestId, requester, batchesByTarget, rejected))
+        .withDispatcher("akkadomotic.registry-dispatcher");
+  }
+
+  /*
+
+  ########  ######## ##     ##    ###    ##     ## ####  #######  ########
+  ##     ## ##       ##     ##   ## ##   ##     ##  ##  ##     ## ##     ##
+  ##     ## ##       ##     ##  ##   ##  ##     ##  ##  ##     ## ##     ##
+  ########  ######   ######### ##     ## ##     ##  ##  ##     ## ########
+  ##     ## ##       ##     ## #########  ##   ##   ##  ##     ## ##   ##
+  ##     ## ##       ##     ## ##     ##   ## ##    ##  ##     ## ##    ##
+  ########  ######## ##     ## ##     ##    ###    ####  #######  ##     ##
+
+   */
+
+  @Override
+  public void preStart() {
+    long subRequestId = 0;
+    for (Map.Entry<ActorRef, DeviceManager.RecordTemperatureBatch> entry
+        : batchesByTarget.entrySet()) {
+      DeviceManager.RecordTemperatureBatch batch =
+          new DeviceManager.RecordTemperatureBatch(subRequestId, entry.getValue().readings);
+      stillWaiting.put(subRequestId, batch);
+      targets.put(subRequestId, entry.getKey());
+      subRequestId++;
+
+      getContext().watch(entry.getKey());
+      entry.getKey().tell(batch, getSelf());
+    }
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+        .match(DeviceManager.TemperatureBatchRecorded.class, r -> {
+          if (stillWaiting.remove(r.requestId) != null) {
+            targets.remove(r.requestId);
+            accepted += r.accepted;
+            rejected += r.rejected;
+          }
+          completeIfDone();
+        })
+        .match(Terminated.class, t -> {
+          Iterator<Map.Entry<Long, ActorRef>> it = targets.entrySet().iterator();
+          while (it.hasNext()) {
+            Map.Entry<Long, ActorRef> target = it.next();
+            if (target.getValue().equals(t.getActor())) {
+              rejected += stillWaiting.remove(target.getKey()).readings.size();
+              it.remove();
+            }
+          }
+          completeIfDone();
+        })
+        .build();
+  }
+
+  private void completeIfDone() {
+    if (stillWaiting.isEmpty()) {
+      requester.tell(
+          new DeviceManager.TemperatureBatchRecorded(requestId, accepted, rejected),
+          getSelf());
+      getContext().stop(getSelf());
+    }
+  }
+}
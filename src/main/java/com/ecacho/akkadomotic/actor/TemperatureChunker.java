@@ -0,0 +1,64 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Streams the readings of a RequestTemperatureChunks to the requester in chunks of at most
+// chunkSize devices as they are collected; only the current chunk and the ids of the
+// devices that did not answer are held.
+final class TemperatureChunker {
+
+  final long requestId;
+  final ActorRef requester;
+  final int chunkSize;
+  Map<String, DeviceGroup.TemperatureReading> chunk;
+  int chunksSent = 0;
+  int devicesAnswered = 0;
+  final Set<String> devicesNotAvailable = new HashSet<>();
+  final Set<String> devicesTimedOut = new HashSet<>();
+
+  TemperatureChunker(long requestId, ActorRef requester, int chunkSize) {
+    this.requestId = requestId;
+    this.requester = requester;
+    this.chunkSize = chunkSize;
+    this.chunk = new HashMap<>(capacityFor(chunkSize));
+  }
+
+  void add(String deviceId, DeviceGroup.TemperatureReading reading, ActorRef self) {
+    if (reading == DeviceGroup.DeviceNotAvailable.INSTANCE) {
+      devicesNotAvailable.add(deviceId);
+      return;
+    }
+    if (reading == DeviceGroup.DeviceTimeout.INSTANCE) {
+      devicesTimedOut.add(deviceId);
+      return;
+    }
+    devicesAnswered++;
+    chunk.put(deviceId, reading);
+    if (chunk.size() == chunkSize) {
+      flush(self);
+    }
+  }
+
+  void flush(ActorRef self) {
+    if (chunk.isEmpty()) {
+      return;
+    }
+    // the map goes out with the chunk, the next one starts afresh
+    requester.tell(new DeviceGroup.TemperatureChunk(requestId, chunksSent++, chunk), self);
+    chunk = new HashMap<>(capacityFor(chunkSize));
+  }
+
+  DeviceGroup.TemperatureChunksCompleted complete(ActorRef self) {
+    flush(self);
+    return new DeviceGroup.TemperatureChunksCompleted(
+        requestId, chunksSent, devicesAnswered, devicesNotAvailable, devicesTimedOut);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    return (int) (Math.min(expectedSize, 1 << 16) / 0.75f) + 1;
+  }
+}
@@ -0,0 +1,134 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+// Credit bookkeeping shared by Device and DeviceGroup. The actor hands out at most budget
+// credits across all its producers, split evenly between them; a credit is spent by a
+// reading and comes back when the actor takes that reading from its mailbox, or when the
+// mailbox drops it. A producer down to half its share waits in line to be topped up, with at
+// least half a share, so a reading costs constant work however many producers there are.
+final class TemperatureCredits {
+
+  final int budget;
+  final Map<ActorRef, Producer> producers = new HashMap<>();
+  // producers down to half their share, in the order they got there
+  final Queue<Producer> waiting = new ArrayDeque<>();
+  // granted to producers and not yet taken back by a reading
+  int outstanding = 0;
+
+  static final class Producer {
+    final ActorRef ref;
+    final long requestId;
+    int outstanding = 0;
+    boolean waiting = false;
+
+    Producer(ActorRef ref, long requestId) {
+      this.ref = ref;
+      this.requestId = requestId;
+    }
+  }
+
+  TemperatureCredits(int budget) {
+    this.budget = budget;
+  }
+
+  boolean contains(ActorRef producer) {
+    return producers.containsKey(producer);
+  }
+
+  // answers every request, with no credits if the others hold the whole budget; the shares
+  // of the others shrink as their readings come in. A producer asks again when its readings
+  // go unacknowledged, and is answered with what it may have now
+  void request(ActorRef producer, long requestId, ActorRef self) {
+    Producer p = producers.get(producer);
+    if (p == null) {
+      p = new Producer(producer, requestId);
+      producers.put(producer, p);
+      reshare();
+    }
+    int share = share();
+    int credits = Math.max(0, Math.min(share - p.outstanding, budget - outstanding));
+    give(p, credits, self);
+    if (p.outstanding <= share / 2) {
+      await(p);
+    }
+  }
+
+  // a reading of the producer was taken from the mailbox or dropped by it
+  void consumed(ActorRef producer, ActorRef self) {
+    Producer p = producers.get(producer);
+    if (p == null || p.outstanding == 0) {
+      return;
+    }
+    p.outstanding--;
+    outstanding--;
+    if (p.outstanding <= share() / 2) {
+      await(p);
+    }
+    serve(self);
+  }
+
+  // gives the producer's outstanding credits to the others
+  boolean remove(ActorRef producer, ActorRef self) {
+    Producer p = producers.remove(producer);
+    if (p == null) {
+      return false;
+    }
+    outstanding -= p.outstanding;
+    reshare();
+    serve(self);
+    return true;
+  }
+
+  private int share() {
+    return Math.max(1, budget / Math.max(1, producers.size()));
+  }
+
+  // the shares changed, queue whoever is now down to half of theirs
+  private void reshare() {
+    int share = share();
+    for (Producer p : producers.values()) {
+      if (p.outstanding <= share / 2) {
+        await(p);
+      }
+    }
+  }
+
+  private void await(Producer p) {
+    if (!p.waiting) {
+      p.waiting = true;
+      waiting.add(p);
+    }
+  }
+
+  private void serve(ActorRef self) {
+    int share = share();
+    for (Producer p = waiting.peek(); p != null; p = waiting.peek()) {
+      if (producers.get(p.ref) != p || p.outstanding > share / 2) {
+        // stopped, or got its credits when it asked again
+        waiting.poll();
+        p.waiting = false;
+        continue;
+      }
+      int credits = Math.min(share - p.outstanding, budget - outstanding);
+      if (credits < Math.max(1, share / 2)) {
+        return;
+      }
+      give(p, credits, self);
+      if (p.outstanding > share / 2) {
+        waiting.poll();
+        p.waiting = false;
+      }
+    }
+  }
+
+  private void give(Producer p, int credits, ActorRef self) {
+    p.outstanding += credits;
+    outstanding += credits;
+    p.ref.tell(new TemperatureFlowControl.CreditsGranted(p.requestId, credits), self);
+  }
+}
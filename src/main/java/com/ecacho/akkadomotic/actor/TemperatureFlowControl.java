@@ -0,0 +1,78 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.stream.javadsl.Sink;
+import java.util.concurrent.CompletionStage;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Credit-based flow control for producers of readings. A producer sends RequestCredits to a
+// Device or a DeviceGroup and is answered with CreditsGranted; every RecordTemperature it sends
+// spends one credit, and the actor grants more as it takes the readings from its mailbox. The
+// actor splits one budget, at most its mailbox's ingest-capacity, across all its producers, so
+// however many there are, their queued readings together stay within it. Readings sent
+// without credits share the mailbox; when they fill it, a credited reading the mailbox drops
+// gives its credit back.
+public final class TemperatureFlowControl {
+
+  private TemperatureFlowControl() {
+  }
+
+  // writes every element as a RecordTemperature to the device, pulling upstream only while
+  // credits are left; completes once the last reading is acknowledged, or fails with
+  // ReadingsNotAcknowledged if some never were
+  public static Sink<Double, CompletionStage<Done>> deviceSink(ActorRef device, long requestId) {
+    return Sink.fromGraph(new TemperatureFlowControlSink<>(
+        device, requestId,
+        (sequence, value) -> new Device.RecordTemperature(sequence, value, true)));
+  }
+
+  // same for the devices of a group, every reading goes through the group as a DeviceEnvelope
+  // and the group's budget covers all of them
+  public static Sink<DeviceManager.DeviceReading, CompletionStage<Done>> groupSink(
+      ActorRef group, long requestId) {
+    return Sink.fromGraph(new TemperatureFlowControlSink<>(
+        group, requestId, (sequence, reading) -> new DeviceManager.DeviceEnvelope(
+            reading.groupId, reading.deviceId,
+            new Device.RecordTemperature(sequence, reading.value), true)));
+  }
+
+  /*
+
+  ########  ########   #######  ########  #######   ######   #######  ##
+  ##     ## ##     ## ##     ##    ##    ##     ## ##    ## ##     ## ##
+  ##     ## ##     ## ##     ##    ##    ##     ## ##       ##     ## ##
+  ########  ########  ##     ##    ##    ##     ## ##       ##     ## ##
+  ##        ##   ##   ##     ##    ##    ##     ## ##       ##     ## ##
+  ##        ##    ##  ##     ##    ##    ##     ## ##    ## ##     ## ##
+  ##        ##     ##  #######     ##     #######   ######   #######  ########
+
+   */
+
+  @AllArgsConstructor
+  public static final class RequestCredits {
+    final long requestId;
+  }
+
+  // further readings the sender may send, on top of the credits granted before; may be 0
+  // while other producers hold the actor's budget
+  @AllArgsConstructor
+  @Getter
+  public static final class CreditsGranted {
+    final long requestId;
+    final int credits;
+  }
+
+  // fails a sink whose readings were not all acknowledged within ack-timeout, e.g. readings
+  // for a device the group does not know; the others were recorded
+  @Getter
+  public static final class ReadingsNotAcknowledged extends IllegalStateException {
+    final int lost;
+
+    ReadingsNotAcknowledged(ActorRef target, int lost) {
+      super(lost + " readings sent to " + target.path() + " were not acknowledged");
+      this.lost = lost;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.Terminated;
+import akka.japi.Pair;
+import akka.stream.AbruptStageTerminationException;
+import akka.stream.ActorMaterializer;
+import akka.stream.Attributes;
+import akka.stream.Inlet;
+import akka.stream.SinkShape;
+import akka.stream.stage.AbstractGraphStageWithMaterializedValue;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.TimerGraphStageLogicWithLogging;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import scala.Tuple2;
+import scala.concurrent.duration.FiniteDuration;
+import scala.runtime.BoxedUnit;
+
+// Requests credits from its target with its stage actor and sends one reading per credit,
+// pulling upstream again as the target grants more. Acknowledgements only tell which readings
+// were recorded: a reading dropped on the way, e.g. for an unknown device, is counted as lost
+// after ack-timeout and fails the stage once the stream is done. Its credit is not taken back,
+// the target alone knows whether the reading still holds a place in its mailbox; the sink asks
+// the target again instead, which answers with whatever credits are due by then.
+final class TemperatureFlowControlSink<T>
+    extends AbstractGraphStageWithMaterializedValue<SinkShape<T>, CompletionStage<Done>> {
+
+  private static final String TICK = "tick";
+
+  final ActorRef target;
+  final long requestId;
+  // the message sending the element with the given sequence number as its requestId
+  final BiFunction<Long, T, Object> toMessage;
+  final Inlet<T> in = Inlet.create("TemperatureFlowControlSink.in");
+  final SinkShape<T> shape = SinkShape.of(in);
+
+  TemperatureFlowControlSink(
+      ActorRef target, long requestId, BiFunction<Long, T, Object> toMessage) {
+    this.target = target;
+    this.requestId = requestId;
+    this.toMessage = toMessage;
+  }
+
+  @Override
+  public SinkShape<T> shape() {
+    return shape;
+  }
+
+  @Override
+  public Pair<GraphStageLogic, CompletionStage<Done>> createLogicAndMaterializedValuePair(
+      Attributes inheritedAttributes) {
+    CompletableFuture<Done> done = new CompletableFuture<>();
+    GraphStageLogic logic = new TimerGraphStageLogicWithLogging(shape) {
+      ActorRef self;
+      boolean granted = false;
+      int credits = 0;
+      long sequence = 0;
+      // readings awaiting their acknowledgement, sent since the last tick and before it;
+      // those still unacknowledged a tick later are counted as lost
+      Set<Long> sent = new HashSet<>();
+      Set<Long> expiring = new HashSet<>();
+      int lost = 0;
+
+      {
+        setHandler(in, new AbstractInHandler() {
+          @Override
+          public void onPush() {
+            long id = sequence++;
+            target.tell(toMessage.apply(id, grab(in)), self);
+            sent.add(id);
+            credits--;
+            pullIfCredits();
+          }
+
+          @Override
+          public void onUpstreamFinish() {
+            // stay up for the acknowledgements still due
+            setKeepGoing(true);
+            completeIfAcknowledged();
+          }
+
+          @Override
+          public void onUpstreamFailure(Throwable ex) {
+            done.completeExceptionally(ex);
+            failStage(ex);
+          }
+        });
+      }
+
+      @Override
+      public void preStart() {
+        StageActor stageActor = getStageActor(this::onMessage);
+        self = stageActor.ref();
+        stageActor.watch(target);
+        target.tell(new TemperatureFlowControl.RequestCredits(requestId), self);
+        long ackTimeoutMillis = ((ActorMaterializer) materializer()).system()
+            .settings().config()
+            .getDuration("akkadomotic.flow-control.ack-timeout", TimeUnit.MILLISECONDS);
+        schedulePeriodically(TICK, FiniteDuration.create(ackTimeoutMillis, TimeUnit.MILLISECONDS));
+      }
+
+      @Override
+      public void postStop() {
+        if (!done.isDone()) {
+          done.completeExceptionally(new AbruptStageTerminationException(this));
+        }
+      }
+
+      @Override
+      public void onTimer(Object timerKey) {
+        // the request or the grant got lost, readings went unacknowledged, or we are starved
+        if (!granted || !expiring.isEmpty() || (credits == 0 && !isClosed(in))) {
+          target.tell(new TemperatureFlowControl.RequestCredits(requestId), self);
+        }
+        if (!expiring.isEmpty()) {
+          log().warning("{} readings sent to {} were not acknowledged, counting them as lost",
+              expiring.size(), target.path());
+          lost += expiring.size();
+          expiring.clear();
+        }
+        Set<Long> swap = expiring;
+        expiring = sent;
+        sent = swap;
+        completeIfAcknowledged();
+      }
+
+      private BoxedUnit onMessage(Tuple2<ActorRef, Object> message) {
+        Object msg = message._2();
+        if (msg instanceof Device.TemperatureRecorded) {
+          long id = ((Device.TemperatureRecorded) msg).requestId;
+          if (sent.remove(id) || expiring.remove(id)) {
+            completeIfAcknowledged();
+          }
+        } else if (msg instanceof TemperatureFlowControl.CreditsGranted) {
+          TemperatureFlowControl.CreditsGranted grant = (TemperatureFlowControl.CreditsGranted) msg;
+          if (grant.requestId == requestId) {
+            granted = true;
+            credits += grant.credits;
+            pullIfCredits();
+          }
+        } else if (msg instanceof Terminated) {
+          IllegalStateException ex =
+              new IllegalStateException(target.path() + " stopped before the stream completed");
+          done.completeExceptionally(ex);
+          failStage(ex);
+        }
+        return BoxedUnit.UNIT;
+      }
+
+      private void pullIfCredits() {
+        if (granted && credits > 0 && !isClosed(in) && !hasBeenPulled(in)) {
+          pull(in);
+        }
+      }
+
+      private void completeIfAcknowledged() {
+        if (!isClosed(in) || !sent.isEmpty() || !expiring.isEmpty()) {
+          return;
+        }
+        if (lost > 0) {
+          TemperatureFlowControl.ReadingsNotAcknowledged ex =
+              new TemperatureFlowControl.ReadingsNotAcknowledged(target, lost);
+          done.completeExceptionally(ex);
+          failStage(ex);
+        } else {
+          done.complete(Done.getInstance());
+          completeStage();
+        }
+      }
+    };
+    return new Pair<>(logic, done);
+  }
+}
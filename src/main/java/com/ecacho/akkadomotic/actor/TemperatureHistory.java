@@ -0,0 +1,117 @@
+package com.ecacho.akkadomotic.actor;
+
+import java.util.Arrays;
+
+// Bounded (timestamp, value) history kept in two primitive ring buffers, so recording
+// a sample never boxes and a device costs exactly 16 bytes per slot of capacity.
+final class TemperatureHistory {
+
+  final long[] timestamps;
+  final double[] values;
+  int next = 0;
+  int size = 0;
+
+  TemperatureHistory(int capacity) {
+    this.timestamps = new long[capacity];
+    this.values = new double[capacity];
+  }
+
+  void record(long timestamp, double value) {
+    // keep timestamps non-decreasing so the buffer stays ordered if the wall clock steps back
+    if (size > 0) {
+      timestamp = Math.max(timestamp, timestamps[indexOf(size - 1)]);
+    }
+    timestamps[next] = timestamp;
+    values[next] = value;
+    next = (next + 1) % timestamps.length;
+    if (size < timestamps.length) {
+      size++;
+    }
+  }
+
+  // samples with from <= timestamp < to, oldest first
+  Device.RespondTemperatureRange range(long requestId, long from, long to) {
+    int first = firstAtOrAfter(from);
+    int count = Math.max(0, firstAtOrAfter(to) - first);
+
+    long[] rangeTimestamps = new long[count];
+    double[] rangeValues = new double[count];
+    for (int i = 0; i < count; i++) {
+      int index = indexOf(first + i);
+      rangeTimestamps[i] = timestamps[index];
+      rangeValues[i] = values[index];
+    }
+    return new Device.RespondTemperatureRange(requestId, rangeTimestamps, rangeValues);
+  }
+
+  // min/max/avg per step-wide bucket starting at from; buckets without samples are left out,
+  // so the reply never has more entries than there are samples in the range
+  Device.RespondDownsampled downsample(long requestId, long from, long to, long step) {
+    int first = firstAtOrAfter(from);
+    int count = Math.max(0, firstAtOrAfter(to) - first);
+    if (count > 0) {
+      // clamp from to the bucket holding the oldest sample in range, so a from near
+      // Long.MIN_VALUE cannot overflow the bucket starts; the difference is taken unsigned as
+      // it may not fit a long, and the clamped from stays on the grid of the requested one
+      long oldest = timestamps[indexOf(first)];
+      from += Long.divideUnsigned(oldest - from, step) * step;
+    }
+
+    long[] bucketStarts = new long[count];
+    double[] min = new double[count];
+    double[] max = new double[count];
+    double[] avg = new double[count];
+    int[] samples = new int[count];
+
+    int buckets = 0;
+    for (int i = 0; i < count; i++) {
+      int index = indexOf(first + i);
+      long bucketStart = from + (timestamps[index] - from) / step * step;
+      double value = values[index];
+
+      if (buckets == 0 || bucketStarts[buckets - 1] != bucketStart) {
+        bucketStarts[buckets] = bucketStart;
+        min[buckets] = value;
+        max[buckets] = value;
+        avg[buckets] = 0;
+        buckets++;
+      }
+      int bucket = buckets - 1;
+      min[bucket] = Math.min(min[bucket], value);
+      max[bucket] = Math.max(max[bucket], value);
+      avg[bucket] += value;
+      samples[bucket]++;
+    }
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      avg[bucket] /= samples[bucket];
+    }
+
+    return new Device.RespondDownsampled(
+        requestId,
+        Arrays.copyOf(bucketStarts, buckets),
+        Arrays.copyOf(min, buckets),
+        Arrays.copyOf(max, buckets),
+        Arrays.copyOf(avg, buckets),
+        Arrays.copyOf(samples, buckets));
+  }
+
+  // position (0 = oldest) of the first sample whose timestamp is >= timestamp
+  private int firstAtOrAfter(long timestamp) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (timestamps[indexOf(mid)] < timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int indexOf(int position) {
+    int oldest = size < timestamps.length ? 0 : next;
+    return (oldest + position) % timestamps.length;
+  }
+}
@@ -0,0 +1,71 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Subscriber bookkeeping shared by Device and DeviceGroup. Updates a subscriber has no
+// demand for are conflated to the latest per device, so what is held for it never
+// exceeds one update per device of the publisher.
+final class TemperatureSubscribers {
+
+  final Map<ActorRef, Subscriber> subscribers = new HashMap<>();
+
+  static final class Subscriber {
+    final long requestId;
+    long demand = 0;
+    // oldest first; a newer reading replaces a pending one in place
+    final Map<String, TemperatureSubscription.TemperatureChanged> pending = new LinkedHashMap<>();
+
+    Subscriber(long requestId) {
+      this.requestId = requestId;
+    }
+  }
+
+  boolean isEmpty() {
+    return subscribers.isEmpty();
+  }
+
+  boolean contains(ActorRef subscriber) {
+    return subscribers.containsKey(subscriber);
+  }
+
+  void subscribe(ActorRef subscriber, long requestId) {
+    subscribers.putIfAbsent(subscriber, new Subscriber(requestId));
+  }
+
+  boolean remove(ActorRef subscriber) {
+    return subscribers.remove(subscriber) != null;
+  }
+
+  void request(ActorRef subscriber, long n, ActorRef self) {
+    Subscriber s = subscribers.get(subscriber);
+    if (s == null || n <= 0) {
+      return;
+    }
+    s.demand = s.demand + n < 0 ? Long.MAX_VALUE : s.demand + n;
+
+    Iterator<TemperatureSubscription.TemperatureChanged> it = s.pending.values().iterator();
+    while (s.demand > 0 && it.hasNext()) {
+      subscriber.tell(it.next(), self);
+      it.remove();
+      s.demand--;
+    }
+  }
+
+  void publish(String deviceId, double value, long timestamp, ActorRef self) {
+    for (Map.Entry<ActorRef, Subscriber> entry : subscribers.entrySet()) {
+      Subscriber s = entry.getValue();
+      TemperatureSubscription.TemperatureChanged update =
+          new TemperatureSubscription.TemperatureChanged(s.requestId, deviceId, value, timestamp);
+      if (s.demand > 0) {
+        entry.getKey().tell(update, self);
+        s.demand--;
+      } else {
+        s.pending.put(deviceId, update);
+      }
+    }
+  }
+}
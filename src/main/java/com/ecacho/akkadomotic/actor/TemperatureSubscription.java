@@ -0,0 +1,62 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.stream.javadsl.Source;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Live temperature updates from a Device or a DeviceGroup. A subscriber sends Subscribe,
+// then Request for as many updates as it is ready to take; while it has no demand left
+// only the latest reading per device is kept for it, so a slow subscriber sees fewer
+// updates rather than making the publisher queue them.
+public final class TemperatureSubscription {
+
+  private TemperatureSubscription() {
+  }
+
+  // demand-driven stream of the updates of a device or a group, requested one at a time
+  // as downstream pulls; completes when the publisher stops
+  public static Source<TemperatureChanged, NotUsed> source(ActorRef publisher, long requestId) {
+    return Source.fromGraph(new TemperatureSubscriptionSource(publisher, requestId));
+  }
+
+  /*
+
+  ########  ########   #######  ########  #######   ######   #######  ##
+  ##     ## ##     ## ##     ##    ##    ##     ## ##    ## ##     ## ##
+  ##     ## ##     ## ##     ##    ##    ##     ## ##       ##     ## ##
+  ########  ########  ##     ##    ##    ##     ## ##       ##     ## ##
+  ##        ##   ##   ##     ##    ##    ##     ## ##       ##     ## ##
+  ##        ##    ##  ##     ##    ##    ##     ## ##    ## ##     ## ##
+  ##        ##     ##  #######     ##     #######   ######   #######  ########
+
+   */
+
+  // subscribes the sender, with no demand yet
+  @AllArgsConstructor
+  public static final class Subscribe {
+    final long requestId;
+  }
+
+  @AllArgsConstructor
+  public static final class Unsubscribe {
+    final long requestId;
+  }
+
+  // lets the publisher send n more updates to the sender
+  @AllArgsConstructor
+  public static final class Request {
+    final long requestId;
+    final long n;
+  }
+
+  @AllArgsConstructor
+  @Getter
+  public static final class TemperatureChanged {
+    final long requestId;
+    final String deviceId;
+    final double value;
+    final long timestamp;
+  }
+}
@@ -0,0 +1,74 @@
+package com.ecacho.akkadomotic.actor;
+
+import akka.actor.ActorRef;
+import akka.actor.Terminated;
+import akka.stream.Attributes;
+import akka.stream.Outlet;
+import akka.stream.SourceShape;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import scala.Tuple2;
+import scala.runtime.BoxedUnit;
+
+// Subscribes its stage actor to a Device or DeviceGroup and requests one update per pull,
+// so the publisher never sends more than downstream asked for and conflates the rest.
+final class TemperatureSubscriptionSource
+    extends GraphStage<SourceShape<TemperatureSubscription.TemperatureChanged>> {
+
+  final ActorRef publisher;
+  final long requestId;
+  final Outlet<TemperatureSubscription.TemperatureChanged> out =
+      Outlet.create("TemperatureSubscriptionSource.out");
+  final SourceShape<TemperatureSubscription.TemperatureChanged> shape = SourceShape.of(out);
+
+  TemperatureSubscriptionSource(ActorRef publisher, long requestId) {
+    this.publisher = publisher;
+    this.requestId = requestId;
+  }
+
+  @Override
+  public SourceShape<TemperatureSubscription.TemperatureChanged> shape() {
+    return shape;
+  }
+
+  @Override
+  public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+    return new GraphStageLogic(shape) {
+      ActorRef self;
+
+      {
+        setHandler(out, new AbstractOutHandler() {
+          @Override
+          public void onPull() {
+            publisher.tell(new TemperatureSubscription.Request(requestId, 1), self);
+          }
+
+          @Override
+          public void onDownstreamFinish() {
+            publisher.tell(new TemperatureSubscription.Unsubscribe(requestId), self);
+            completeStage();
+          }
+        });
+      }
+
+      @Override
+      public void preStart() {
+        StageActor stageActor = getStageActor(this::onMessage);
+        self = stageActor.ref();
+        stageActor.watch(publisher);
+        publisher.tell(new TemperatureSubscription.Subscribe(requestId), self);
+      }
+
+      private BoxedUnit onMessage(Tuple2<ActorRef, Object> message) {
+        if (message._2() instanceof TemperatureSubscription.TemperatureChanged) {
+          // only ever sent against a pull
+          push(out, (TemperatureSubscription.TemperatureChanged) message._2());
+        } else if (message._2() instanceof Terminated) {
+          completeStage();
+        }
+        return BoxedUnit.UNIT;
+      }
+    };
+  }
+}
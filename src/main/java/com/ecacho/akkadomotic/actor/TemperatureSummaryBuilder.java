@@ -0,0 +1,98 @@
+package com.ecacho.akkadomotic.actor;
+
+import java.util.Arrays;
+
+// Folds device readings into a RespondTemperatureSummary as they are collected, so the
+// reply holds a fixed number of primitives whatever the size of the group. Values are
+// only kept when percentiles are asked for, in a primitive array sorted once at the end.
+final class TemperatureSummaryBuilder {
+
+  final double[] percentiles;
+  final double[] histogramBounds;
+  final long[] histogram;
+  double[] values;
+  int count = 0;
+  int notAvailable = 0;
+  int devicesNotAvailable = 0;
+  int timedOut = 0;
+  double min = Double.POSITIVE_INFINITY;
+  double max = Double.NEGATIVE_INFINITY;
+  double sum = 0;
+
+  TemperatureSummaryBuilder(double[] percentiles, double[] histogramBounds, int expectedSize) {
+    this.percentiles = percentiles;
+    this.histogramBounds = histogramBounds;
+    this.histogram = new long[histogramBounds.length == 0 ? 0 : histogramBounds.length + 1];
+    this.values = percentiles.length == 0 ? null : new double[Math.max(1, expectedSize)];
+  }
+
+  void add(double value) {
+    if (values != null) {
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count] = value;
+    }
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    if (histogram.length > 0) {
+      // bucket i takes bounds[i - 1] < value <= bounds[i], the last one everything above
+      int index = Arrays.binarySearch(histogramBounds, value);
+      histogram[index >= 0 ? index : -index - 1]++;
+    }
+  }
+
+  void add(DeviceGroup.TemperatureReading reading) {
+    if (reading instanceof DeviceGroup.Temperature) {
+      add(((DeviceGroup.Temperature) reading).value);
+    } else if (reading == DeviceGroup.TemperatureNotAvailable.INSTANCE) {
+      notAvailable++;
+    } else if (reading == DeviceGroup.DeviceNotAvailable.INSTANCE) {
+      devicesNotAvailable++;
+    } else if (reading == DeviceGroup.DeviceTimeout.INSTANCE) {
+      timedOut++;
+    }
+  }
+
+  DeviceGroup.RespondTemperatureSummary build(long requestId) {
+    double[] percentileValues = new double[percentiles.length];
+    if (count == 0) {
+      Arrays.fill(percentileValues, Double.NaN);
+    } else if (percentiles.length > 0) {
+      Arrays.sort(values, 0, count);
+      for (int i = 0; i < percentiles.length; i++) {
+        // nearest rank
+        int rank = Math.max(1, (int) Math.ceil(percentiles[i] * count));
+        percentileValues[i] = values[rank - 1];
+      }
+    }
+    return new DeviceGroup.RespondTemperatureSummary(
+        requestId,
+        count,
+        notAvailable,
+        devicesNotAvailable,
+        timedOut,
+        count == 0 ? Double.NaN : min,
+        count == 0 ? Double.NaN : max,
+        count == 0 ? Double.NaN : sum / count,
+        percentileValues,
+        histogram);
+  }
+
+  // percentiles within [0, 1] and strictly ascending histogram bounds
+  static boolean isValid(double[] percentiles, double[] histogramBounds) {
+    for (double percentile : percentiles) {
+      if (!(percentile >= 0 && percentile <= 1)) {
+        return false;
+      }
+    }
+    for (int i = 1; i < histogramBounds.length; i++) {
+      if (!(histogramBounds[i - 1] < histogramBounds[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
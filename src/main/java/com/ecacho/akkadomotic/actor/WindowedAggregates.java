@@ -0,0 +1,130 @@
+package com.ecacho.akkadomotic.actor;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Count, sum, min and max of a group's readings per time bucket, for each configured window.
+// A window of size w is split into buckets of w / buckets and keeps two windows' worth of
+// them in primitive rings: recording touches one bucket per window, a query folds at most
+// 2 * buckets of them. Sliding aggregates cover the buckets of the last w up to now, tumbling
+// ones the last complete window aligned to w.
+final class WindowedAggregates {
+
+  final Window[] windows;
+
+  WindowedAggregates(List<Duration> sizes, int buckets) {
+    this.windows = new Window[sizes.size()];
+    for (int i = 0; i < windows.length; i++) {
+      windows[i] = new Window(sizes.get(i), buckets);
+    }
+  }
+
+  void record(long timestamp, double value) {
+    for (Window window : windows) {
+      window.record(timestamp, value);
+    }
+  }
+
+  Map<Duration, DeviceGroup.WindowAggregate> sliding(long now) {
+    Map<Duration, DeviceGroup.WindowAggregate> aggregates = new LinkedHashMap<>();
+    for (Window window : windows) {
+      long to = now / window.bucketMillis + 1;
+      aggregates.put(window.size, window.aggregate(to - window.buckets, to));
+    }
+    return Collections.unmodifiableMap(aggregates);
+  }
+
+  Map<Duration, DeviceGroup.WindowAggregate> tumbling(long now) {
+    Map<Duration, DeviceGroup.WindowAggregate> aggregates = new LinkedHashMap<>();
+    for (Window window : windows) {
+      long to = now / window.windowMillis * window.buckets;
+      aggregates.put(window.size, window.aggregate(to - window.buckets, to));
+    }
+    return Collections.unmodifiableMap(aggregates);
+  }
+
+  static final class Window {
+    final Duration size;
+    final int buckets;
+    final long bucketMillis;
+    // size rounded down to a whole number of buckets
+    final long windowMillis;
+    // allocated on the first reading, indexed by bucket number modulo their length
+    long[] bucketNumbers;
+    long[] counts;
+    double[] sums;
+    double[] mins;
+    double[] maxs;
+
+    Window(Duration size, int buckets) {
+      if (buckets <= 0 || size.toMillis() < buckets) {
+        throw new IllegalArgumentException(
+            "Window " + size + " cannot be split into " + buckets + " buckets");
+      }
+      this.size = size;
+      this.buckets = buckets;
+      this.bucketMillis = size.toMillis() / buckets;
+      this.windowMillis = bucketMillis * buckets;
+    }
+
+    void record(long timestamp, double value) {
+      if (bucketNumbers == null) {
+        allocate();
+      }
+      long bucket = timestamp / bucketMillis;
+      int slot = (int) Math.floorMod(bucket, (long) bucketNumbers.length);
+      if (bucketNumbers[slot] != bucket) {
+        if (bucketNumbers[slot] > bucket) {
+          // older than anything the ring still covers
+          return;
+        }
+        bucketNumbers[slot] = bucket;
+        counts[slot] = 0;
+        sums[slot] = 0;
+        mins[slot] = Double.POSITIVE_INFINITY;
+        maxs[slot] = Double.NEGATIVE_INFINITY;
+      }
+      counts[slot]++;
+      sums[slot] += value;
+      mins[slot] = Math.min(mins[slot], value);
+      maxs[slot] = Math.max(maxs[slot], value);
+    }
+
+    // buckets from <= number < to
+    DeviceGroup.WindowAggregate aggregate(long from, long to) {
+      long count = 0;
+      double sum = 0;
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      if (bucketNumbers != null) {
+        for (int slot = 0; slot < bucketNumbers.length; slot++) {
+          if (bucketNumbers[slot] >= from && bucketNumbers[slot] < to) {
+            count += counts[slot];
+            sum += sums[slot];
+            min = Math.min(min, mins[slot]);
+            max = Math.max(max, maxs[slot]);
+          }
+        }
+      }
+      return count == 0
+          ? new DeviceGroup.WindowAggregate(
+              from * bucketMillis, to * bucketMillis, 0, Double.NaN, Double.NaN, Double.NaN)
+          : new DeviceGroup.WindowAggregate(
+              from * bucketMillis, to * bucketMillis, count, min, max, sum / count);
+    }
+
+    private void allocate() {
+      int slots = 2 * buckets;
+      bucketNumbers = new long[slots];
+      Arrays.fill(bucketNumbers, Long.MIN_VALUE);
+      counts = new long[slots];
+      sums = new double[slots];
+      mins = new double[slots];
+      maxs = new double[slots];
+    }
+  }
+}
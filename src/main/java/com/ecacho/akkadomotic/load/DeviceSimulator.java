@@ -0,0 +1,147 @@
+package com.ecacho.akkadomotic.load;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Identify;
+import akka.actor.Props;
+import com.ecacho.akkadomotic.actor.Device;
+import com.ecacho.akkadomotic.actor.DeviceManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import scala.concurrent.duration.FiniteDuration;
+
+// Registers the devices of one group and then records readings for all of them at the
+// configured rate. Every reading carries its send time as request id, so the ack gives
+// the end to end latency of the recording. Completes ready with the group's actor.
+public class DeviceSimulator extends AbstractLoggingActor {
+
+  final ActorRef manager;
+  final String groupId;
+  final LoadSettings settings;
+  final LoadStats stats;
+  final CompletableFuture<ActorRef> ready;
+  final List<ActorRef> deviceActors;
+  final double readingsPerTick;
+  double due = 0;
+  int next = 0;
+  Cancellable ticks;
+
+  public DeviceSimulator(
+      ActorRef manager,
+      String groupId,
+      LoadSettings settings,
+      LoadStats stats,
+      CompletableFuture<ActorRef> ready) {
+    this.manager = manager;
+    this.groupId = groupId;
+    this.settings = settings;
+    this.stats = stats;
+    this.ready = ready;
+    this.deviceActors = new ArrayList<>(settings.devicesPerGroup);
+    this.readingsPerTick = settings.devicesPerGroup * settings.readingsPerSecond
+        * settings.tickInterval.toNanos() / TimeUnit.SECONDS.toNanos(1);
+  }
+
+  static Props props(
+      ActorRef manager,
+      String groupId,
+      LoadSettings settings,
+      LoadStats stats,
+      CompletableFuture<ActorRef> ready) {
+    return Props.create(DeviceSimulator.class,
+        () -> new DeviceSimulator(manager, groupId, settings, stats, ready));
+  }
+
+  /*
+
+  ########  ########   #######  ########  #######   ######   #######  ##
+  ##     ## ##     ## ##     ##    ##    ##     ## ##    ## ##     ## ##
+  ##     ## ##     ## ##     ##    ##    ##     ## ##       ##     ## ##
+  ########  ########  ##     ##    ##    ##     ## ##       ##     ## ##
+  ##        ##   ##   ##     ##    ##    ##     ## ##       ##     ## ##
+  ##        ##    ##  ##     ##    ##    ##     ## ##    ## ##     ## ##
+  ##        ##     ##  #######     ##     #######   ######   #######  ########
+
+   */
+
+  enum Tick {
+    INSTANCE
+  }
+
+  /*
+
+  ########  ######## ##     ##    ###    ##     ## ####  #######  ########
+  ##     ## ##       ##     ##   ## ##   ##     ##  ##  ##     ## ##     ##
+  ##     ## ##       ##     ##  ##   ##  ##     ##  ##  ##     ## ##     ##
+  ########  ######   ######### ##     ## ##     ##  ##  ##     ## ########
+  ##     ## ##       ##     ## #########  ##   ##   ##  ##     ## ##   ##
+  ##     ## ##       ##     ## ##     ##   ## ##    ##  ##     ## ##    ##
+  ########  ######## ##     ## ##     ##    ###    ####  #######  ##     ##
+
+   */
+
+  @Override
+  public void preStart() {
+    for (int d = 0; d < settings.devicesPerGroup; d++) {
+      manager.tell(new DeviceManager.RequestTrackDevice(groupId, "device" + d), getSelf());
+    }
+  }
+
+  @Override
+  public void postStop() {
+    if (ticks != null) {
+      ticks.cancel();
+    }
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+        .match(DeviceManager.DeviceRegistered.class, r -> {
+          deviceActors.add(getSender());
+          if (deviceActors.size() == settings.devicesPerGroup) {
+            // devices are children of their group
+            getContext().actorSelection(getSender().path().parent())
+                .tell(new Identify(groupId), getSelf());
+          }
+        })
+        .match(ActorIdentity.class, this::onGroupIdentified)
+        .match(Tick.class, t -> onTick())
+        .match(Device.TemperatureRecorded.class, r -> stats.acked(r.getRequestId()))
+        .build();
+  }
+
+  private void onGroupIdentified(ActorIdentity identity) {
+    if (!identity.getActorRef().isPresent()) {
+      ready.completeExceptionally(
+          new IllegalStateException("Group " + groupId + " stopped during registration"));
+      return;
+    }
+
+    FiniteDuration tickInterval =
+        FiniteDuration.create(settings.tickInterval.toNanos(), TimeUnit.NANOSECONDS);
+    ticks = getContext().getSystem().getScheduler().schedule(
+        tickInterval, tickInterval, getSelf(), Tick.INSTANCE,
+        getContext().getDispatcher(), getSelf());
+    ready.complete(identity.getActorRef().get());
+  }
+
+  private void onTick() {
+    due += readingsPerTick;
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (due >= 1) {
+      ActorRef deviceActor = deviceActors.get(next);
+      next = (next + 1) % deviceActors.size();
+      deviceActor.tell(
+          new Device.RecordTemperature(stats.now(), 15 + random.nextDouble() * 10),
+          getSelf());
+      stats.readingsSent.increment();
+      due -= 1;
+    }
+  }
+}
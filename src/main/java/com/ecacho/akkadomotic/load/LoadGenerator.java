@@ -0,0 +1,123 @@
+package com.ecacho.akkadomotic.load;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.ecacho.akkadomotic.metrics.LatencyHistogram;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Drives a device manager with settings.groups x settings.devicesPerGroup simulated
+// devices and settings.pollers RequestAllTemperatures pollers for settings.duration,
+// printing a line of throughput, latency, heap and timeout figures every report interval
+// and a summary at the end.
+public class LoadGenerator {
+
+  final ActorSystem system;
+  final ActorRef manager;
+  final LoadSettings settings;
+  final PrintStream out;
+  final LoadStats stats = new LoadStats();
+  final List<ActorRef> actors = new ArrayList<>();
+
+  public LoadGenerator(ActorSystem system, ActorRef manager, LoadSettings settings,
+      PrintStream out) {
+    this.system = system;
+    this.manager = manager;
+    this.settings = settings;
+    this.out = out;
+  }
+
+  public void run() throws Exception {
+    out.printf("Registering %d groups x %d devices%n",
+        settings.groups, settings.devicesPerGroup);
+    long registrationStart = System.nanoTime();
+    List<CompletableFuture<ActorRef>> ready = new ArrayList<>();
+    for (int g = 0; g < settings.groups; g++) {
+      CompletableFuture<ActorRef> groupReady = new CompletableFuture<>();
+      ready.add(groupReady);
+      actors.add(system.actorOf(
+          DeviceSimulator.props(manager, "group" + g, settings, stats, groupReady)));
+    }
+    List<ActorRef> groups = new ArrayList<>();
+    for (CompletableFuture<ActorRef> groupReady : ready) {
+      groups.add(groupReady.get(10, TimeUnit.MINUTES));
+    }
+    out.printf("Registered in %d ms, recording %.1f readings/s per device%n",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - registrationStart),
+        settings.readingsPerSecond);
+
+    for (int p = 0; p < settings.pollers && !groups.isEmpty(); p++) {
+      actors.add(system.actorOf(TemperaturePoller.props(groups, p, settings, stats)));
+    }
+
+    long start = System.nanoTime();
+    long end = start + settings.duration.toNanos();
+    long lastReport = start;
+    long lastAcked = 0;
+    long lastPolls = 0;
+    while (System.nanoTime() < end) {
+      Thread.sleep(Math.min(
+          settings.reportInterval.toMillis(),
+          Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+
+      long now = System.nanoTime();
+      double seconds = (now - lastReport) / 1e9;
+      long acked = stats.readingsAcked.sum();
+      long polls = stats.pollsAnswered.sum();
+      out.printf("[%5ds] acked %,.0f/s ack %s | polls %,.1f/s poll %s | timeouts %s | %s%n",
+          TimeUnit.NANOSECONDS.toSeconds(now - start),
+          (acked - lastAcked) / seconds, percentiles(stats.swapAckLatency()),
+          (polls - lastPolls) / seconds, percentiles(stats.swapPollLatency()),
+          timeouts(), heap());
+      lastReport = now;
+      lastAcked = acked;
+      lastPolls = polls;
+    }
+
+    for (ActorRef actor : actors) {
+      system.stop(actor);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    out.println("Final report");
+    out.printf("  readings sent %,d, acked %,d (%,.0f/s)%n",
+        stats.readingsSent.sum(), stats.readingsAcked.sum(),
+        stats.readingsAcked.sum() / seconds);
+    out.printf("  ack latency %s%n", percentiles(stats.totalAckLatency));
+    out.printf("  polls sent %,d, answered %,d (%,.1f/s)%n",
+        stats.pollsSent.sum(), stats.pollsAnswered.sum(), stats.pollsAnswered.sum() / seconds);
+    out.printf("  poll latency %s%n", percentiles(stats.totalPollLatency));
+    out.printf("  timeouts %s%n", timeouts());
+    out.printf("  %s%n", heap());
+  }
+
+  private static String percentiles(LatencyHistogram histogram) {
+    if (histogram.count() == 0) {
+      return "-";
+    }
+    return String.format("p50 %s p99 %s p99.9 %s max %s",
+        millis(histogram.percentile(0.5)),
+        millis(histogram.percentile(0.99)),
+        millis(histogram.percentile(0.999)),
+        millis(histogram.percentile(1.0)));
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.2fms", nanos / 1e6);
+  }
+
+  private String timeouts() {
+    return String.format("polls %d devices %d unavailable %d",
+        stats.pollsTimedOut.sum(), stats.deviceTimeouts.sum(),
+        stats.devicesNotAvailable.sum());
+  }
+
+  private static String heap() {
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    return String.format("heap %d/%d MiB", heap.getUsed() >> 20, heap.getMax() >> 20);
+  }
+}
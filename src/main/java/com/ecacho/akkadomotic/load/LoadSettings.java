@@ -0,0 +1,36 @@
+package com.ecacho.akkadomotic.load;
+
+import com.typesafe.config.Config;
+import java.time.Duration;
+
+// akkadomotic.load, see reference.conf
+public final class LoadSettings {
+
+  final int groups;
+  final int devicesPerGroup;
+  final double readingsPerSecond;
+  final int pollers;
+  final Duration pollInterval;
+  final Duration pollTimeout;
+  final Duration tickInterval;
+  final Duration reportInterval;
+  final Duration duration;
+  final boolean sharded;
+
+  public LoadSettings(Config config) {
+    this.groups = config.getInt("groups");
+    this.devicesPerGroup = config.getInt("devices-per-group");
+    this.readingsPerSecond = config.getDouble("readings-per-second");
+    this.pollers = config.getInt("pollers");
+    this.pollInterval = config.getDuration("poll-interval");
+    this.pollTimeout = config.getDuration("poll-timeout");
+    this.tickInterval = config.getDuration("tick-interval");
+    this.reportInterval = config.getDuration("report-interval");
+    this.duration = config.getDuration("duration");
+    this.sharded = config.getBoolean("sharded");
+  }
+
+  public boolean sharded() {
+    return sharded;
+  }
+}
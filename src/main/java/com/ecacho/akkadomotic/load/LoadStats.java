@@ -0,0 +1,55 @@
+package com.ecacho.akkadomotic.load;
+
+import com.ecacho.akkadomotic.metrics.LatencyHistogram;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latencies shared by the simulators, the pollers and the report loop.
+// Interval histograms are swapped out at every report, the totals are kept for the end.
+final class LoadStats {
+
+  final LongAdder readingsSent = new LongAdder();
+  final LongAdder readingsAcked = new LongAdder();
+  final LongAdder pollsSent = new LongAdder();
+  final LongAdder pollsAnswered = new LongAdder();
+  final LongAdder pollsTimedOut = new LongAdder();
+  final LongAdder deviceTimeouts = new LongAdder();
+  final LongAdder devicesNotAvailable = new LongAdder();
+
+  final LatencyHistogram totalAckLatency = new LatencyHistogram();
+  final LatencyHistogram totalPollLatency = new LatencyHistogram();
+  volatile LatencyHistogram ackLatency = new LatencyHistogram();
+  volatile LatencyHistogram pollLatency = new LatencyHistogram();
+
+  // the time base of the request ids, which keeps them positive
+  final long startNanos = System.nanoTime();
+
+  long now() {
+    return System.nanoTime() - startNanos;
+  }
+
+  void acked(long sentAt) {
+    long latency = now() - sentAt;
+    readingsAcked.increment();
+    ackLatency.record(latency);
+    totalAckLatency.record(latency);
+  }
+
+  void answered(long sentAt) {
+    long latency = now() - sentAt;
+    pollsAnswered.increment();
+    pollLatency.record(latency);
+    totalPollLatency.record(latency);
+  }
+
+  LatencyHistogram swapAckLatency() {
+    LatencyHistogram interval = ackLatency;
+    ackLatency = new LatencyHistogram();
+    return interval;
+  }
+
+  LatencyHistogram swapPollLatency() {
+    LatencyHistogram interval = pollLatency;
+    pollLatency = new LatencyHistogram();
+    return interval;
+  }
+}
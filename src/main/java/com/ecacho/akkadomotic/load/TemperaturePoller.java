@@ -0,0 +1,104 @@
+package com.ecacho.akkadomotic.load;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import com.ecacho.akkadomotic.actor.DeviceGroup;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import scala.concurrent.duration.FiniteDuration;
+
+// Sends RequestAllTemperatures to the groups in turn, one every poll interval. The send
+// time is the request id; polls without an answer after the poll timeout are counted as
+// timed out.
+public class TemperaturePoller extends AbstractLoggingActor {
+
+  final List<ActorRef> groups;
+  final LoadSettings settings;
+  final LoadStats stats;
+  final Set<Long> outstanding = new HashSet<>();
+  int next;
+  Cancellable ticks;
+
+  public TemperaturePoller(List<ActorRef> groups, int first, LoadSettings settings,
+      LoadStats stats) {
+    this.groups = groups;
+    this.next = first % groups.size();
+    this.settings = settings;
+    this.stats = stats;
+  }
+
+  static Props props(List<ActorRef> groups, int first, LoadSettings settings, LoadStats stats) {
+    return Props.create(TemperaturePoller.class,
+        () -> new TemperaturePoller(groups, first, settings, stats));
+  }
+
+  /*
+
+  ########  ######## ##     ##    ###    ##     ## ####  #######  ########
+  ##     ## ##       ##     ##   ## ##   ##     ##  ##  ##     ## ##     ##
+  ##     ## ##       ##     ##  ##   ##  ##     ##  ##  ##     ## ##     ##
+  ########  ######   ######### ##     ## ##     ##  ##  ##     ## ########
+  ##     ## ##       ##     ## #########  ##   ##   ##  ##     ## ##   ##
+  ##     ## ##       ##     ## ##     ##   ## ##    ##  ##     ## ##    ##
+  ########  ######## ##     ## ##     ##    ###    ####  #######  ##     ##
+
+   */
+
+  @Override
+  public void preStart() {
+    FiniteDuration interval =
+        FiniteDuration.create(settings.pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+    ticks = getContext().getSystem().getScheduler().schedule(
+        interval, interval, getSelf(), DeviceSimulator.Tick.INSTANCE,
+        getContext().getDispatcher(), getSelf());
+  }
+
+  @Override
+  public void postStop() {
+    ticks.cancel();
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+        .match(DeviceSimulator.Tick.class, t -> onTick())
+        .match(DeviceGroup.RespondAllTemperatures.class, this::onResponse)
+        .build();
+  }
+
+  private void onTick() {
+    long now = stats.now();
+    long timeout = settings.pollTimeout.toNanos();
+    Iterator<Long> it = outstanding.iterator();
+    while (it.hasNext()) {
+      if (now - it.next() > timeout) {
+        stats.pollsTimedOut.increment();
+        it.remove();
+      }
+    }
+
+    outstanding.add(now);
+    groups.get(next).tell(new DeviceGroup.RequestAllTemperatures(now), getSelf());
+    next = (next + 1) % groups.size();
+    stats.pollsSent.increment();
+  }
+
+  private void onResponse(DeviceGroup.RespondAllTemperatures response) {
+    if (!outstanding.remove(response.getRequestId())) {
+      return;
+    }
+    stats.answered(response.getRequestId());
+    for (DeviceGroup.TemperatureReading reading : response.getTemperatures().values()) {
+      if (reading == DeviceGroup.DeviceTimeout.INSTANCE) {
+        stats.deviceTimeouts.increment();
+      } else if (reading == DeviceGroup.DeviceNotAvailable.INSTANCE) {
+        stats.devicesNotAvailable.increment();
+      }
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package com.ecacho.akkadomotic.metrics;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import com.typesafe.config.Config;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Counters, per message type latency histograms and mailbox depth gauges of the device
+// actors, configured under akkadomotic.metrics. Exposed through JMX as
+// com.ecacho.akkadomotic:type=Metrics,system=<name> and pushed to the configured reporters.
+public final class DomoticMetrics implements Extension, DomoticMetricsMXBean {
+
+  public static final Id ID = new Id();
+
+  final boolean enabled;
+  final Map<Class<?>, Map<Class<?>, LatencyHistogram>> latencies = new ConcurrentHashMap<>();
+  final Map<String, AtomicInteger> mailboxDepths = new ConcurrentHashMap<>();
+  final List<MetricsReporter> reporters = new CopyOnWriteArrayList<>();
+
+  public final LongAdder registrations = new LongAdder();
+  public final LongAdder terminations = new LongAdder();
+  public final LongAdder queriesCompleted = new LongAdder();
+  public final LongAdder queriesTimedOut = new LongAdder();
+  public final LongAdder deviceTimeouts = new LongAdder();
+  public final LongAdder devicesNotAvailable = new LongAdder();
+  public final LongAdder passivations = new LongAdder();
+  public final LongAdder rehydrations = new LongAdder();
+  // RequestAllTemperatures answered by a fan-out already running for another request
+  public final LongAdder queriesCoalesced = new LongAdder();
+  // readings dropped by a full ingestion lane of a PriorityMailbox
+  public final LongAdder readingsDropped = new LongAdder();
+  // events the device journal dropped while its writer was max-pending events behind
+  public final LongAdder journalEventsDropped = new LongAdder();
+
+  DomoticMetrics(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public static DomoticMetrics get(ActorSystem system) {
+    return ID.get(system);
+  }
+
+  public boolean enabled() {
+    return enabled;
+  }
+
+  // histograms of one actor class keyed by message class, meant to be looked up once per actor
+  public Map<Class<?>, LatencyHistogram> messageLatencies(Class<?> actorClass) {
+    return latencies.computeIfAbsent(actorClass, c -> new ConcurrentHashMap<>());
+  }
+
+  public AtomicInteger mailboxDepth(String path) {
+    return mailboxDepths.computeIfAbsent(path, p -> new AtomicInteger());
+  }
+
+  public void removeMailboxDepth(String path) {
+    mailboxDepths.remove(path);
+  }
+
+  public void addReporter(MetricsReporter reporter) {
+    reporters.add(reporter);
+  }
+
+  @Override
+  public MetricsSnapshot getSnapshot() {
+    Map<String, Integer> depths = new TreeMap<>();
+    mailboxDepths.forEach((path, depth) -> depths.put(path, depth.get()));
+
+    List<LatencySummary> summaries = new ArrayList<>();
+    latencies.forEach((actorClass, byMessage) -> byMessage.forEach((messageClass, histogram) ->
+        summaries.add(histogram.summary(
+            actorClass.getSimpleName() + "/" + messageClass.getName()))));
+
+    return new MetricsSnapshot(
+        registrations.sum(),
+        terminations.sum(),
+        queriesCompleted.sum(),
+        queriesTimedOut.sum(),
+        deviceTimeouts.sum(),
+        devicesNotAvailable.sum(),
+        passivations.sum(),
+        rehydrations.sum(),
+        queriesCoalesced.sum(),
+        readingsDropped.sum(),
+        journalEventsDropped.sum(),
+        depths,
+        summaries);
+  }
+
+  @Override
+  public long getRegistrations() {
+    return registrations.sum();
+  }
+
+  @Override
+  public long getTerminations() {
+    return terminations.sum();
+  }
+
+  @Override
+  public long getQueriesCompleted() {
+    return queriesCompleted.sum();
+  }
+
+  @Override
+  public long getQueriesTimedOut() {
+    return queriesTimedOut.sum();
+  }
+
+  @Override
+  public long getDeviceTimeouts() {
+    return deviceTimeouts.sum();
+  }
+
+  @Override
+  public long getDevicesNotAvailable() {
+    return devicesNotAvailable.sum();
+  }
+
+  @Override
+  public long getPassivations() {
+    return passivations.sum();
+  }
+
+  @Override
+  public long getRehydrations() {
+    return rehydrations.sum();
+  }
+
+  @Override
+  public long getQueriesCoalesced() {
+    return queriesCoalesced.sum();
+  }
+
+  @Override
+  public long getReadingsDropped() {
+    return readingsDropped.sum();
+  }
+
+  @Override
+  public long getJournalEventsDropped() {
+    return journalEventsDropped.sum();
+  }
+
+  void report() {
+    MetricsSnapshot snapshot = getSnapshot();
+    for (MetricsReporter reporter : reporters) {
+      reporter.report(snapshot);
+    }
+  }
+
+  public static final class Id
+      extends AbstractExtensionId<DomoticMetrics> implements ExtensionIdProvider {
+
+    @Override
+    public Id lookup() {
+      return ID;
+    }
+
+    @Override
+    public DomoticMetrics createExtension(ExtendedActorSystem system) {
+      Config config = system.settings().config().getConfig("akkadomotic.metrics");
+      DomoticMetrics metrics = new DomoticMetrics(config.getBoolean("enabled"));
+      if (!metrics.enabled) {
+        return metrics;
+      }
+
+      if (config.getBoolean("jmx")) {
+        registerMBean(system, metrics);
+      }
+
+      for (String reporter : config.getStringList("reporters")) {
+        try {
+          metrics.addReporter((MetricsReporter) Class.forName(reporter)
+              .getConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalArgumentException("Cannot create metrics reporter " + reporter, e);
+        }
+      }
+
+      Duration interval = config.getDuration("report-interval");
+      system.scheduler().schedule(
+          scala.concurrent.duration.Duration.fromNanos(interval.toNanos()),
+          scala.concurrent.duration.Duration.fromNanos(interval.toNanos()),
+          metrics::report,
+          system.dispatcher());
+      return metrics;
+    }
+
+    private static void registerMBean(ExtendedActorSystem system, DomoticMetrics metrics) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        String base = "com.ecacho.akkadomotic:type=Metrics,system=" + ObjectName.quote(system.name());
+        ObjectName name = new ObjectName(base);
+        // several systems may share a name inside one JVM, tests do
+        for (int instance = 2; server.isRegistered(name); instance++) {
+          name = new ObjectName(base + ",instance=" + instance);
+        }
+        server.registerMBean(metrics, name);
+
+        ObjectName registered = name;
+        system.registerOnTermination(() -> {
+          try {
+            server.unregisterMBean(registered);
+          } catch (Exception e) {
+            system.log().warning("Cannot unregister metrics MBean {}: {}", registered, e);
+          }
+        });
+      } catch (InstanceAlreadyExistsException e) {
+        system.log().warning("Metrics MBean for system {} is already registered", system.name());
+      } catch (Exception e) {
+        system.log().warning("Cannot register metrics MBean: {}", e);
+      }
+    }
+  }
+}
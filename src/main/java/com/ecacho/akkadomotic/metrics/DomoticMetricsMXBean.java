@@ -0,0 +1,28 @@
+package com.ecacho.akkadomotic.metrics;
+
+public interface DomoticMetricsMXBean {
+
+  MetricsSnapshot getSnapshot();
+
+  long getRegistrations();
+
+  long getTerminations();
+
+  long getQueriesCompleted();
+
+  long getQueriesTimedOut();
+
+  long getDeviceTimeouts();
+
+  long getDevicesNotAvailable();
+
+  long getPassivations();
+
+  long getRehydrations();
+
+  long getQueriesCoalesced();
+
+  long getReadingsDropped();
+
+  long getJournalEventsDropped();
+}
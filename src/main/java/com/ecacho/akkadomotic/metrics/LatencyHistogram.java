@@ -0,0 +1,88 @@
+package com.ecacho.akkadomotic.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// HDR-style histogram of nanosecond latencies: values below 32 get their own bucket,
+// above that every power of two is split into 16 linear sub-buckets, so any recorded
+// value is reported within ~6% of its real value. Recording is a couple of bit
+// operations and one LongAdder increment, safe from any number of threads.
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  final LongAdder[] counts = new LongAdder[BUCKETS];
+  final LongAdder total = new LongAdder();
+  final LongAdder sum = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts[bucketOf(value)].increment();
+    total.increment();
+    sum.add(value);
+  }
+
+  public long count() {
+    return total.sum();
+  }
+
+  // approximate value below which the given fraction of the recorded values fall
+  public long percentile(double fraction) {
+    long[] snapshot = new long[BUCKETS];
+    long recorded = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts[i].sum();
+      recorded += snapshot[i];
+    }
+    if (recorded == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(fraction * recorded));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBoundOf(i);
+      }
+    }
+    return upperBoundOf(BUCKETS - 1);
+  }
+
+  public LatencySummary summary(String name) {
+    long count = count();
+    return new LatencySummary(
+        name,
+        count,
+        count == 0 ? 0 : sum.sum() / count,
+        percentile(0.5),
+        percentile(0.9),
+        percentile(0.99),
+        percentile(0.999),
+        percentile(1.0));
+  }
+
+  static int bucketOf(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,19 @@
+package com.ecacho.akkadomotic.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@AllArgsConstructor
+@Getter
+@ToString
+public final class LatencySummary {
+  final String name;
+  final long count;
+  final long meanNanos;
+  final long p50Nanos;
+  final long p90Nanos;
+  final long p99Nanos;
+  final long p999Nanos;
+  final long maxNanos;
+}
@@ -0,0 +1,29 @@
+package com.ecacho.akkadomotic.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LoggingMetricsReporter implements MetricsReporter {
+
+  private static final Logger log = LoggerFactory.getLogger(LoggingMetricsReporter.class);
+
+  @Override
+  public void report(MetricsSnapshot snapshot) {
+    log.info("registrations={} terminations={} queries={} timedOutQueries={} "
+            + "deviceTimeouts={} devicesNotAvailable={} passivations={} rehydrations={} "
+            + "coalescedQueries={} droppedReadings={} droppedJournalEvents={}",
+        snapshot.registrations, snapshot.terminations, snapshot.queriesCompleted,
+        snapshot.queriesTimedOut, snapshot.deviceTimeouts, snapshot.devicesNotAvailable,
+        snapshot.passivations, snapshot.rehydrations, snapshot.queriesCoalesced,
+        snapshot.readingsDropped, snapshot.journalEventsDropped);
+    snapshot.mailboxDepths.forEach((path, depth) -> {
+      if (depth > 0) {
+        log.info("mailbox {} depth={}", path, depth);
+      }
+    });
+    for (LatencySummary latency : snapshot.messageLatencies) {
+      log.info("{} count={} p50={}us p99={}us max={}us", latency.name, latency.count,
+          latency.p50Nanos / 1000, latency.p99Nanos / 1000, latency.maxNanos / 1000);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.ecacho.akkadomotic.metrics;
+
+import akka.actor.AbstractLoggingActor;
+import java.util.Map;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+// Base class of the device actors: records how long every message takes to process in a
+// histogram per actor class and message class.
+public abstract class MeteredActor extends AbstractLoggingActor {
+
+  protected final DomoticMetrics metrics = DomoticMetrics.get(getContext().getSystem());
+  private final Map<Class<?>, LatencyHistogram> latencies =
+      metrics.enabled() ? metrics.messageLatencies(getClass()) : null;
+
+  @Override
+  public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg) {
+    if (latencies == null) {
+      super.aroundReceive(receive, msg);
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      super.aroundReceive(receive, msg);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      LatencyHistogram histogram = latencies.get(msg.getClass());
+      if (histogram == null) {
+        histogram = latencies.computeIfAbsent(msg.getClass(), c -> new LatencyHistogram());
+      }
+      histogram.record(elapsed);
+    }
+  }
+}
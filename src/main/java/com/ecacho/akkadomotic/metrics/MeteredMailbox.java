@@ -0,0 +1,80 @@
+package com.ecacho.akkadomotic.metrics;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import scala.Option;
+
+// Unbounded mailbox that publishes its depth as a DomoticMetrics gauge named after the
+// owner's path. Meant for managers and groups: one gauge per device would not scale.
+public class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.MeteredQueue> {
+
+  public MeteredMailbox(ActorSystem.Settings settings, Config config) {
+  }
+
+  @Override
+  public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+    if (owner.isEmpty() || system.isEmpty() || !DomoticMetrics.get(system.get()).enabled()) {
+      return new MeteredQueue(null, null, new AtomicInteger());
+    }
+    DomoticMetrics metrics = DomoticMetrics.get(system.get());
+    String path = owner.get().path().toStringWithoutAddress();
+    return new MeteredQueue(metrics, path, metrics.mailboxDepth(path));
+  }
+
+  public static class MeteredQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+    final Queue<Envelope> queue = new ConcurrentLinkedQueue<>();
+    final DomoticMetrics metrics;
+    final String path;
+    final AtomicInteger depth;
+
+    MeteredQueue(DomoticMetrics metrics, String path, AtomicInteger depth) {
+      this.metrics = metrics;
+      this.path = path;
+      this.depth = depth;
+    }
+
+    @Override
+    public void enqueue(ActorRef receiver, Envelope handle) {
+      queue.offer(handle);
+      depth.incrementAndGet();
+    }
+
+    @Override
+    public Envelope dequeue() {
+      Envelope envelope = queue.poll();
+      if (envelope != null) {
+        depth.decrementAndGet();
+      }
+      return envelope;
+    }
+
+    @Override
+    public int numberOfMessages() {
+      return depth.get();
+    }
+
+    @Override
+    public boolean hasMessages() {
+      return !queue.isEmpty();
+    }
+
+    @Override
+    public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+      for (Envelope envelope = dequeue(); envelope != null; envelope = dequeue()) {
+        deadLetters.enqueue(owner, envelope);
+      }
+      if (metrics != null) {
+        metrics.removeMailboxDepth(path);
+      }
+    }
+  }
+}
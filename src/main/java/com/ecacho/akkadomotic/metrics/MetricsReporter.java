@@ -0,0 +1,8 @@
+package com.ecacho.akkadomotic.metrics;
+
+// Receives a snapshot every akkadomotic.metrics.report-interval. Implementations listed in
+// akkadomotic.metrics.reporters need a public no-argument constructor.
+public interface MetricsReporter {
+
+  void report(MetricsSnapshot snapshot);
+}
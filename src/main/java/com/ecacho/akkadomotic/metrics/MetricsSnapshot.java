@@ -0,0 +1,26 @@
+package com.ecacho.akkadomotic.metrics;
+
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@AllArgsConstructor
+@Getter
+@ToString
+public final class MetricsSnapshot {
+  final long registrations;
+  final long terminations;
+  final long queriesCompleted;
+  final long queriesTimedOut;
+  final long deviceTimeouts;
+  final long devicesNotAvailable;
+  final long passivations;
+  final long rehydrations;
+  final long queriesCoalesced;
+  final long readingsDropped;
+  final long journalEventsDropped;
+  final Map<String, Integer> mailboxDepths;
+  final List<LatencySummary> messageLatencies;
+}
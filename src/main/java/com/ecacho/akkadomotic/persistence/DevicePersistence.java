@@ -0,0 +1,79 @@
+package com.ecacho.akkadomotic.persistence;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import com.ecacho.akkadomotic.metrics.DomoticMetrics;
+import com.typesafe.config.Config;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Per actor system access to the device journal, configured under akkadomotic.persistence.
+// When enabled, the state left by the previous run is recovered once at startup and
+// handed to the first DeviceManager that asks for it.
+public final class DevicePersistence implements Extension {
+
+  public static final Id ID = new Id();
+
+  final Journal journal;
+  FleetState recoveredState;
+
+  DevicePersistence(Journal journal, FleetState recoveredState) {
+    this.journal = journal;
+    this.recoveredState = recoveredState;
+  }
+
+  public static DevicePersistence get(ActorSystem system) {
+    return ID.get(system);
+  }
+
+  // null when persistence is disabled
+  public Journal journal() {
+    return journal;
+  }
+
+  public synchronized FleetState takeRecoveredState() {
+    FleetState state = recoveredState;
+    recoveredState = null;
+    return state;
+  }
+
+  public static final class Id
+      extends AbstractExtensionId<DevicePersistence> implements ExtensionIdProvider {
+
+    @Override
+    public Id lookup() {
+      return ID;
+    }
+
+    @Override
+    public DevicePersistence createExtension(ExtendedActorSystem system) {
+      Config config = system.settings().config().getConfig("akkadomotic.persistence");
+      if (!config.getBoolean("enabled")) {
+        return new DevicePersistence(null, null);
+      }
+
+      Path directory = Paths.get(config.getString("directory"));
+      try {
+        FleetState recovered = Journal.recover(directory);
+        Journal journal = Journal.open(
+            directory,
+            (int) Math.min(config.getBytes("segment-size"), Integer.MAX_VALUE),
+            config.getInt("max-pending"),
+            DomoticMetrics.get(system).journalEventsDropped,
+            config.getDuration("flush-interval"),
+            config.getDuration("snapshot-interval"));
+        system.registerOnTermination(journal::close);
+        system.log().info("Recovered {} devices in {} groups from {}",
+            recovered.deviceCount(), recovered.groups().size(), directory);
+        return new DevicePersistence(journal, recovered);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot open device journal in " + directory, e);
+      }
+    }
+  }
+}
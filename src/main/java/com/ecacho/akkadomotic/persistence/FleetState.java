@@ -0,0 +1,31 @@
+package com.ecacho.akkadomotic.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Registry and latest readings folded from snapshots and journal events.
+// A device without a reading maps to null.
+public final class FleetState {
+
+  final Map<String, Map<String, Double>> groups = new HashMap<>();
+
+  void track(String groupId, String deviceId) {
+    groups.computeIfAbsent(groupId, id -> new HashMap<>()).putIfAbsent(deviceId, null);
+  }
+
+  void record(String groupId, String deviceId, double value) {
+    groups.computeIfAbsent(groupId, id -> new HashMap<>()).put(deviceId, value);
+  }
+
+  public Map<String, Map<String, Double>> groups() {
+    return groups;
+  }
+
+  public int deviceCount() {
+    int count = 0;
+    for (Map<String, Double> devices : groups.values()) {
+      count += devices.size();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,432 @@
+package com.ecacho.akkadomotic.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Segmented append-only log of device events written through memory-mapped files.
+//
+// Appenders only put the event on a lock-free queue; a single writer thread copies the
+// queued events into the mapped segment and swaps in the next segment, which the
+// background threads map ahead of time. The background threads also force the segments to
+// disk every flush interval and periodically fold sealed segments into a snapshot, so no
+// appender ever waits on the disk or on another appender. The queue holds at most
+// maxPending events; while the writer is that far behind, new events are dropped and
+// counted rather than piling up on the heap. Each entry is
+// [int length][byte type][key groupId][key deviceId][double value, records only] and a
+// zero length marks the end of the written part of a segment.
+public final class Journal implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(Journal.class);
+
+  static final String SUFFIX = ".journal";
+  static final byte TRACK = 1;
+  static final byte RECORD = 2;
+
+  final Path directory;
+  final int segmentSize;
+  // two threads, so the next segment is mapped while a snapshot waits on the writer
+  final ScheduledExecutorService background;
+  final ExecutorService writer;
+  final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+  // entries offered and not yet polled, kept apart as the queue's size() walks the nodes
+  final AtomicInteger pendingCount = new AtomicInteger();
+  final int maxPending;
+  // appends refused because pending was full
+  final LongAdder dropped;
+  // set by the first drop of an overload, cleared once the writer has caught up
+  final AtomicBoolean overloaded = new AtomicBoolean();
+  // set while a drain of pending is scheduled or running on the writer
+  final AtomicBoolean draining = new AtomicBoolean();
+  // sealed by the writer, forced by the next flush
+  final Queue<MappedByteBuffer> sealed = new ConcurrentLinkedQueue<>();
+
+  // written by the writer thread only
+  volatile long segmentSequence;
+  volatile MappedByteBuffer segment;
+  CompletableFuture<MappedByteBuffer> nextSegment;
+  boolean rollFailing;
+
+  // owned by the background thread running the snapshots
+  FleetState compacted;
+  long compactedUpTo = -1;
+
+  private Journal(
+      Path directory,
+      int segmentSize,
+      int maxPending,
+      LongAdder dropped,
+      long segmentSequence) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxPending = maxPending;
+    this.dropped = dropped;
+    this.segmentSequence = segmentSequence;
+    this.segment = map(segmentSequence);
+    this.background = Executors.newScheduledThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "device-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.writer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "device-journal-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    prepareNextSegment();
+  }
+
+  // always starts a fresh segment, the tail of the previous run is never appended to;
+  // dropped counts the events refused while maxPending of them wait for the writer
+  public static Journal open(
+      Path directory,
+      int segmentSize,
+      int maxPending,
+      LongAdder dropped,
+      Duration flushInterval,
+      Duration snapshotInterval) throws IOException {
+    if (maxPending <= 0) {
+      throw new IllegalArgumentException("max-pending must be positive, was " + maxPending);
+    }
+    Files.createDirectories(directory);
+    Snapshots.deleteTemporaryFiles(directory);
+
+    long last = -1;
+    for (Long sequence : sequences(directory, SUFFIX)) {
+      last = Math.max(last, sequence);
+    }
+    for (Long sequence : Snapshots.list(directory)) {
+      last = Math.max(last, sequence);
+    }
+
+    Journal journal = new Journal(directory, segmentSize, maxPending, dropped, last + 1);
+    journal.background.scheduleWithFixedDelay(journal::flush,
+        flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    journal.background.scheduleWithFixedDelay(journal::snapshot,
+        snapshotInterval.toMillis(), snapshotInterval.toMillis(), TimeUnit.MILLISECONDS);
+    return journal;
+  }
+
+  // latest snapshot plus every journal segment written after it
+  public static FleetState recover(Path directory) throws IOException {
+    return recover(directory, Long.MAX_VALUE);
+  }
+
+  private static FleetState recover(Path directory, long upTo) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return new FleetState();
+    }
+
+    List<Long> snapshots = Snapshots.list(directory);
+    FleetState state = new FleetState();
+    long coveredUpTo = -1;
+    if (!snapshots.isEmpty()) {
+      coveredUpTo = snapshots.get(snapshots.size() - 1);
+      state = Snapshots.read(Snapshots.path(directory, coveredUpTo));
+    }
+
+    for (Long sequence : sequences(directory, SUFFIX)) {
+      if (sequence > coveredUpTo && sequence <= upTo) {
+        replay(segmentPath(directory, sequence), state);
+      }
+    }
+    return state;
+  }
+
+  public static byte[] key(String id) {
+    byte[] key = id.getBytes(StandardCharsets.UTF_8);
+    if (key.length > 0xFFFF) {
+      throw new IllegalArgumentException("Id is too long to journal: " + id);
+    }
+    return key;
+  }
+
+  public void appendTrack(byte[] groupId, byte[] deviceId) {
+    append(new Entry(TRACK, groupId, deviceId, 0d));
+  }
+
+  public void appendRecord(byte[] groupId, byte[] deviceId, double value) {
+    append(new Entry(RECORD, groupId, deviceId, value));
+  }
+
+  @Override
+  public void close() {
+    // the writer first, it may still need the background to map a segment
+    awaitShutdown(writer);
+    awaitShutdown(background);
+    flush();
+  }
+
+  private static void awaitShutdown(ExecutorService executor) {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void append(Entry entry) {
+    // keep room for the zero length that terminates the segment
+    if (4 + entry.length() + 4 > segmentSize) {
+      throw new IllegalArgumentException(
+          "Journal entry of " + entry.length() + " bytes exceeds the segment size");
+    }
+    if (pendingCount.incrementAndGet() > maxPending) {
+      pendingCount.decrementAndGet();
+      dropped.increment();
+      if (overloaded.compareAndSet(false, true)) {
+        log.warn("Journal writer in {} is {} events behind, dropping events until it catches up",
+            directory, maxPending);
+      }
+      return;
+    }
+    pending.offer(entry);
+    if (draining.compareAndSet(false, true)) {
+      try {
+        writer.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        // closed, the entry is lost like any entry appended after shutdown
+        draining.set(false);
+      }
+    }
+  }
+
+  // on the writer thread
+  private void drain() {
+    do {
+      writePending();
+      draining.set(false);
+      // an entry offered after the last poll saw the flag still set and left it to us
+    } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+  }
+
+  private void writePending() {
+    for (Entry entry = pending.poll(); entry != null; entry = pending.poll()) {
+      pendingCount.decrementAndGet();
+      write(entry);
+    }
+    if (overloaded.get() && overloaded.compareAndSet(true, false)) {
+      log.info("Journal writer in {} caught up, journaling again", directory);
+    }
+  }
+
+  private void write(Entry entry) {
+    int length = entry.length();
+    if (segment.remaining() < 4 + length + 4 && !roll()) {
+      return;
+    }
+    int start = segment.position();
+    segment.position(start + 4);
+    segment.put(entry.type);
+    putKey(entry.groupId);
+    putKey(entry.deviceId);
+    if (entry.type == RECORD) {
+      segment.putDouble(entry.value);
+    }
+    // the length last, so a torn entry reads as the end of the segment
+    segment.putInt(start, length);
+  }
+
+  private void putKey(byte[] key) {
+    segment.putShort((short) key.length);
+    segment.put(key);
+  }
+
+  // swaps in the segment mapped ahead; false, dropping the entry being written, if it could
+  // not be mapped, in which case the full segment stays current and the mapping is retried
+  private boolean roll() {
+    MappedByteBuffer next;
+    try {
+      next = nextSegment.join();
+    } catch (CompletionException e) {
+      if (!rollFailing) {
+        log.error("Cannot map journal segment {} in {}, dropping events until it can be",
+            segmentSequence + 1, directory, e.getCause());
+        rollFailing = true;
+      }
+      prepareNextSegment();
+      return false;
+    }
+    if (rollFailing) {
+      log.info("Journal segment {} in {} mapped, journaling again",
+          segmentSequence + 1, directory);
+      rollFailing = false;
+    }
+    sealed.add(segment);
+    segment = next;
+    segmentSequence++;
+    prepareNextSegment();
+    return true;
+  }
+
+  private void prepareNextSegment() {
+    long sequence = segmentSequence + 1;
+    nextSegment = CompletableFuture.supplyAsync(() -> {
+      try {
+        return map(sequence);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, background);
+  }
+
+  void flush() {
+    for (MappedByteBuffer buffer = sealed.poll(); buffer != null; buffer = sealed.poll()) {
+      buffer.force();
+    }
+    segment.force();
+  }
+
+  // folds every sealed segment into a new snapshot and deletes what it replaces
+  void snapshot() {
+    long sealedUpTo;
+    try {
+      // on the writer, after the entries appended so far
+      sealedUpTo = writer.submit(() -> {
+        writePending();
+        if (segment.position() > 0) {
+          roll();
+        }
+        return segmentSequence - 1;
+      }).get();
+    } catch (ExecutionException | RejectedExecutionException e) {
+      log.warn("Cannot seal the current journal segment in {}", directory, e);
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    flush();
+    if (compacted != null && sealedUpTo == compactedUpTo) {
+      return;
+    }
+
+    try {
+      if (compacted == null) {
+        compacted = recover(directory, sealedUpTo);
+        compactedUpTo = sealedUpTo;
+      } else {
+        for (Long sequence : sequences(directory, SUFFIX)) {
+          if (sequence > compactedUpTo && sequence <= sealedUpTo) {
+            replay(segmentPath(directory, sequence), compacted);
+          }
+        }
+        compactedUpTo = sealedUpTo;
+      }
+      if (compactedUpTo < 0) {
+        return;
+      }
+
+      Snapshots.write(directory, compactedUpTo, compacted);
+      Snapshots.deleteOlderThan(directory, compactedUpTo);
+      for (Long sequence : sequences(directory, SUFFIX)) {
+        if (sequence <= compactedUpTo) {
+          Files.deleteIfExists(segmentPath(directory, sequence));
+        }
+      }
+    } catch (IOException e) {
+      // the segments stay on disk, so the next round simply retries
+      log.warn("Snapshot of the device journal in {} failed, retrying next round", directory, e);
+      compacted = null;
+    }
+  }
+
+  // CREATE rather than CREATE_NEW, a failed attempt may have left the file behind
+  private MappedByteBuffer map(long sequence) throws IOException {
+    try (FileChannel channel = FileChannel.open(segmentPath(directory, sequence),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+  }
+
+  static void replay(Path segmentFile, FleetState state) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    int position = 0;
+    while (position + 4 <= buffer.limit()) {
+      int length = buffer.getInt(position);
+      // a zero length is the end of the segment, anything out of bounds a torn write
+      if (length <= 0 || position + 4 + length > buffer.limit()) {
+        break;
+      }
+      buffer.position(position + 4);
+      byte type = buffer.get();
+      String groupId = getKey(buffer);
+      String deviceId = getKey(buffer);
+      if (type == TRACK) {
+        state.track(groupId, deviceId);
+      } else if (type == RECORD) {
+        state.record(groupId, deviceId, buffer.getDouble());
+      }
+      position += 4 + length;
+    }
+  }
+
+  private static String getKey(MappedByteBuffer buffer) {
+    byte[] key = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(key);
+    return new String(key, StandardCharsets.UTF_8);
+  }
+
+  static Path segmentPath(Path directory, long sequence) {
+    return directory.resolve(String.format("%020d%s", sequence, SUFFIX));
+  }
+
+  private static final class Entry {
+    final byte type;
+    final byte[] groupId;
+    final byte[] deviceId;
+    // records only
+    final double value;
+
+    Entry(byte type, byte[] groupId, byte[] deviceId, double value) {
+      this.type = type;
+      this.groupId = groupId;
+      this.deviceId = deviceId;
+      this.value = value;
+    }
+
+    int length() {
+      return 1 + 2 + groupId.length + 2 + deviceId.length + (type == RECORD ? 8 : 0);
+    }
+  }
+
+  static List<Long> sequences(Path directory, String suffix) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .map(file -> file.getFileName().toString())
+          .filter(name -> name.endsWith(suffix))
+          .map(name -> Long.parseLong(name.substring(0, name.length() - suffix.length())))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.ecacho.akkadomotic.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Snapshot files hold the whole FleetState folded up to and including one journal
+// segment, named after that segment so recovery knows where the tail starts.
+final class Snapshots {
+
+  static final String SUFFIX = ".snapshot";
+  private static final int MAGIC = 0x444f4d53;
+  private static final int VERSION = 1;
+
+  private Snapshots() {
+  }
+
+  static Path path(Path directory, long segmentSequence) {
+    return directory.resolve(String.format("%020d%s", segmentSequence, SUFFIX));
+  }
+
+  // sequences of the existing snapshots, oldest first
+  static List<Long> list(Path directory) throws IOException {
+    return Journal.sequences(directory, SUFFIX);
+  }
+
+  // durable once it returns: the file is forced before the rename and the rename before
+  // returning, so the segments the snapshot covers can be deleted afterwards
+  static void write(Path directory, long segmentSequence, FleetState state) throws IOException {
+    Path target = path(directory, segmentSequence);
+    Path temporary = directory.resolve(target.getFileName() + ".tmp");
+
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(segmentSequence);
+      out.writeInt(state.groups.size());
+      for (Map.Entry<String, Map<String, Double>> group : state.groups.entrySet()) {
+        out.writeUTF(group.getKey());
+        out.writeInt(group.getValue().size());
+        for (Map.Entry<String, Double> device : group.getValue().entrySet()) {
+          out.writeUTF(device.getKey());
+          Double value = device.getValue();
+          out.writeBoolean(value != null);
+          out.writeDouble(value != null ? value : 0d);
+        }
+      }
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(temporary, target,
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory(directory);
+  }
+
+  // makes the rename durable; directories cannot be opened on some platforms, e.g. Windows,
+  // which persist the rename with the file system's own metadata journal
+  private static void syncDirectory(Path directory) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  static FleetState read(Path file) throws IOException {
+    FleetState state = new FleetState();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a device snapshot: " + file);
+      }
+      in.readLong();
+      int groups = in.readInt();
+      for (int g = 0; g < groups; g++) {
+        String groupId = in.readUTF();
+        int devices = in.readInt();
+        Map<String, Double> lastTemperatures = new HashMap<>((int) (devices / 0.75f) + 1);
+        for (int d = 0; d < devices; d++) {
+          String deviceId = in.readUTF();
+          boolean hasValue = in.readBoolean();
+          double value = in.readDouble();
+          lastTemperatures.put(deviceId, hasValue ? value : null);
+        }
+        state.groups.put(groupId, lastTemperatures);
+      }
+    }
+    return state;
+  }
+
+  // drops every snapshot older than the given one
+  static void deleteOlderThan(Path directory, long segmentSequence) throws IOException {
+    for (Long sequence : list(directory)) {
+      if (sequence < segmentSequence) {
+        Files.deleteIfExists(path(directory, sequence));
+      }
+    }
+  }
+
+  static void deleteTemporaryFiles(Path directory) throws IOException {
+    List<Path> leftovers;
+    try (Stream<Path> files = Files.list(directory)) {
+      leftovers = files
+          .filter(file -> file.getFileName().toString().endsWith(SUFFIX + ".tmp"))
+          .collect(Collectors.toCollection(ArrayList::new));
+    }
+    for (Path leftover : leftovers) {
+      Files.deleteIfExists(leftover);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ActorRegistryTest {
+
+  static ActorSystem actorSystem;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create();
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(actorSystem);
+  }
+
+  @Test
+  public void testLookupInBothDirections() {
+    ActorRegistry registry = new ActorRegistry();
+    ActorRef actor1 = actorSystem.actorOf(Props.empty());
+
+    int slot1 = registry.add("device1");
+    int slot2 = registry.add("device2");
+    assertEquals(-1, registry.add("device1"));
+    assertNull(registry.actorOf("device1"));
+    assertEquals(-1, registry.slotOf(actor1));
+
+    registry.setActor(slot1, actor1);
+    assertEquals(actor1, registry.actorOf("device1"));
+    assertEquals(slot1, registry.slotOf(actor1));
+    assertEquals(slot2, registry.slotOf("device2"));
+    assertEquals(2, registry.size());
+    assertEquals(1, registry.liveCount());
+
+    // passivated: the id keeps its slot
+    assertEquals(actor1, registry.clearActor(slot1));
+    assertEquals(slot1, registry.slotOf("device1"));
+    assertEquals(-1, registry.slotOf(actor1));
+    assertEquals(0, registry.liveCount());
+    assertEquals(Stream.of("device1", "device2").collect(Collectors.toSet()), registry.ids());
+  }
+
+  @Test
+  public void testReuseSlotsOfRemovedIds() {
+    ActorRegistry registry = new ActorRegistry();
+    ActorRef actor = actorSystem.actorOf(Props.empty());
+    int slot = registry.add("device1");
+    registry.setActor(slot, actor);
+    registry.add("device2");
+
+    registry.remove(slot);
+    assertEquals(-1, registry.slotOf("device1"));
+    assertEquals(-1, registry.slotOf(actor));
+    assertEquals(1, registry.size());
+
+    assertEquals(slot, registry.add("device3"));
+    assertEquals(2, registry.slotLimit());
+  }
+
+  @Test
+  public void testSortIdsAgainAfterChanges() {
+    ActorRegistry registry = new ActorRegistry();
+    registry.add("device2");
+    registry.add("device1");
+    String[] sorted = registry.sortedIds();
+    assertArrayEquals(new String[] {"device1", "device2"}, sorted);
+    assertSame(sorted, registry.sortedIds());
+
+    registry.remove(registry.slotOf("device2"));
+    registry.add("device0");
+    assertArrayEquals(new String[] {"device0", "device1"}, registry.sortedIds());
+    // handed out before, left as it was
+    assertArrayEquals(new String[] {"device1", "device2"}, sorted);
+  }
+
+  @Test
+  public void testMatchHashMapUnderRandomAddsAndRemoves() {
+    ActorRegistry registry = new ActorRegistry();
+    Map<String, Integer> expected = new HashMap<>();
+    Random random = new Random(42);
+
+    for (int i = 0; i < 100_000; i++) {
+      String id = "device" + random.nextInt(2_000);
+      int slot = registry.slotOf(id);
+      assertEquals(expected.containsKey(id), slot >= 0);
+      if (slot >= 0) {
+        assertEquals(expected.get(id).intValue(), slot);
+        registry.remove(slot);
+        expected.remove(id);
+      } else {
+        expected.put(id, registry.add(id));
+      }
+    }
+    assertEquals(expected.size(), registry.size());
+    assertEquals(expected.keySet(), registry.ids());
+    expected.forEach((id, slot) -> assertEquals(slot.intValue(), registry.slotOf(id)));
+  }
+
+  @Test
+  public void testFootprintPerRegisteredDevice() {
+    int devices = 20_000;
+    ActorRegistry registry = new ActorRegistry();
+    registry.ensureCapacity(devices);
+    for (int i = 0; i < devices; i++) {
+      registry.add("device" + i);
+    }
+    long passivated = registry.footprint() / devices;
+
+    for (int slot = 0; slot < devices; slot++) {
+      registry.setActor(slot, actorSystem.actorOf(Props.empty()));
+    }
+    long live = registry.footprint() / devices;
+    for (int slot = 0; slot < devices; slot++) {
+      assertEquals(slot, registry.slotOf(registry.actor(slot)));
+    }
+
+    // two HashMap entries, as before, are about 80 bytes per device
+    assertTrue("passivated device takes " + passivated + " bytes", passivated <= 24);
+    assertTrue("live device takes " + live + " bytes", live <= 40);
+  }
+}
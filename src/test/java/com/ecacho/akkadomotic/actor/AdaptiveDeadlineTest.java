@@ -0,0 +1,69 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveDeadlineTest {
+
+  static Config group(String overrides) {
+    return ConfigFactory.parseString(overrides)
+        .withFallback(ConfigFactory.load().getConfig("akkadomotic.group"));
+  }
+
+  static long[] millis(int count, long value) {
+    long[] latencies = new long[count];
+    Arrays.fill(latencies, TimeUnit.MILLISECONDS.toNanos(value));
+    return latencies;
+  }
+
+  @Test
+  public void testQueryTimeoutUntilEnoughReplies() {
+    AdaptiveDeadline deadline = new AdaptiveDeadline(group("query-timeout = 3s"));
+    deadline.record(millis(10, 20), 10);
+
+    assertEquals(3000, deadline.deadline(false).toMillis());
+  }
+
+  @Test
+  public void testDeadlineFollowsRecentPercentile() {
+    AdaptiveDeadline deadline = new AdaptiveDeadline(group(
+        "deadline-percentile = 0.99, deadline-factor = 4, deadline-min = 50ms"));
+    deadline.record(millis(99, 20), 99);
+    deadline.record(millis(1, 2000), 1);
+
+    // p99 of 100 samples is the 99th, 20ms
+    assertEquals(80, deadline.deadline(false).toMillis());
+    // callers that want every device still get the full timeout
+    assertEquals(3000, deadline.deadline(true).toMillis());
+
+    // slower replies push the deadline out, up to the query timeout
+    deadline.record(millis(1024, 1000), 1024);
+    assertEquals(3000, deadline.deadline(false).toMillis());
+  }
+
+  @Test
+  public void testDeadlineIsNotShorterThanMinimum() {
+    AdaptiveDeadline deadline = new AdaptiveDeadline(group("deadline-min = 50ms"));
+    deadline.record(millis(100, 1), 100);
+
+    assertEquals(50, deadline.deadline(false).toMillis());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectNoSamplesWhenEnabled() {
+    new AdaptiveDeadline(group("deadline-samples = 0"));
+  }
+
+  @Test
+  public void testFixedTimeoutWhenDisabled() {
+    AdaptiveDeadline deadline = new AdaptiveDeadline(group("adaptive-deadline = off"));
+    deadline.record(millis(100, 1), 100);
+
+    assertEquals(3000, deadline.deadline(false).toMillis());
+  }
+}
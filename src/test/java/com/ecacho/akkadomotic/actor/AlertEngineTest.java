@@ -0,0 +1,114 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class AlertEngineTest {
+
+  final List<Object> events = new ArrayList<>();
+  final AlertEngine.Listener listener = (owner, event) -> events.add(event);
+
+  @Test
+  public void testAboveForRaisesAfterDurationAndClearsBelowThreshold() {
+    AlertEngine engine = new AlertEngine();
+    engine.register(AlertRule.above("hot", "device1", 30d, Duration.ofSeconds(10)),
+        ActorRef.noSender());
+
+    engine.evaluate("device1", 31d, 1_000L, listener);
+    engine.evaluate("device1", 32d, 6_000L, listener);
+    assertTrue(events.isEmpty());
+
+    engine.evaluate("device1", 33d, 11_000L, listener);
+    assertEquals(1, events.size());
+    DeviceGroup.AlertRaised raised = (DeviceGroup.AlertRaised) events.get(0);
+    assertEquals("hot", raised.ruleId);
+    assertEquals("device1", raised.deviceId);
+    assertEquals(33d, raised.value, 0d);
+
+    // still firing, nothing new
+    engine.evaluate("device1", 34d, 12_000L, listener);
+    assertEquals(1, events.size());
+
+    engine.evaluate("device1", 29d, 13_000L, listener);
+    assertEquals(2, events.size());
+    assertEquals(29d, ((DeviceGroup.AlertCleared) events.get(1)).value, 0d);
+
+    // the run above threshold starts over
+    engine.evaluate("device1", 31d, 14_000L, listener);
+    assertEquals(2, events.size());
+  }
+
+  @Test
+  public void testDeltaWithinTracksSlidingMinAndMax() {
+    AlertEngine engine = new AlertEngine();
+    engine.register(AlertRule.deltaWithin("jump", null, 5d, Duration.ofSeconds(10)),
+        ActorRef.noSender());
+
+    engine.evaluate("device1", 20d, 0L, listener);
+    engine.evaluate("device1", 24d, 3_000L, listener);
+    assertTrue(events.isEmpty());
+
+    engine.evaluate("device1", 26d, 6_000L, listener);
+    assertTrue(events.get(0) instanceof DeviceGroup.AlertRaised);
+
+    // 20 leaves the window, 24..26 remains
+    engine.evaluate("device1", 25d, 12_000L, listener);
+    assertEquals(2, events.size());
+    assertTrue(events.get(1) instanceof DeviceGroup.AlertCleared);
+
+    // group-wide rules keep a separate window per device
+    engine.evaluate("device2", 10d, 12_000L, listener);
+    assertEquals(2, events.size());
+  }
+
+  @Test
+  public void testReadingsOnlyMeetTheRulesOfTheirDevice() {
+    AlertEngine engine = new AlertEngine();
+    engine.register(AlertRule.above("d1", "device1", 30d, Duration.ZERO), ActorRef.noSender());
+    engine.register(AlertRule.above("d2", "device2", 30d, Duration.ZERO), ActorRef.noSender());
+
+    engine.evaluate("device1", 40d, 0L, listener);
+    assertEquals(1, events.size());
+    assertEquals("d1", ((DeviceGroup.AlertRaised) events.get(0)).ruleId);
+
+    assertTrue(engine.remove("d1"));
+    assertFalse(engine.remove("d1"));
+    engine.evaluate("device1", 20d, 1L, listener);
+    assertEquals(1, events.size());
+  }
+
+  @Test
+  public void testRemoveOnlyTheRulesOfTheirOwner() {
+    ActorSystem system = ActorSystem.create();
+    try {
+      ActorRef owner1 = system.actorOf(Props.empty());
+      ActorRef owner2 = system.actorOf(Props.empty());
+      AlertEngine engine = new AlertEngine();
+      engine.register(AlertRule.above("a", "device1", 30d, Duration.ZERO), owner1);
+      engine.register(AlertRule.above("b", null, 30d, Duration.ZERO), owner1);
+      engine.register(AlertRule.above("c", "device2", 30d, Duration.ZERO), owner2);
+      // registered again by the other owner, it changes hands
+      engine.register(AlertRule.above("b", null, 40d, Duration.ZERO), owner2);
+
+      assertFalse(engine.removeOwner(system.deadLetters()));
+      assertTrue(engine.removeOwner(owner1));
+      assertFalse(engine.hasOwner(owner1));
+      assertTrue(engine.hasOwner(owner2));
+      assertFalse(engine.remove("a"));
+
+      assertTrue(engine.remove("b"));
+      assertTrue(engine.remove("c"));
+      assertFalse(engine.hasOwner(owner2));
+    } finally {
+      TestKit.shutdownActorSystem(system);
+    }
+  }
+}
@@ -2,10 +2,13 @@ package com.ecacho.akkadomotic.actor;
 
 import static org.junit.Assert.*;
 
+import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.PoisonPill;
+import akka.actor.Props;
 import akka.testkit.javadsl.TestKit;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -232,4 +235,342 @@ public class DeviceGroupQueryTest {
 
     assertEquals(1L, response.requestId);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testAggregationScalesLinearlyWithGroupSize() {
+    int smallGroup = 2_000;
+    int largeGroup = smallGroup * 8;
+
+    // warm up so the small run is not dominated by class loading and the JIT
+    timeQuery(largeGroup);
+
+    long smallNanos = timeQuery(smallGroup);
+    long largeNanos = timeQuery(largeGroup);
+
+    // 8x the devices must cost well under 64x the time, the copy-per-reply
+    // aggregation was quadratic and took minutes for the large group
+    long allowed = smallNanos * 8 * 4 + TimeUnit.SECONDS.toNanos(1);
+    assertTrue(
+        "query over " + largeGroup + " devices took " + largeNanos / 1_000_000 + "ms, "
+            + smallGroup + " devices took " + smallNanos / 1_000_000 + "ms",
+        largeNanos < allowed);
+  }
+
+  private long timeQuery(int groupSize) {
+    TestKit requester = new TestKit(actorSystem);
+
+    Map<ActorRef, String> map = new HashMap<>();
+    for (int i = 0; i < groupSize; i++) {
+      map.put(actorSystem.actorOf(Props.create(RespondingDevice.class)), "device" + i);
+    }
+
+    long start = System.nanoTime();
+    actorSystem.actorOf(
+        DeviceGroupQuery.props(
+            map,
+            1L,
+            requester.getRef(),
+            new FiniteDuration(30, TimeUnit.SECONDS)
+        ));
+    DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(
+        Duration.create(30, TimeUnit.SECONDS), DeviceGroup.RespondAllTemperatures.class);
+    long elapsed = System.nanoTime() - start;
+
+    assertEquals(groupSize, response.temperatures.size());
+    for (ActorRef device : map.keySet()) {
+      device.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    }
+    return elapsed;
+  }
+
+  static class RespondingDevice extends AbstractActor {
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+          .match(Device.ReadTemperature.class, r ->
+              getSender().tell(new Device.RespondTemperature(r.requestId, Optional.of(1d)),
+                  getSelf()))
+          .build();
+    }
+  }
+
+  static class SlowDevice extends AbstractActor {
+    final long delayMillis;
+
+    SlowDevice(long delayMillis) {
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+          .match(Device.ReadTemperature.class, r ->
+              getContext().getSystem().scheduler().scheduleOnce(
+                  FiniteDuration.create(delayMillis, TimeUnit.MILLISECONDS),
+                  getSender(),
+                  new Device.RespondTemperature(r.requestId, Optional.of(1d)),
+                  getContext().getDispatcher(),
+                  getSelf()))
+          .build();
+    }
+  }
+
+  @Test
+  public void testAskGroupForReadingOfDeviceStoppedWhileWaiting() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit group = new TestKit(actorSystem);
+    TestKit device1 = new TestKit(actorSystem);
+    TestKit device2 = new TestKit(actorSystem);
+
+    Map<ActorRef, String> map = new HashMap<>();
+    map.put(device1.getRef(), "device1");
+    map.put(device2.getRef(), "device2");
+
+    ActorRef queryActor = actorSystem.actorOf(
+        DeviceGroupQuery.props(
+            map, new HashMap<>(), null, null, 1L, requester.getRef(),
+            new FiniteDuration(3, TimeUnit.SECONDS), 1.0, null, group.getRef()));
+    device1.expectMsgClass(Device.ReadTemperature.class);
+    device2.expectMsgClass(Device.ReadTemperature.class);
+    queryActor.tell(new Device.RespondTemperature(1L, Optional.of(20d)), device1.getRef());
+
+    // passivated before it read our request, the group answers from its record
+    device2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+    DeviceGroup.ReadStoppedDevice read = group.expectMsgClass(DeviceGroup.ReadStoppedDevice.class);
+    assertEquals("device2", read.deviceId);
+    assertEquals(device2.getRef(), read.deviceActor);
+    queryActor.tell(
+        new DeviceGroup.RespondStoppedDevice(read.deviceActor, new DeviceGroup.Temperature(25d)),
+        group.getRef());
+
+    Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+    expectedTemperatures.put("device1", new DeviceGroup.Temperature(20d));
+    expectedTemperatures.put("device2", new DeviceGroup.Temperature(25d));
+    assertEquals(expectedTemperatures,
+        requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures);
+  }
+
+  @Test
+  public void testFoldReadingsIntoSummary() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit device1 = new TestKit(actorSystem);
+    TestKit device2 = new TestKit(actorSystem);
+    TestKit device3 = new TestKit(actorSystem);
+    TestKit device4 = new TestKit(actorSystem);
+
+    Map<ActorRef, String> map = new HashMap<>();
+    map.put(device1.getRef(), "device1");
+    map.put(device2.getRef(), "device2");
+    map.put(device3.getRef(), "device3");
+    map.put(device4.getRef(), "device4");
+    Map<String, DeviceGroup.TemperatureReading> passivated = new HashMap<>();
+    passivated.put("device5", new DeviceGroup.Temperature(30d));
+
+    ActorRef queryActor = actorSystem.actorOf(
+        DeviceGroupQuery.props(
+            map,
+            passivated,
+            new TemperatureSummaryBuilder(
+                new double[] {0.5, 1.0}, new double[] {15d, 25d}, map.size()),
+            1L,
+            requester.getRef(),
+            new FiniteDuration(3, TimeUnit.SECONDS)
+        ));
+
+    device1.expectMsgClass(Device.ReadTemperatureValue.class);
+    device2.expectMsgClass(Device.ReadTemperatureValue.class);
+    device3.expectMsgClass(Device.ReadTemperatureValue.class);
+    device4.expectMsgClass(Device.ReadTemperatureValue.class);
+
+    queryActor.tell(new Device.RespondTemperatureValue(1L, true, 10d), device1.getRef());
+    queryActor.tell(new Device.RespondTemperatureValue(1L, true, 20d), device2.getRef());
+    queryActor.tell(new Device.RespondTemperatureValue(1L, false, 0d), device3.getRef());
+    device4.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+    DeviceGroup.RespondTemperatureSummary summary =
+        requester.expectMsgClass(DeviceGroup.RespondTemperatureSummary.class);
+    assertEquals(1L, summary.requestId);
+    assertEquals(3, summary.count);
+    assertEquals(1, summary.notAvailable);
+    assertEquals(1, summary.devicesNotAvailable);
+    assertEquals(0, summary.timedOut);
+    assertEquals(10d, summary.min, 0d);
+    assertEquals(30d, summary.max, 0d);
+    assertEquals(20d, summary.mean, 0d);
+    assertArrayEquals(new double[] {20d, 30d}, summary.percentiles, 0d);
+    assertArrayEquals(new long[] {1, 1, 1}, summary.histogram);
+  }
+
+  @Test
+  public void testCountUnansweredDevicesAsTimedOutInSummary() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit device1 = new TestKit(actorSystem);
+    TestKit device2 = new TestKit(actorSystem);
+
+    Map<ActorRef, String> map = new HashMap<>();
+    map.put(device1.getRef(), "device1");
+    map.put(device2.getRef(), "device2");
+
+    ActorRef queryActor = actorSystem.actorOf(
+        DeviceGroupQuery.props(
+            map,
+            new HashMap<>(),
+            new TemperatureSummaryBuilder(new double[0], new double[0], map.size()),
+            1L,
+            requester.getRef(),
+            new FiniteDuration(1, TimeUnit.SECONDS)
+        ));
+
+    device1.expectMsgClass(Device.ReadTemperatureValue.class);
+    queryActor.tell(new Device.RespondTemperatureValue(1L, true, 21d), device1.getRef());
+
+    DeviceGroup.RespondTemperatureSummary summary =
+        requester.expectMsgClass(DeviceGroup.RespondTemperatureSummary.class);
+    assertEquals(1, summary.count);
+    assertEquals(1, summary.timedOut);
+    assertEquals(21d, summary.mean, 0d);
+    assertEquals(0, summary.percentiles.length);
+    assertEquals(0, summary.histogram.length);
+  }
+
+  @Test
+  public void testCompleteOnQuorumAndTimeOutStragglers() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit listener = new TestKit(actorSystem);
+    TestKit device1 = new TestKit(actorSystem);
+    TestKit device2 = new TestKit(actorSystem);
+    TestKit device3 = new TestKit(actorSystem);
+
+    Map<ActorRef, String> map = new HashMap<>();
+    map.put(device1.getRef(), "device1");
+    map.put(device2.getRef(), "device2");
+    map.put(device3.getRef(), "device3");
+
+    ActorRef queryActor = actorSystem.actorOf(
+        DeviceGroupQuery.props(
+            map,
+            new HashMap<>(),
+            null,
+            null,
+            1L,
+            requester.getRef(),
+            new FiniteDuration(3, TimeUnit.SECONDS),
+            0.6,
+            listener.getRef()
+        ));
+
+    device1.expectMsgClass(Device.ReadTemperature.class);
+    device2.expectMsgClass(Device.ReadTemperature.class);
+    queryActor.tell(new Device.RespondTemperature(1L, Optional.of(20d)), device1.getRef());
+    requester.expectNoMessage(java.time.Duration.ofMillis(100));
+    queryActor.tell(new Device.RespondTemperature(1L, Optional.of(30d)), device2.getRef());
+
+    // two of three reach the 0.6 quorum, well before the timeout
+    DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(
+        java.time.Duration.ofMillis(500), DeviceGroup.RespondAllTemperatures.class);
+    Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+    expectedTemperatures.put("device1", new DeviceGroup.Temperature(20d));
+    expectedTemperatures.put("device2", new DeviceGroup.Temperature(30d));
+    expectedTemperatures.put("device3", DeviceGroup.DeviceTimeout.INSTANCE);
+    assertEquals(expectedTemperatures, response.temperatures);
+
+    // the straggler is sampled with the time it was waited for
+    DeviceGroupQuery.ReplyLatencies latencies =
+        listener.expectMsgClass(DeviceGroupQuery.ReplyLatencies.class);
+    assertEquals(3, latencies.count);
+  }
+
+  @Test
+  public void testSlowDeviceIsNotTimedOutForever() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit listener = new TestKit(actorSystem);
+    Map<ActorRef, String> map = new HashMap<>();
+    for (int i = 0; i < 3; i++) {
+      map.put(actorSystem.actorOf(Props.create(RespondingDevice.class)), "device" + i);
+    }
+    map.put(actorSystem.actorOf(Props.create(SlowDevice.class, 120L)), "slow");
+
+    // fast replies so far put the deadline at its 50ms minimum, below the slow device
+    AdaptiveDeadline deadline = new AdaptiveDeadline(AdaptiveDeadlineTest.group(
+        "deadline-samples = 8, deadline-percentile = 0.99, deadline-factor = 4, "
+            + "deadline-min = 50ms"));
+    deadline.record(AdaptiveDeadlineTest.millis(8, 1), 8);
+
+    DeviceGroup.TemperatureReading slow = null;
+    for (long round = 0; round < 3; round++) {
+      actorSystem.actorOf(
+          DeviceGroupQuery.props(
+              map, new HashMap<>(), null, null, round, requester.getRef(),
+              deadline.deadline(false), 1.0, listener.getRef()));
+      slow = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class)
+          .temperatures.get("slow");
+      DeviceGroupQuery.ReplyLatencies latencies =
+          listener.expectMsgClass(DeviceGroupQuery.ReplyLatencies.class);
+      deadline.record(latencies.latencies, latencies.count);
+    }
+
+    // timing the slow device out sampled it at the deadline, which then grew past its latency
+    assertEquals(new DeviceGroup.Temperature(1d), slow);
+    for (ActorRef device : map.keySet()) {
+      device.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    }
+  }
+
+  @Test
+  public void testStreamReadingsInChunksThenComplete() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit device1 = new TestKit(actorSystem);
+    TestKit device2 = new TestKit(actorSystem);
+    TestKit device3 = new TestKit(actorSystem);
+
+    Map<ActorRef, String> map = new HashMap<>();
+    map.put(device1.getRef(), "device1");
+    map.put(device2.getRef(), "device2");
+    map.put(device3.getRef(), "device3");
+    Map<String, DeviceGroup.TemperatureReading> passivated = new HashMap<>();
+    passivated.put("device4", new DeviceGroup.Temperature(40d));
+
+    ActorRef queryActor = actorSystem.actorOf(
+        DeviceGroupQuery.props(
+            map,
+            passivated,
+            null,
+            new TemperatureChunker(1L, requester.getRef(), 2),
+            1L,
+            requester.getRef(),
+            new FiniteDuration(1, TimeUnit.SECONDS),
+            1.0,
+            null
+        ));
+
+    device1.expectMsgClass(Device.ReadTemperature.class);
+    queryActor.tell(new Device.RespondTemperature(1L, Optional.of(10d)), device1.getRef());
+
+    // the passivated reading and device1 fill the first chunk
+    DeviceGroup.TemperatureChunk first =
+        requester.expectMsgClass(DeviceGroup.TemperatureChunk.class);
+    assertEquals(0, first.sequenceNr);
+    Map<String, DeviceGroup.TemperatureReading> expected = new HashMap<>();
+    expected.put("device1", new DeviceGroup.Temperature(10d));
+    expected.put("device4", new DeviceGroup.Temperature(40d));
+    assertEquals(expected, first.temperatures);
+
+    // a partial chunk is flushed without waiting for the other devices
+    queryActor.tell(new Device.RespondTemperature(1L, Optional.empty()), device2.getRef());
+    DeviceGroup.TemperatureChunk second =
+        requester.expectMsgClass(DeviceGroup.TemperatureChunk.class);
+    assertEquals(1, second.sequenceNr);
+    assertEquals(
+        Collections.singletonMap(
+            "device2", DeviceGroup.TemperatureNotAvailable.INSTANCE),
+        second.temperatures);
+
+    DeviceGroup.TemperatureChunksCompleted completed =
+        requester.expectMsgClass(DeviceGroup.TemperatureChunksCompleted.class);
+    assertEquals(1L, completed.requestId);
+    assertEquals(2, completed.chunks);
+    assertEquals(3, completed.devicesAnswered);
+    assertTrue(completed.devicesNotAvailable.isEmpty());
+    assertEquals(Collections.singleton("device3"), completed.devicesTimedOut);
+  }
+}
@@ -2,17 +2,34 @@ package com.ecacho.akkadomotic.actor;
 
 import static org.junit.Assert.*;
 
+import akka.actor.AbstractActor;
+import akka.actor.ActorIdentity;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Identify;
 import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.testkit.javadsl.TestKit;
+import com.ecacho.akkadomotic.metrics.DomoticMetrics;
+import com.typesafe.config.ConfigFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
 
 public class DeviceGroupTest {
   static ActorSystem actorSystem;
@@ -206,4 +223,625 @@ public class DeviceGroupTest {
 
     assertEquals(expectedTemperatures, response.temperatures);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testRecordTemperatureBatchForRegisteredDevices() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"),
+        probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor1 = probe.getLastSender();
+
+    groupActor.tell(
+        new DeviceManager.RecordTemperatureBatch(3L, Arrays.asList(
+            new DeviceManager.DeviceReading("group", "device1", 15d),
+            new DeviceManager.DeviceReading("group", "device2", 25d),
+            new DeviceManager.DeviceReading("other", "device1", 35d))),
+        probe.getRef());
+
+    DeviceManager.TemperatureBatchRecorded ack =
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+    assertEquals(3L, ack.requestId);
+    assertEquals(1, ack.accepted);
+    assertEquals(2, ack.rejected);
+
+    // the ack means the group handed the readings on; a read may overtake them at the device
+    probe.awaitAssert(() -> {
+      deviceActor1.tell(new Device.ReadTemperature(4L), probe.getRef());
+      assertEquals(Optional.of(15d), probe.expectMsgClass(Device.RespondTemperature.class).value);
+      return null;
+    });
+  }
+
+  @Test
+  public void testServeStaleTolerantRequestsFromSnapshot() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"),
+        probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor1 = probe.getLastSender();
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"),
+        probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor2 = probe.getLastSender();
+
+    deviceActor1.tell(new Device.RecordTemperature(1L, 10d), probe.getRef());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+    groupActor.tell(
+        new DeviceGroup.RequestAllTemperatures(2L, new FiniteDuration(1, TimeUnit.MINUTES)),
+        probe.getRef());
+    DeviceGroup.RespondAllTemperatures response =
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+    assertEquals(2L, response.requestId);
+    Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+    expectedTemperatures.put("device1", new DeviceGroup.Temperature(10d));
+    expectedTemperatures.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+    assertEquals(expectedTemperatures, response.temperatures);
+
+    //stopped devices drop out of the snapshot
+    probe.watch(deviceActor2);
+    deviceActor2.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    probe.expectTerminated(deviceActor2);
+
+    probe.awaitAssert(
+        () -> {
+          groupActor.tell(
+              new DeviceGroup.RequestAllTemperatures(3L, new FiniteDuration(1, TimeUnit.MINUTES)),
+              probe.getRef());
+          DeviceGroup.RespondAllTemperatures r =
+              probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+          assertEquals(
+              Collections.singletonMap("device1", new DeviceGroup.Temperature(10d)),
+              r.temperatures);
+          return null;
+        });
+  }
+
+  @Test
+  public void testRegisterDevicesInBulk() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device0"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+    List<String> deviceIds = IntStream.range(0, 1000)
+        .mapToObj(i -> "device" + i)
+        .collect(Collectors.toList());
+    deviceIds.add("device1");
+    groupActor.tell(new DeviceManager.RequestTrackDevices(1L, "group", deviceIds),
+        probe.getRef());
+    DeviceManager.DevicesRegistered registered =
+        probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+    assertEquals(1L, registered.requestId);
+    assertEquals(999, registered.registered);
+    assertEquals(2, registered.alreadyRegistered);
+
+    groupActor.tell(new DeviceGroup.RequestDeviceList(2L), probe.getRef());
+    assertEquals(new HashSet<>(deviceIds),
+        probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).list);
+
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+    DeviceGroup.RespondAllTemperatures response =
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+    assertEquals(1000, response.temperatures.size());
+    assertTrue(response.temperatures.values().stream()
+        .allMatch(DeviceGroup.TemperatureNotAvailable.INSTANCE::equals));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevices(4L, "wrongGroup", deviceIds),
+        probe.getRef());
+    probe.expectNoMessage(Duration.ofMillis(100));
+  }
+
+  @Test
+  public void testRegisterDevicesInBulkPassivated() {
+    ActorSystem system = ActorSystem.create("bulkPassivated", ConfigFactory
+        .parseString("akkadomotic.device.passivate-after = 1m")
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(system);
+    ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+    DomoticMetrics metrics = DomoticMetrics.get(system);
+
+    groupActor.tell(new DeviceManager.RequestTrackDevices(
+        1L, "group", Arrays.asList("device1", "device2")), probe.getRef());
+    assertEquals(2, probe.expectMsgClass(DeviceManager.DevicesRegistered.class).registered);
+    assertEquals(2, metrics.getRegistrations());
+
+    // no actor until the first message for the device
+    groupActor.tell(
+        new DeviceManager.DeviceEnvelope("group", "device1", new Device.RecordTemperature(2L, 20d)),
+        probe.getRef());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+    assertEquals(1, metrics.getRehydrations());
+
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+    Map<String, DeviceGroup.TemperatureReading> expected = new HashMap<>();
+    expected.put("device1", new DeviceGroup.Temperature(20d));
+    expected.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+    assertEquals(expected,
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures);
+
+    TestKit.shutdownActorSystem(system);
+  }
+
+  @Test
+  public void testListDevicesInPages() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+    List<String> deviceIds = IntStream.range(0, 25)
+        .mapToObj(i -> String.format("kitchen-%02d", i))
+        .collect(Collectors.toList());
+    deviceIds.add("hall-00");
+    deviceIds.add("porch-00");
+    groupActor.tell(new DeviceManager.RequestTrackDevices(1L, "group", deviceIds),
+        probe.getRef());
+    probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+
+    groupActor.tell(new DeviceGroup.RequestDeviceListPage(2L, "kitchen-", null, 10),
+        probe.getRef());
+    DeviceGroup.ReplyDeviceListPage page =
+        probe.expectMsgClass(DeviceGroup.ReplyDeviceListPage.class);
+    assertEquals(2L, page.requestId);
+    assertEquals(deviceIds.subList(0, 10), page.deviceIds);
+    assertEquals("kitchen-09", page.nextCursor);
+
+    // registered between pages, sorts before the cursor and does not shift the next page
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "kitchen-00a"),
+        probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+    groupActor.tell(new DeviceGroup.RequestDeviceListPage(3L, "kitchen-", page.nextCursor, 10),
+        probe.getRef());
+    page = probe.expectMsgClass(DeviceGroup.ReplyDeviceListPage.class);
+    assertEquals(deviceIds.subList(10, 20), page.deviceIds);
+
+    groupActor.tell(new DeviceGroup.RequestDeviceListPage(4L, "kitchen-", page.nextCursor, 10),
+        probe.getRef());
+    page = probe.expectMsgClass(DeviceGroup.ReplyDeviceListPage.class);
+    assertEquals(deviceIds.subList(20, 25), page.deviceIds);
+    assertNull(page.nextCursor);
+
+    groupActor.tell(new DeviceGroup.RequestDeviceListPage(5L, "", "hall-00", 2),
+        probe.getRef());
+    assertEquals(Arrays.asList("kitchen-00", "kitchen-00a"),
+        probe.expectMsgClass(DeviceGroup.ReplyDeviceListPage.class).deviceIds);
+
+    // an invalid page is answered as an empty last page
+    groupActor.tell(new DeviceGroup.RequestDeviceListPage(6L, "", null, 0), probe.getRef());
+    DeviceGroup.ReplyDeviceListPage rejected =
+        probe.expectMsgClass(DeviceGroup.ReplyDeviceListPage.class);
+    assertEquals(6L, rejected.requestId);
+    assertTrue(rejected.deviceIds.isEmpty());
+    assertNull(rejected.nextCursor);
+    groupActor.tell(new DeviceGroup.RequestDeviceListPage(7L, null, null, 2), probe.getRef());
+    assertTrue(probe.expectMsgClass(DeviceGroup.ReplyDeviceListPage.class).deviceIds.isEmpty());
+  }
+
+  @Test
+  public void testPassivateIdleDevicesAndRehydrateOnDemand() {
+    ActorSystem system = ActorSystem.create("passivation", ConfigFactory
+        .parseString("akkadomotic.device.passivate-after = 200ms")
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(system);
+    ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+    DomoticMetrics metrics = DomoticMetrics.get(system);
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor1 = probe.getLastSender();
+    deviceActor1.tell(new Device.RecordTemperature(1L, 21.5), probe.getRef());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor2 = probe.getLastSender();
+
+    // both idle out at about the same time, in no particular order
+    probe.watch(deviceActor1);
+    probe.watch(deviceActor2);
+    assertEquals(
+        Stream.of(deviceActor1, deviceActor2).collect(Collectors.toSet()),
+        probe.receiveN(2).stream()
+            .map(m -> ((Terminated) m).getActor())
+            .collect(Collectors.toSet()));
+    assertEquals(2, metrics.getPassivations());
+
+    // answered from the compact records, the devices stay passivated
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+    DeviceGroup.RespondAllTemperatures response =
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+    Map<String, DeviceGroup.TemperatureReading> expected = new HashMap<>();
+    expected.put("device1", new DeviceGroup.Temperature(21.5));
+    expected.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+    assertEquals(expected, response.temperatures);
+    assertEquals(0, metrics.getRehydrations());
+
+    // a query whose device passivated under it gets the record too, a device the group does
+    // not know is not available
+    groupActor.tell(new DeviceGroup.ReadStoppedDevice("device1", deviceActor1), probe.getRef());
+    assertEquals(new DeviceGroup.Temperature(21.5),
+        probe.expectMsgClass(DeviceGroup.RespondStoppedDevice.class).reading);
+    groupActor.tell(new DeviceGroup.ReadStoppedDevice("device9", deviceActor1), probe.getRef());
+    assertEquals(DeviceGroup.DeviceNotAvailable.INSTANCE,
+        probe.expectMsgClass(DeviceGroup.RespondStoppedDevice.class).reading);
+
+    groupActor.tell(new DeviceGroup.RequestDeviceList(3L), probe.getRef());
+    assertEquals(Stream.of("device1", "device2").collect(Collectors.toSet()),
+        probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).list);
+
+    groupActor.tell(
+        new DeviceManager.DeviceEnvelope("group", "device1", new Device.ReadTemperature(4L)),
+        probe.getRef());
+    Device.RespondTemperature read = probe.expectMsgClass(Device.RespondTemperature.class);
+    assertEquals(Optional.of(21.5), read.value);
+    assertNotEquals(deviceActor1, probe.getLastSender());
+
+    groupActor.tell(new DeviceManager.RecordTemperatureBatch(5L, Arrays.asList(
+        new DeviceManager.DeviceReading("group", "device2", 18d))), probe.getRef());
+    assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).accepted);
+    // the read may overtake the reading at the device
+    probe.awaitAssert(() -> {
+      groupActor.tell(
+          new DeviceManager.DeviceEnvelope("group", "device2", new Device.ReadTemperature(6L)),
+          probe.getRef());
+      assertEquals(Optional.of(18d),
+          probe.expectMsgClass(Device.RespondTemperature.class).value);
+      return null;
+    });
+    assertEquals(2, metrics.getRehydrations());
+
+    TestKit.shutdownActorSystem(system);
+  }
+
+  @Test
+  public void testBufferMessagesWhilePassivating() {
+    ActorSystem system = ActorSystem.create("passivating", ConfigFactory
+        .parseString("akkadomotic.device.passivate-after = 100ms")
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(system);
+    ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+    // keeps asking through the group while the device passivates and comes back, every
+    // read must be answered with the latest recorded value
+    for (int i = 0; i < 20; i++) {
+      groupActor.tell(new DeviceManager.DeviceEnvelope(
+          "group", "device1", new Device.RecordTemperature(i, i)), probe.getRef());
+      probe.expectMsgClass(Device.TemperatureRecorded.class);
+      groupActor.tell(new DeviceManager.DeviceEnvelope(
+          "group", "device1", new Device.ReadTemperature(i)), probe.getRef());
+      assertEquals(Optional.of((double) i),
+          probe.expectMsgClass(Device.RespondTemperature.class).value);
+      probe.expectNoMessage(Duration.ofMillis(i % 3 * 50));
+    }
+
+    TestKit.shutdownActorSystem(system);
+  }
+
+  @Test
+  public void testRaiseAndClearAlertsOnRecordedTemperatures() {
+    TestKit probe = new TestKit(actorSystem);
+    TestKit owner = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor = probe.getLastSender();
+
+    groupActor.tell(new DeviceGroup.RegisterAlertRule(
+        1L, AlertRule.above("hot", "device1", 30.0, Duration.ZERO)), owner.getRef());
+    assertEquals(1L, owner.expectMsgClass(DeviceGroup.AlertRuleRegistered.class).requestId);
+
+    deviceActor.tell(new Device.RecordTemperature(1L, 25.0), probe.getRef());
+    deviceActor.tell(new Device.RecordTemperature(2L, 35.0), probe.getRef());
+    DeviceGroup.AlertRaised raised = owner.expectMsgClass(DeviceGroup.AlertRaised.class);
+    assertEquals("device1", raised.deviceId);
+    assertEquals(35.0, raised.value, 0.0);
+
+    deviceActor.tell(new Device.RecordTemperature(3L, 28.0), probe.getRef());
+    owner.expectMsgClass(DeviceGroup.AlertCleared.class);
+
+    groupActor.tell(new DeviceGroup.RemoveAlertRule(2L, "hot"), owner.getRef());
+    assertTrue(owner.expectMsgClass(DeviceGroup.AlertRuleRemoved.class).removed);
+    deviceActor.tell(new Device.RecordTemperature(4L, 40.0), probe.getRef());
+    owner.expectNoMessage(Duration.ofMillis(200));
+  }
+
+  @Test
+  public void testAnswerGroupAggregatesWithoutAskingDevices() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor1 = probe.getLastSender();
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor2 = probe.getLastSender();
+
+    deviceActor1.tell(new Device.RecordTemperature(1L, 20.0), probe.getRef());
+    deviceActor2.tell(new Device.RecordTemperature(2L, 24.0), probe.getRef());
+    deviceActor1.tell(new Device.RecordTemperature(3L, 22.0), probe.getRef());
+    probe.receiveN(3);
+
+    probe.awaitAssert(() -> {
+      groupActor.tell(new DeviceGroup.RequestGroupAggregates(4L), probe.getRef());
+      DeviceGroup.RespondGroupAggregates response =
+          probe.expectMsgClass(DeviceGroup.RespondGroupAggregates.class);
+      assertEquals(4L, response.requestId);
+      assertEquals(3, response.sliding.size());
+
+      DeviceGroup.WindowAggregate hour = response.sliding.get(Duration.ofHours(1));
+      assertEquals(3, hour.count);
+      assertEquals(20.0, hour.min, 0.0);
+      assertEquals(24.0, hour.max, 0.0);
+      assertEquals(22.0, hour.mean, 0.0);
+      return null;
+    });
+  }
+
+  @Test
+  public void testSummarizeTemperaturesOfTheGroup() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    for (int i = 1; i <= 3; i++) {
+      groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device" + i),
+          probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+      if (i < 3) {
+        probe.getLastSender().tell(new Device.RecordTemperature(i, 10.0 * i), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+      }
+    }
+
+    groupActor.tell(new DeviceGroup.RequestTemperatureSummary(
+        7L, new double[] {0.5}, new double[0]), probe.getRef());
+    DeviceGroup.RespondTemperatureSummary summary =
+        probe.expectMsgClass(DeviceGroup.RespondTemperatureSummary.class);
+    assertEquals(7L, summary.requestId);
+    assertEquals(2, summary.count);
+    assertEquals(1, summary.notAvailable);
+    assertEquals(15.0, summary.mean, 0.0);
+    assertArrayEquals(new double[] {10.0}, summary.percentiles, 0.0);
+
+    // out of range percentiles are rejected with an empty summary
+    groupActor.tell(new DeviceGroup.RequestTemperatureSummary(
+        8L, new double[] {1.5}, new double[0]), probe.getRef());
+    DeviceGroup.RespondTemperatureSummary rejected =
+        probe.expectMsgClass(DeviceGroup.RespondTemperatureSummary.class);
+    assertEquals(8L, rejected.requestId);
+    assertEquals(0, rejected.count);
+    assertTrue(Double.isNaN(rejected.mean));
+    assertEquals(0, rejected.percentiles.length);
+  }
+
+  @Test
+  public void testCoalesceConcurrentRequestsIntoOneFanOut() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    probe.getLastSender().tell(new Device.RecordTemperature(0L, 21.0), probe.getRef());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+    DomoticMetrics metrics = DomoticMetrics.get(actorSystem);
+    long coalesced = metrics.getQueriesCoalesced();
+    for (long i = 0; i < 20; i++) {
+      groupActor.tell(new DeviceGroup.RequestAllTemperatures(i), probe.getRef());
+    }
+
+    Map<Long, Map<String, DeviceGroup.TemperatureReading>> responses = new HashMap<>();
+    for (Object message : probe.receiveN(20)) {
+      DeviceGroup.RespondAllTemperatures response = (DeviceGroup.RespondAllTemperatures) message;
+      responses.put(response.requestId, response.temperatures);
+    }
+    assertEquals(20, responses.size());
+    for (Map<String, DeviceGroup.TemperatureReading> temperatures : responses.values()) {
+      assertEquals(
+          Collections.singletonMap("device1", new DeviceGroup.Temperature(21.0)), temperatures);
+    }
+    assertTrue(metrics.getQueriesCoalesced() > coalesced);
+  }
+
+  @Test
+  public void testReuseLastFanOutWithinCoalesceWindow() {
+    ActorSystem system = ActorSystem.create("coalescing", ConfigFactory
+        .parseString("akkadomotic.group.coalesce-window = 1h")
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(system);
+    ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor = probe.getLastSender();
+
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(1L), probe.getRef());
+    DeviceGroup.RespondAllTemperatures first =
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+    deviceActor.tell(new Device.RecordTemperature(0L, 21.0), probe.getRef());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+    DeviceGroup.RespondAllTemperatures second =
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+    // answered from the first fan-out, the new reading is not asked for
+    assertEquals(2L, second.requestId);
+    assertSame(first.temperatures, second.temperatures);
+    assertEquals(1, DomoticMetrics.get(system).getQueriesCoalesced());
+
+    TestKit.shutdownActorSystem(system);
+  }
+
+  @Test
+  public void testAnswerWaitersWhenCoalescedQueryStops() throws Exception {
+    // one device thread, so a blocked actor keeps the device from answering the fan-out
+    ActorSystem system = ActorSystem.create("coalescing", ConfigFactory
+        .parseString("akkadomotic.device-dispatcher {\n"
+            + "  executor = thread-pool-executor\n"
+            + "  thread-pool-executor.fixed-pool-size = 1\n"
+            + "}")
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(system);
+    ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    probe.getLastSender().tell(new Device.RecordTemperature(0L, 21.0), probe.getRef());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+    CountDownLatch release = new CountDownLatch(1);
+    system.actorOf(Props.create(Blocker.class, release)
+        .withDispatcher("akkadomotic.device-dispatcher")).tell("block", ActorRef.noSender());
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(1L), probe.getRef());
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+
+    // stop the fan-out before it could answer; the blocked device cannot identify itself
+    TestKit finder = new TestKit(system);
+    system.actorSelection(groupActor.path().child("*")).tell(new Identify(0), finder.getRef());
+    ActorRef query = finder.expectMsgClass(ActorIdentity.class).getActorRef().get();
+    assertTrue(query.path().name().startsWith("$"));
+    system.stop(query);
+
+    Map<String, DeviceGroup.TemperatureReading> lastKnown =
+        Collections.singletonMap("device1", new DeviceGroup.Temperature(21.0));
+    Set<Long> answered = new HashSet<>();
+    for (int i = 0; i < 2; i++) {
+      DeviceGroup.RespondAllTemperatures response =
+          probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+      answered.add(response.requestId);
+      assertEquals(lastKnown, response.temperatures);
+    }
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), answered);
+
+    // the next request is not left behind the stopped query
+    release.countDown();
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+    assertEquals(3L, probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).requestId);
+
+    TestKit.shutdownActorSystem(system);
+  }
+
+  static class Blocker extends AbstractActor {
+    final CountDownLatch release;
+
+    Blocker(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+          .matchAny(m -> release.await(10, TimeUnit.SECONDS))
+          .build();
+    }
+  }
+
+  @Test
+  public void testForgetLastFanOutWhenDevicesJoinOrLeave() {
+    ActorSystem system = ActorSystem.create("coalescing", ConfigFactory
+        .parseString("akkadomotic.group.coalesce-window = 1h")
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(system);
+    ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor1 = probe.getLastSender();
+
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(1L), probe.getRef());
+    assertEquals(Collections.singleton("device1"),
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures.keySet());
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+    assertEquals(new HashSet<>(Arrays.asList("device1", "device2")),
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures.keySet());
+
+    probe.watch(deviceActor1);
+    deviceActor1.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    probe.expectTerminated(deviceActor1);
+    probe.awaitAssert(() -> {
+      groupActor.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+      assertEquals(Collections.singleton("device2"),
+          probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures.keySet());
+      return null;
+    });
+
+    TestKit.shutdownActorSystem(system);
+  }
+
+  @Test
+  public void testRejectRequestsWithInvalidQuorum() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+    // answered at once, without asking the device
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(
+        1L, FiniteDuration.Zero(), 0.0, false), probe.getRef());
+    DeviceGroup.RespondAllTemperatures rejected =
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+    assertEquals(1L, rejected.requestId);
+    assertTrue(rejected.temperatures.isEmpty());
+
+    groupActor.tell(new DeviceGroup.RequestAllTemperatures(
+        2L, FiniteDuration.Zero(), 1.0, true), probe.getRef());
+    DeviceGroup.RespondAllTemperatures response =
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+    assertEquals(2L, response.requestId);
+    assertEquals(1, response.temperatures.size());
+  }
+
+  @Test
+  public void testCompleteChunkedRequestWithoutChunkSize() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+    groupActor.tell(new DeviceGroup.RequestTemperatureChunks(1L, 0), probe.getRef());
+    DeviceGroup.TemperatureChunksCompleted completed =
+        probe.expectMsgClass(DeviceGroup.TemperatureChunksCompleted.class);
+    assertEquals(1L, completed.requestId);
+    assertEquals(0, completed.chunks);
+    assertEquals(0, completed.devicesAnswered);
+  }
+
+  @Test
+  public void testStreamTemperaturesInChunks() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+    for (int i = 0; i < 5; i++) {
+      groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device" + i),
+          probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    }
+
+    groupActor.tell(new DeviceGroup.RequestTemperatureChunks(3L, 2), probe.getRef());
+    Map<String, DeviceGroup.TemperatureReading> received = new HashMap<>();
+    Object message = probe.receiveOne(Duration.ofSeconds(3));
+    while (message instanceof DeviceGroup.TemperatureChunk) {
+      DeviceGroup.TemperatureChunk chunk = (DeviceGroup.TemperatureChunk) message;
+      assertEquals(3L, chunk.requestId);
+      assertTrue(chunk.temperatures.size() <= 2);
+      received.putAll(chunk.temperatures);
+      message = probe.receiveOne(Duration.ofSeconds(3));
+    }
+
+    DeviceGroup.TemperatureChunksCompleted completed =
+        (DeviceGroup.TemperatureChunksCompleted) message;
+    assertEquals(5, completed.devicesAnswered);
+    assertEquals(5, received.size());
+    assertTrue(completed.devicesTimedOut.isEmpty());
+  }
+}
@@ -5,6 +5,10 @@ import static org.junit.Assert.*;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Optional;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -41,4 +45,113 @@ public class DeviceManagerTest {
 
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testRecordTemperatureBatchAcrossGroups() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef deviceManagerActor = actorSystem.actorOf(DeviceManager.props());
+
+    deviceManagerActor.tell(
+        new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor1 = probe.getLastSender();
+
+    deviceManagerActor.tell(
+        new DeviceManager.RequestTrackDevice("group2", "device2"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor2 = probe.getLastSender();
+
+    deviceManagerActor.tell(
+        new DeviceManager.RecordTemperatureBatch(7L, Arrays.asList(
+            new DeviceManager.DeviceReading("group1", "device1", 10d),
+            new DeviceManager.DeviceReading("group2", "device2", 20d),
+            new DeviceManager.DeviceReading("group2", "unknown", 30d),
+            new DeviceManager.DeviceReading("unknown", "device1", 40d))),
+        probe.getRef());
+
+    DeviceManager.TemperatureBatchRecorded ack =
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+    assertEquals(7L, ack.requestId);
+    assertEquals(2, ack.accepted);
+    assertEquals(2, ack.rejected);
+
+    // a read may overtake the reading at the device
+    probe.awaitAssert(() -> {
+      deviceActor1.tell(new Device.ReadTemperature(8L), probe.getRef());
+      assertEquals(Optional.of(10d), probe.expectMsgClass(Device.RespondTemperature.class).value);
+      return null;
+    });
+    probe.awaitAssert(() -> {
+      deviceActor2.tell(new Device.ReadTemperature(9L), probe.getRef());
+      assertEquals(Optional.of(20d), probe.expectMsgClass(Device.RespondTemperature.class).value);
+      return null;
+    });
+  }
+
+  @Test
+  public void testDeviceEnvelopeIsRoutedThroughTheGroup() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef deviceManagerActor = actorSystem.actorOf(DeviceManager.props());
+
+    deviceManagerActor.tell(
+        new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor = probe.getLastSender();
+
+    deviceManagerActor.tell(
+        new DeviceManager.DeviceEnvelope("group1", "device1", new Device.ReadTemperature(3L)),
+        probe.getRef());
+    assertEquals(3L, probe.expectMsgClass(Device.RespondTemperature.class).requestId);
+    assertEquals(deviceActor, probe.getLastSender());
+  }
+
+  @Test
+  public void testRegisterDevicesInBulkThroughNewGroup() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef deviceManagerActor = actorSystem.actorOf(DeviceManager.props());
+
+    deviceManagerActor.tell(
+        new DeviceManager.RequestTrackDevices(1L, "group1", Arrays.asList("device1", "device2")),
+        probe.getRef());
+    DeviceManager.DevicesRegistered registered =
+        probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+    assertEquals(2, registered.registered);
+    assertEquals(0, registered.alreadyRegistered);
+
+    deviceManagerActor.tell(
+        new DeviceManager.DeviceEnvelope("group1", "device2", new Device.ReadTemperature(2L)),
+        probe.getRef());
+    assertEquals(2L, probe.expectMsgClass(Device.RespondTemperature.class).requestId);
+  }
+
+  @Test
+  public void testRestoreDevicesAfterRestart() throws Exception {
+    Path directory = Files.createTempDirectory("device-manager-test");
+    String config = "akkadomotic.persistence { enabled = on\n directory = \""
+        + directory.toString().replace("\\", "/") + "\" }";
+
+    ActorSystem firstRun = ActorSystem.create("first", ConfigFactory.parseString(config)
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(firstRun);
+    ActorRef manager = firstRun.actorOf(DeviceManager.props());
+
+    manager.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    probe.getLastSender().tell(new Device.RecordTemperature(1L, 21d), probe.getRef());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+    manager.tell(new DeviceManager.RequestTrackDevice("group1", "device2"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    TestKit.shutdownActorSystem(firstRun);
+
+    ActorSystem secondRun = ActorSystem.create("second", ConfigFactory.parseString(config)
+        .withFallback(ConfigFactory.load()));
+    probe = new TestKit(secondRun);
+    manager = secondRun.actorOf(DeviceManager.props());
+
+    manager.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    probe.getLastSender().tell(new Device.ReadTemperature(2L), probe.getRef());
+    assertEquals(Optional.of(21d), probe.expectMsgClass(Device.RespondTemperature.class).value);
+    TestKit.shutdownActorSystem(secondRun);
+  }
+
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.UnhandledMessage;
 import akka.testkit.TestKit;
 import java.util.Optional;
 import org.junit.AfterClass;
@@ -71,6 +72,33 @@ public class DeviceTest {
     assertEquals(Optional.of(55.0), res2.value);
   }
 
+  @Test
+  public void testReplyWithPrimitiveTemperatureValue() {
+    TestKit probe = new TestKit(actorSystem);
+
+    ActorRef deviceActor =
+        actorSystem.actorOf(Device.props("group", "device"));
+
+    deviceActor.tell(new Device.ReadTemperatureValue(1L), probe.testActor());
+    Device.RespondTemperatureValue empty =
+        probe.expectMsgClass(Device.RespondTemperatureValue.class);
+    assertEquals(1L, empty.requestId);
+    assertFalse(empty.hasValue);
+
+    deviceActor.tell(
+        new Device.RecordTemperature(Device.RecordTemperature.UNCORRELATED, 21.0),
+        probe.testActor());
+    assertSame(Device.TemperatureRecorded.UNCORRELATED,
+        probe.expectMsgClass(Device.TemperatureRecorded.class));
+
+    deviceActor.tell(new Device.ReadTemperatureValue(2L), probe.testActor());
+    Device.RespondTemperatureValue value =
+        probe.expectMsgClass(Device.RespondTemperatureValue.class);
+    assertEquals(2L, value.requestId);
+    assertTrue(value.hasValue);
+    assertEquals(21.0, value.value, 0.0);
+  }
+
   @Test
   public void testReplyToRegistrationRequests() {
     TestKit probe = new TestKit(actorSystem);
@@ -104,4 +132,69 @@ public class DeviceTest {
     probe.expectNoMsg();
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testReplyWithRecordedHistory() {
+    TestKit probe = new TestKit(actorSystem);
+
+    ActorRef deviceActor =
+        actorSystem.actorOf(Device.props("group", "device"));
+
+    long before = System.currentTimeMillis();
+    deviceActor.tell(new Device.RecordTemperature(1L, 20.0), probe.testActor());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+    deviceActor.tell(new Device.RecordTemperature(2L, 30.0), probe.testActor());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+    deviceActor.tell(
+        new Device.ReadTemperatureRange(3L, before, Long.MAX_VALUE), probe.testActor());
+    Device.RespondTemperatureRange range =
+        probe.expectMsgClass(Device.RespondTemperatureRange.class);
+
+    assertEquals(3L, range.requestId);
+    assertArrayEquals(new double[] {20.0, 30.0}, range.values, 0d);
+
+    deviceActor.tell(
+        new Device.ReadDownsampled(4L, before, Long.MAX_VALUE, Long.MAX_VALUE / 2),
+        probe.testActor());
+    Device.RespondDownsampled buckets = probe.expectMsgClass(Device.RespondDownsampled.class);
+
+    assertEquals(4L, buckets.requestId);
+    assertArrayEquals(new double[] {20.0}, buckets.min, 0d);
+    assertArrayEquals(new double[] {30.0}, buckets.max, 0d);
+    assertArrayEquals(new double[] {25.0}, buckets.avg, 0d);
+  }
+
+  @Test
+  public void testReplyEmptyToDownsampledReadWithoutStep() {
+    TestKit probe = new TestKit(actorSystem);
+
+    ActorRef deviceActor =
+        actorSystem.actorOf(Device.props("group", "device"));
+    deviceActor.tell(new Device.RecordTemperature(1L, 20.0), probe.testActor());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+    deviceActor.tell(new Device.ReadDownsampled(2L, 0L, Long.MAX_VALUE, 0L), probe.testActor());
+    Device.RespondDownsampled buckets = probe.expectMsgClass(Device.RespondDownsampled.class);
+
+    assertEquals(2L, buckets.requestId);
+    assertEquals(0, buckets.bucketStarts.length);
+    assertEquals(0, buckets.counts.length);
+  }
+
+  @Test
+  public void testSendNothingToParentOutsideGroup() {
+    TestKit probe = new TestKit(actorSystem);
+    TestKit unhandled = new TestKit(actorSystem);
+    actorSystem.getEventStream().subscribe(unhandled.testActor(), UnhandledMessage.class);
+
+    ActorRef deviceActor =
+        actorSystem.actorOf(Device.props("group", "device"));
+    deviceActor.tell(new Device.RecordTemperature(1L, 20.0), probe.testActor());
+    probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+    // the guardian has no use for TemperatureUpdated
+    unhandled.expectNoMsg();
+    actorSystem.getEventStream().unsubscribe(unhandled.testActor());
+  }
+
+}
@@ -0,0 +1,160 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+public class FleetQueryTest {
+
+  static ActorSystem actorSystem;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create();
+  }
+
+  @Test
+  public void testCompleteFleetQueryWithoutChunkSize() {
+    TestKit requester = new TestKit(actorSystem);
+    DeviceManager.RequestFleetTemperatures rq = new DeviceManager.RequestFleetTemperatures(
+        1L, new FiniteDuration(3, TimeUnit.SECONDS), 0);
+
+    // rejected by either manager with a completion that answers nothing
+    for (ActorRef manager : Arrays.asList(
+        actorSystem.actorOf(DeviceManager.props()),
+        actorSystem.actorOf(ShardedDeviceManager.props(2)))) {
+      manager.tell(rq, requester.getRef());
+      DeviceManager.FleetTemperaturesCompleted completed =
+          requester.expectMsgClass(DeviceManager.FleetTemperaturesCompleted.class);
+      assertEquals(1L, completed.requestId);
+      assertEquals(0, completed.groupsAnswered);
+      manager.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    }
+  }
+
+  @Test
+  public void testStreamGroupsInBoundedChunks() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit group1 = new TestKit(actorSystem);
+    TestKit group2 = new TestKit(actorSystem);
+
+    Map<ActorRef, String> groups = new HashMap<>();
+    groups.put(group1.getRef(), "group1");
+    groups.put(group2.getRef(), "group2");
+
+    ActorRef query = actorSystem.actorOf(FleetQuery.props(
+        groups,
+        new DeviceManager.RequestFleetTemperatures(
+            1L, new FiniteDuration(3, TimeUnit.SECONDS), 2),
+        requester.getRef()));
+
+    // every group is asked with its own request id and answers with it
+    long request1 = group1.expectMsgClass(DeviceGroup.RequestAllTemperatures.class).requestId;
+    long request2 = group2.expectMsgClass(DeviceGroup.RequestAllTemperatures.class).requestId;
+    assertNotEquals(request1, request2);
+
+    Map<String, DeviceGroup.TemperatureReading> temperatures1 = new HashMap<>();
+    for (int i = 0; i < 5; i++) {
+      temperatures1.put("device" + i, new DeviceGroup.Temperature(i));
+    }
+    query.tell(new DeviceGroup.RespondAllTemperatures(request1, temperatures1), group1.getRef());
+
+    Map<String, DeviceGroup.TemperatureReading> received = new HashMap<>();
+    for (int i = 0; i < 3; i++) {
+      DeviceManager.FleetTemperaturesChunk chunk =
+          requester.expectMsgClass(DeviceManager.FleetTemperaturesChunk.class);
+      assertEquals(1L, chunk.requestId);
+      assertEquals("group1", chunk.groupId);
+      assertTrue(chunk.temperatures.size() <= 2);
+      received.putAll(chunk.temperatures);
+    }
+    assertEquals(temperatures1, received);
+
+    query.tell(new DeviceGroup.RespondAllTemperatures(request2, Collections.singletonMap(
+        "device1", DeviceGroup.TemperatureNotAvailable.INSTANCE)), group2.getRef());
+    DeviceManager.FleetTemperaturesChunk chunk =
+        requester.expectMsgClass(DeviceManager.FleetTemperaturesChunk.class);
+    assertEquals("group2", chunk.groupId);
+
+    DeviceManager.FleetTemperaturesCompleted completed =
+        requester.expectMsgClass(DeviceManager.FleetTemperaturesCompleted.class);
+    assertEquals(1L, completed.requestId);
+    assertEquals(2, completed.groupsAnswered);
+    assertEquals(Collections.emptySet(), completed.groupsMissing);
+  }
+
+  @Test
+  public void testReportGroupsMissingTheDeadline() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit group1 = new TestKit(actorSystem);
+    TestKit group2 = new TestKit(actorSystem);
+    TestKit group3 = new TestKit(actorSystem);
+
+    Map<ActorRef, String> groups = new HashMap<>();
+    groups.put(group1.getRef(), "group1");
+    groups.put(group2.getRef(), "group2");
+    groups.put(group3.getRef(), "group3");
+
+    ActorRef query = actorSystem.actorOf(FleetQuery.props(
+        groups,
+        new DeviceManager.RequestFleetTemperatures(
+            2L, new FiniteDuration(1, TimeUnit.SECONDS), 10),
+        requester.getRef()));
+
+    long request1 = group1.expectMsgClass(DeviceGroup.RequestAllTemperatures.class).requestId;
+    group2.expectMsgClass(DeviceGroup.RequestAllTemperatures.class);
+    group3.expectMsgClass(DeviceGroup.RequestAllTemperatures.class);
+
+    query.tell(new DeviceGroup.RespondAllTemperatures(request1, Collections.emptyMap()),
+        group1.getRef());
+    requester.expectMsgClass(DeviceManager.FleetTemperaturesChunk.class);
+    group2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+    DeviceManager.FleetTemperaturesCompleted completed =
+        requester.expectMsgClass(DeviceManager.FleetTemperaturesCompleted.class);
+    assertEquals(1, completed.groupsAnswered);
+    assertEquals(new HashSet<>(Arrays.asList("group2", "group3")),
+        completed.groupsMissing);
+  }
+
+  @Test
+  public void testReportShardsStoppedDuringMerge() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit shard1 = new TestKit(actorSystem);
+    TestKit shard2 = new TestKit(actorSystem);
+
+    ActorRef merge = actorSystem.actorOf(FleetQueryMerge.props(
+        Arrays.asList(shard1.getRef(), shard2.getRef()),
+        new DeviceManager.RequestFleetTemperatures(
+            3L, new FiniteDuration(3, TimeUnit.SECONDS), 10),
+        requester.getRef()));
+
+    long request1 =
+        shard1.expectMsgClass(DeviceManager.RequestFleetTemperatures.class).requestId;
+    shard2.expectMsgClass(DeviceManager.RequestFleetTemperatures.class);
+
+    merge.tell(new DeviceManager.FleetTemperaturesCompleted(
+        request1, 2, Collections.singleton("group1")), shard1.getRef());
+    shard2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+    // the groups of the stopped shard are unknown, the shard itself is reported instead
+    DeviceManager.FleetTemperaturesCompleted completed =
+        requester.expectMsgClass(DeviceManager.FleetTemperaturesCompleted.class);
+    assertEquals(3L, completed.requestId);
+    assertEquals(2, completed.groupsAnswered);
+    assertEquals(Collections.singleton("group1"), completed.groupsMissing);
+    assertEquals(Collections.singleton(shard2.getRef().path().name()), completed.shardsMissing);
+  }
+}
@@ -0,0 +1,178 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.actor.PoisonPill;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import akka.testkit.javadsl.TestKit;
+import com.ecacho.akkadomotic.metrics.DomoticMetrics;
+import com.typesafe.config.ConfigFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.Option;
+
+public class PriorityMailboxTest {
+
+  static ActorSystem actorSystem;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create();
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(actorSystem);
+  }
+
+  @Test
+  public void testDequeueControlMessagesAheadOfReadings() {
+    MessageQueue queue = queue(10, "drop-oldest", null);
+    Object reading1 = new Device.RecordTemperature(1L, 20d);
+    Object reading2 = new Device.RecordTemperature(2L, 21d);
+    Object read = new Device.ReadTemperature(3L);
+    Object track = new DeviceManager.RequestTrackDevice("group", "device");
+
+    enqueue(queue, reading1, reading2, PoisonPill.getInstance(), read, track);
+    assertEquals(5, queue.numberOfMessages());
+    assertEquals(
+        Arrays.asList(read, track, reading1, reading2, PoisonPill.getInstance()),
+        drain(queue));
+    assertFalse(queue.hasMessages());
+  }
+
+  @Test
+  public void testDropOldestReadingOnOverflow() {
+    TestKit probe = new TestKit(actorSystem);
+    actorSystem.getEventStream().subscribe(probe.getRef(), DeadLetter.class);
+    DomoticMetrics metrics = DomoticMetrics.get(actorSystem);
+    long droppedBefore = metrics.getReadingsDropped();
+
+    ActorRef owner = probe.getRef();
+    MessageQueue queue = queue(2, "drop-oldest", owner);
+    Object reading1 = new Device.RecordTemperature(1L, 20d);
+    Object reading2 = new Device.RecordTemperature(2L, 21d);
+    Object reading3 = new Device.RecordTemperature(3L, 22d);
+    // ordered behind the readings but never dropped, nor counted against the capacity
+    enqueue(queue, owner, PoisonPill.getInstance(), reading1, reading2, reading3);
+
+    assertEquals(reading1, probe.expectMsgClass(DeadLetter.class).message());
+    assertEquals(1, metrics.getReadingsDropped() - droppedBefore);
+    assertEquals(3, queue.numberOfMessages());
+    assertEquals(Arrays.asList(PoisonPill.getInstance(), reading2, reading3), drain(queue));
+    actorSystem.getEventStream().unsubscribe(probe.getRef());
+  }
+
+  @Test
+  public void testDropNewReadingOnOverflow() {
+    MessageQueue queue = queue(2, "drop-new", null);
+    Object reading1 = new DeviceManager.DeviceReading("group", "device", 20d);
+    Object reading2 = new DeviceManager.DeviceEnvelope(
+        "group", "device", new Device.RecordTemperature(2L, 21d));
+    Object reading3 = new Device.RecordTemperature(3L, 22d);
+    Object read = new Device.ReadTemperature(4L);
+
+    enqueue(queue, reading1, reading2, reading3, read);
+    assertEquals(Arrays.asList(read, reading1, reading2), drain(queue));
+
+    // room again once the readings were taken
+    enqueue(queue, reading3);
+    assertEquals(Arrays.asList(reading3), drain(queue));
+  }
+
+  @Test
+  public void testTellOwnerOfDroppedCreditedReading() {
+    TestKit owner = new TestKit(actorSystem);
+    TestKit producer = new TestKit(actorSystem);
+    MessageQueue queue = queue(1, "drop-new", owner.getRef());
+    Object reading = new Device.RecordTemperature(1L, 20d);
+    Object credited = new Device.RecordTemperature(2L, 21d, true);
+
+    enqueue(queue, owner.getRef(), reading);
+    queue.enqueue(owner.getRef(), Envelope.apply(credited, producer.getRef(), actorSystem));
+    assertEquals(producer.getRef(),
+        owner.expectMsgClass(PriorityMailbox.ReadingDropped.class).sender);
+
+    // readings sent without credits are dropped without a word
+    enqueue(queue, owner.getRef(), reading);
+    owner.expectNoMessage(java.time.Duration.ofMillis(100));
+    assertEquals(Arrays.asList(reading), drain(queue));
+  }
+
+  @Test
+  public void testNeverDropTemperatureUpdates() {
+    MessageQueue queue = queue(1, "drop-oldest", null);
+    Object reading = new Device.RecordTemperature(1L, 20d);
+    Object update1 = new DeviceGroup.TemperatureUpdated("device1", 21d, 0L);
+    Object update2 = new DeviceGroup.TemperatureUpdated("device2", 22d, 0L);
+
+    // neither dropped nor counted against the capacity, so the reading keeps its place
+    enqueue(queue, update1, reading, update2);
+    assertEquals(Arrays.asList(update1, reading, update2), drain(queue));
+  }
+
+  @Test
+  public void testCountBatchReadingsAgainstCapacity() {
+    MessageQueue queue = queue(3, "drop-new", null);
+    Object reading1 = new Device.RecordTemperature(1L, 20d);
+    Object reading2 = new Device.RecordTemperature(2L, 21d);
+    List<DeviceManager.DeviceReading> readings = Arrays.asList(
+        new DeviceManager.DeviceReading("group", "device1", 1d),
+        new DeviceManager.DeviceReading("group", "device2", 2d),
+        new DeviceManager.DeviceReading("group", "device3", 3d),
+        new DeviceManager.DeviceReading("group", "device4", 4d));
+
+    // the batch is cut to the two readings left room for, the full mailbox drops reading2
+    enqueue(queue, reading1, new DeviceManager.RecordTemperatureBatch(3L, readings), reading2);
+    List<Object> messages = drain(queue);
+    assertEquals(2, messages.size());
+    assertEquals(reading1, messages.get(0));
+    DeviceManager.RecordTemperatureBatch batch =
+        (DeviceManager.RecordTemperatureBatch) messages.get(1);
+    assertEquals(3L, batch.requestId);
+    assertEquals(readings.subList(0, 2), batch.readings);
+    assertEquals(2, batch.overflowed);
+
+    // the batch's readings are released when it is taken
+    enqueue(queue, new DeviceManager.RecordTemperatureBatch(4L, readings.subList(0, 3)));
+    assertEquals(0, ((DeviceManager.RecordTemperatureBatch) drain(queue).get(0)).overflowed);
+  }
+
+  private MessageQueue queue(int ingestCapacity, String overflow, ActorRef owner) {
+    PriorityMailbox mailbox = new PriorityMailbox(
+        actorSystem.settings(),
+        ConfigFactory.parseString(
+            "ingest-capacity = " + ingestCapacity + "\n"
+                + "overflow = " + overflow + "\n"
+                + "metered = off"));
+    return owner == null
+        ? mailbox.create(Option.empty(), Option.empty())
+        : mailbox.create(Option.apply(owner), Option.apply(actorSystem));
+  }
+
+  private void enqueue(MessageQueue queue, Object... messages) {
+    enqueue(queue, ActorRef.noSender(), messages);
+  }
+
+  private void enqueue(MessageQueue queue, ActorRef receiver, Object... messages) {
+    for (Object message : messages) {
+      queue.enqueue(receiver, Envelope.apply(message, ActorRef.noSender(), actorSystem));
+    }
+  }
+
+  private List<Object> drain(MessageQueue queue) {
+    List<Object> messages = new ArrayList<>();
+    for (Envelope envelope = queue.dequeue(); envelope != null; envelope = queue.dequeue()) {
+      messages.add(envelope.message());
+    }
+    return messages;
+  }
+}
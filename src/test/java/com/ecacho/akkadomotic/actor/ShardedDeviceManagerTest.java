@@ -0,0 +1,207 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+public class ShardedDeviceManagerTest {
+
+  static ActorSystem actorSystem;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create();
+  }
+
+  @Test
+  public void testRegistrationIsRoutedToTheSameGroup() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef manager = actorSystem.actorOf(ShardedDeviceManager.props(4));
+
+    Map<String, ActorRef> devices = new HashMap<>();
+    for (int g = 0; g < 32; g++) {
+      manager.tell(new DeviceManager.RequestTrackDevice("group" + g, "device"), probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+      devices.put("group" + g, probe.getLastSender());
+    }
+
+    for (int g = 0; g < 32; g++) {
+      manager.tell(new DeviceManager.RequestTrackDevice("group" + g, "device"), probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+      assertEquals(devices.get("group" + g), probe.getLastSender());
+    }
+  }
+
+  @Test
+  public void testGroupsAreSpreadOverShards() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef manager = actorSystem.actorOf(ShardedDeviceManager.props(4));
+
+    for (int g = 0; g < 64; g++) {
+      manager.tell(new DeviceManager.RequestTrackDevice("group" + g, "device"), probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    }
+
+    for (int i = 0; i < 4; i++) {
+      actorSystem.actorSelection(manager.path().child("shard-" + i).child("*"))
+          .tell(new Identify(i), probe.getRef());
+    }
+    List<Object> groupsPerShard = new ArrayList<>();
+    probe.receiveWhile(Duration.ofMillis(500), message -> {
+      groupsPerShard.add(((ActorIdentity) message).correlationId());
+      return message;
+    });
+    int usedShards = 0;
+    for (int i = 0; i < 4; i++) {
+      if (groupsPerShard.contains(i)) {
+        usedShards++;
+      }
+    }
+    assertEquals(64, groupsPerShard.size());
+    assertEquals(4, usedShards);
+  }
+
+  @Test
+  public void testRecordTemperatureBatchAcrossShards() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef manager = actorSystem.actorOf(ShardedDeviceManager.props(4));
+
+    List<DeviceManager.DeviceReading> readings = new ArrayList<>();
+    List<ActorRef> devices = new ArrayList<>();
+    for (int g = 0; g < 16; g++) {
+      manager.tell(new DeviceManager.RequestTrackDevice("group" + g, "device"), probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+      devices.add(probe.getLastSender());
+      readings.add(new DeviceManager.DeviceReading("group" + g, "device", g));
+    }
+    readings.add(new DeviceManager.DeviceReading("unknown", "device", 1d));
+
+    manager.tell(new DeviceManager.RecordTemperatureBatch(3L, readings), probe.getRef());
+    DeviceManager.TemperatureBatchRecorded ack =
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+    assertEquals(3L, ack.requestId);
+    assertEquals(16, ack.accepted);
+    assertEquals(1, ack.rejected);
+
+    // a read may overtake the reading at the device
+    for (int g = 0; g < 16; g++) {
+      int group = g;
+      probe.awaitAssert(() -> {
+        devices.get(group).tell(new Device.ReadTemperature(group), probe.getRef());
+        assertEquals(Optional.of((double) group),
+            probe.expectMsgClass(Device.RespondTemperature.class).value);
+        return null;
+      });
+    }
+  }
+
+  @Test
+  public void testFleetQueryIsMergedAcrossShards() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef manager = actorSystem.actorOf(ShardedDeviceManager.props(4));
+
+    for (int g = 0; g < 16; g++) {
+      for (int d = 0; d < 3; d++) {
+        manager.tell(
+            new DeviceManager.RequestTrackDevice("group" + g, "device" + d), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+      }
+    }
+
+    manager.tell(new DeviceManager.RequestFleetTemperatures(
+        5L, new FiniteDuration(3, TimeUnit.SECONDS), 2), probe.getRef());
+
+    Map<String, Integer> devicesPerGroup = new HashMap<>();
+    Object message;
+    while ((message = probe.receiveOne(Duration.ofSeconds(3)))
+        instanceof DeviceManager.FleetTemperaturesChunk) {
+      DeviceManager.FleetTemperaturesChunk chunk = (DeviceManager.FleetTemperaturesChunk) message;
+      assertEquals(5L, chunk.requestId);
+      assertTrue(chunk.temperatures.size() <= 2);
+      devicesPerGroup.merge(chunk.groupId, chunk.temperatures.size(), Integer::sum);
+    }
+
+    DeviceManager.FleetTemperaturesCompleted completed =
+        (DeviceManager.FleetTemperaturesCompleted) message;
+    assertEquals(16, completed.groupsAnswered);
+    assertTrue(completed.groupsMissing.isEmpty());
+    assertEquals(16, devicesPerGroup.size());
+    for (int count : devicesPerGroup.values()) {
+      assertEquals(3, count);
+    }
+  }
+
+  @Test
+  public void testTerminatedShardIsReplaced() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef manager = actorSystem.actorOf(ShardedDeviceManager.props(2));
+
+    manager.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef device = probe.getLastSender();
+    probe.watch(device);
+    // device -> group -> shard
+    actorSystem.actorSelection(device.path().parent().parent())
+        .tell(PoisonPill.getInstance(), ActorRef.noSender());
+    probe.expectTerminated(device);
+
+    // requests sent before the manager saw the Terminated go to dead letters, so each
+    // attempt waits briefly and the retries get the whole budget
+    probe.awaitAssert(Duration.ofSeconds(5), () -> {
+      manager.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+      probe.expectMsgClass(Duration.ofMillis(500), DeviceManager.DeviceRegistered.class);
+      assertNotEquals(device, probe.getLastSender());
+      return null;
+    });
+  }
+
+  @Test
+  public void testRestoreGroupsOnTheirShards() throws Exception {
+    Path directory = Files.createTempDirectory("sharded-device-manager-test");
+    String config = "akkadomotic.persistence { enabled = on\n directory = \""
+        + directory.toString().replace("\\", "/") + "\" }";
+
+    ActorSystem firstRun = ActorSystem.create("first", ConfigFactory.parseString(config)
+        .withFallback(ConfigFactory.load()));
+    TestKit probe = new TestKit(firstRun);
+    ActorRef manager = firstRun.actorOf(ShardedDeviceManager.props(4));
+    for (int g = 0; g < 8; g++) {
+      manager.tell(new DeviceManager.RequestTrackDevice("group" + g, "device"), probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+      probe.getLastSender().tell(new Device.RecordTemperature(g, g), probe.getRef());
+      probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+    TestKit.shutdownActorSystem(firstRun);
+
+    ActorSystem secondRun = ActorSystem.create("second", ConfigFactory.parseString(config)
+        .withFallback(ConfigFactory.load()));
+    probe = new TestKit(secondRun);
+    manager = secondRun.actorOf(ShardedDeviceManager.props(4));
+    for (int g = 0; g < 8; g++) {
+      manager.tell(new DeviceManager.RequestTrackDevice("group" + g, "device"), probe.getRef());
+      probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+      probe.getLastSender().tell(new Device.ReadTemperature(g), probe.getRef());
+      assertEquals(Optional.of((double) g),
+          probe.expectMsgClass(Device.RespondTemperature.class).value);
+    }
+    TestKit.shutdownActorSystem(secondRun);
+  }
+}
@@ -0,0 +1,91 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TemperatureBatchCollectorTest {
+
+  static ActorSystem actorSystem;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create();
+  }
+
+  @Test
+  public void testAggregateAcksFromAllGroups() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit group1 = new TestKit(actorSystem);
+    TestKit group2 = new TestKit(actorSystem);
+
+    Map<ActorRef, DeviceManager.RecordTemperatureBatch> batches = new HashMap<>();
+    batches.put(group1.getRef(), new DeviceManager.RecordTemperatureBatch(1L,
+        Collections.singletonList(new DeviceManager.DeviceReading("group1", "device1", 1d))));
+    batches.put(group2.getRef(), new DeviceManager.RecordTemperatureBatch(1L, Arrays.asList(
+        new DeviceManager.DeviceReading("group2", "device1", 2d),
+        new DeviceManager.DeviceReading("group2", "device2", 3d))));
+
+    ActorRef collector = actorSystem.actorOf(
+        TemperatureBatchCollector.props(1L, requester.getRef(), batches, 1));
+
+    DeviceManager.RecordTemperatureBatch batch1 =
+        group1.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+    DeviceManager.RecordTemperatureBatch batch2 =
+        group2.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+    assertEquals(1, batch1.readings.size());
+    assertEquals(2, batch2.readings.size());
+
+    //acks are matched by sub request id, whoever sends them
+    collector.tell(
+        new DeviceManager.TemperatureBatchRecorded(batch1.requestId, 1, 0), ActorRef.noSender());
+    collector.tell(
+        new DeviceManager.TemperatureBatchRecorded(batch2.requestId, 1, 1), ActorRef.noSender());
+
+    DeviceManager.TemperatureBatchRecorded ack =
+        requester.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+    assertEquals(1L, ack.requestId);
+    assertEquals(2, ack.accepted);
+    assertEquals(2, ack.rejected);
+  }
+
+  @Test
+  public void testRejectReadingsOfGroupsThatStopBeforeAnswering() {
+    TestKit requester = new TestKit(actorSystem);
+    TestKit group1 = new TestKit(actorSystem);
+    TestKit group2 = new TestKit(actorSystem);
+
+    Map<ActorRef, DeviceManager.RecordTemperatureBatch> batches = new HashMap<>();
+    batches.put(group1.getRef(), new DeviceManager.RecordTemperatureBatch(2L,
+        Collections.singletonList(new DeviceManager.DeviceReading("group1", "device1", 1d))));
+    batches.put(group2.getRef(), new DeviceManager.RecordTemperatureBatch(2L, Arrays.asList(
+        new DeviceManager.DeviceReading("group2", "device1", 2d),
+        new DeviceManager.DeviceReading("group2", "device2", 3d))));
+
+    ActorRef collector = actorSystem.actorOf(
+        TemperatureBatchCollector.props(2L, requester.getRef(), batches, 0));
+
+    DeviceManager.RecordTemperatureBatch batch1 =
+        group1.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+    group2.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+
+    collector.tell(
+        new DeviceManager.TemperatureBatchRecorded(batch1.requestId, 1, 0), group1.getRef());
+    group2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+    DeviceManager.TemperatureBatchRecorded ack =
+        requester.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+    assertEquals(2L, ack.requestId);
+    assertEquals(1, ack.accepted);
+    assertEquals(2, ack.rejected);
+  }
+}
@@ -0,0 +1,203 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TemperatureFlowControlTest {
+
+  static ActorSystem actorSystem;
+  static Materializer materializer;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create("flow-control", ConfigFactory
+        .parseString("akkadomotic.flow-control.ack-timeout = 300ms")
+        .withFallback(ConfigFactory.load()));
+    materializer = ActorMaterializer.create(actorSystem);
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(actorSystem);
+  }
+
+  @Test
+  public void testDeviceAndGroupGrantConfiguredCredits() {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef deviceActor = actorSystem.actorOf(Device.props("group", "device"));
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    deviceActor.tell(new TemperatureFlowControl.RequestCredits(1L), probe.getRef());
+    TemperatureFlowControl.CreditsGranted grant =
+        probe.expectMsgClass(TemperatureFlowControl.CreditsGranted.class);
+    assertEquals(1L, grant.requestId);
+    assertEquals(100, grant.credits);
+
+    groupActor.tell(new TemperatureFlowControl.RequestCredits(2L), probe.getRef());
+    assertEquals(1000, probe.expectMsgClass(TemperatureFlowControl.CreditsGranted.class).credits);
+  }
+
+  @Test
+  public void testShareCreditBudgetBetweenProducers() {
+    TestKit producer1 = new TestKit(actorSystem);
+    TestKit producer2 = new TestKit(actorSystem);
+    ActorRef deviceActor = actorSystem.actorOf(Device.props("group", "device"));
+
+    deviceActor.tell(new TemperatureFlowControl.RequestCredits(1L), producer1.getRef());
+    assertEquals(100,
+        producer1.expectMsgClass(TemperatureFlowControl.CreditsGranted.class).credits);
+    // the first producer holds the whole budget
+    deviceActor.tell(new TemperatureFlowControl.RequestCredits(2L), producer2.getRef());
+    TemperatureFlowControl.CreditsGranted grant =
+        producer2.expectMsgClass(TemperatureFlowControl.CreditsGranted.class);
+    assertEquals(2L, grant.requestId);
+    assertEquals(0, grant.credits);
+
+    // its readings free the budget, which goes to the second producer up to its half
+    for (int i = 0; i < 50; i++) {
+      deviceActor.tell(new Device.RecordTemperature(i, 20d, true), producer1.getRef());
+    }
+    assertEquals(25, producer2.expectMsgClass(TemperatureFlowControl.CreditsGranted.class).credits);
+    assertEquals(25, producer2.expectMsgClass(TemperatureFlowControl.CreditsGranted.class).credits);
+    producer2.expectNoMessage(Duration.ofMillis(100));
+    producer1.receiveN(50);
+    producer1.expectNoMessage(Duration.ofMillis(100));
+
+    // a stopped producer's credits go back to the others
+    producer2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+    assertEquals(50, producer1.expectMsgClass(TemperatureFlowControl.CreditsGranted.class).credits);
+  }
+
+  @Test
+  public void testSendNoMoreReadingsThanCreditsGranted() throws Exception {
+    TestKit device = new TestKit(actorSystem);
+    CompletionStage<Done> done = Source.from(Arrays.asList(20.0, 21.0, 22.0))
+        .runWith(TemperatureFlowControl.deviceSink(device.getRef(), 5L), materializer);
+
+    assertEquals(5L, device.expectMsgClass(TemperatureFlowControl.RequestCredits.class).requestId);
+    ActorRef sink = device.getLastSender();
+    // asked again while starved or with readings unacknowledged, see testAskAgainForCredits
+    device.ignoreMsg(m -> m instanceof TemperatureFlowControl.RequestCredits);
+    sink.tell(new TemperatureFlowControl.CreditsGranted(5L, 2), device.getRef());
+    Device.RecordTemperature first = device.expectMsgClass(Device.RecordTemperature.class);
+    assertEquals(20.0, first.value, 0.0);
+    assertEquals(21.0, device.expectMsgClass(Device.RecordTemperature.class).value, 0.0);
+    device.expectNoMessage(Duration.ofMillis(100));
+
+    // an acknowledgement does not give the credit back, only the device grants more
+    sink.tell(new Device.TemperatureRecorded(first.requestId), device.getRef());
+    device.expectNoMessage(Duration.ofMillis(100));
+    sink.tell(new TemperatureFlowControl.CreditsGranted(5L, 1), device.getRef());
+    Device.RecordTemperature last = device.expectMsgClass(Device.RecordTemperature.class);
+    assertEquals(22.0, last.value, 0.0);
+    assertFalse(done.toCompletableFuture().isDone());
+
+    // the second reading stays unacknowledged and is reported lost after ack-timeout
+    sink.tell(new Device.TemperatureRecorded(last.requestId), device.getRef());
+    try {
+      done.toCompletableFuture().get(3, TimeUnit.SECONDS);
+      fail("sink completed although a reading was not acknowledged");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TemperatureFlowControl.ReadingsNotAcknowledged);
+      assertEquals(1,
+          ((TemperatureFlowControl.ReadingsNotAcknowledged) e.getCause()).getLost());
+    }
+    device.expectNoMessage(Duration.ofMillis(100));
+  }
+
+  @Test
+  public void testAskAgainForCreditsWhenReadingsGoUnacknowledged() {
+    TestKit device = new TestKit(actorSystem);
+    Source.single(20.0)
+        .runWith(TemperatureFlowControl.deviceSink(device.getRef(), 6L), materializer);
+    device.expectMsgClass(TemperatureFlowControl.RequestCredits.class);
+    device.getLastSender().tell(
+        new TemperatureFlowControl.CreditsGranted(6L, 1), device.getRef());
+    device.expectMsgClass(Device.RecordTemperature.class);
+
+    // never acknowledged: after ack-timeout the sink asks for the credits due to it now
+    assertEquals(6L, device.expectMsgClass(
+        Duration.ofSeconds(3), TemperatureFlowControl.RequestCredits.class).requestId);
+  }
+
+  @Test
+  public void testGiveCreditBackForDroppedReading() {
+    TestKit producer = new TestKit(actorSystem);
+    ActorRef deviceActor = actorSystem.actorOf(Device.props("group", "device"));
+    deviceActor.tell(new TemperatureFlowControl.RequestCredits(1L), producer.getRef());
+    assertEquals(100,
+        producer.expectMsgClass(TemperatureFlowControl.CreditsGranted.class).credits);
+
+    // as the mailbox tells the device when it drops one of the producer's readings
+    for (int i = 0; i < 50; i++) {
+      deviceActor.tell(new PriorityMailbox.ReadingDropped(producer.getRef()), ActorRef.noSender());
+    }
+    assertEquals(50,
+        producer.expectMsgClass(TemperatureFlowControl.CreditsGranted.class).credits);
+  }
+
+  @Test
+  public void testWriteToGroupDevicesThroughGroupSink() throws Exception {
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevices(
+        1L, "group", Arrays.asList("device1", "device2")), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+
+    // far more readings than the group grants credits for
+    Source.from(IntStream.range(0, 5_000).boxed().collect(Collectors.toList()))
+        .map(i -> new DeviceManager.DeviceReading(
+            "group", i % 2 == 0 ? "device1" : "device2", i))
+        .runWith(TemperatureFlowControl.groupSink(groupActor, 2L), materializer)
+        .toCompletableFuture()
+        .get(10, TimeUnit.SECONDS);
+
+    // every reading is acknowledged, so the last ones are in the group's snapshot
+    probe.awaitAssert(() -> {
+      groupActor.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+      DeviceGroup.RespondAllTemperatures response =
+          probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+      assertEquals(
+          new DeviceGroup.Temperature(4998d), response.temperatures.get("device1"));
+      assertEquals(
+          new DeviceGroup.Temperature(4999d), response.temperatures.get("device2"));
+      return null;
+    });
+  }
+
+  @Test
+  public void testFailWhenTargetStops() {
+    TestKit device = new TestKit(actorSystem);
+    CompletionStage<Done> done = Source.repeat(20.0)
+        .runWith(TemperatureFlowControl.deviceSink(device.getRef(), 1L), materializer);
+    device.expectMsgClass(TemperatureFlowControl.RequestCredits.class);
+
+    device.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+    try {
+      done.toCompletableFuture().get(3, TimeUnit.SECONDS);
+      fail("sink completed although its device stopped");
+    } catch (Exception e) {
+      assertTrue(e instanceof ExecutionException);
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+}
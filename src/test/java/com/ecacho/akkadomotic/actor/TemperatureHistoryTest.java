@@ -0,0 +1,88 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TemperatureHistoryTest {
+
+  @Test
+  public void testRangeReturnsSamplesInsideBoundsOldestFirst() {
+    TemperatureHistory history = new TemperatureHistory(8);
+    history.record(100L, 1d);
+    history.record(200L, 2d);
+    history.record(300L, 3d);
+    history.record(400L, 4d);
+
+    Device.RespondTemperatureRange range = history.range(1L, 200L, 400L);
+
+    assertEquals(1L, range.requestId);
+    assertArrayEquals(new long[] {200L, 300L}, range.timestamps);
+    assertArrayEquals(new double[] {2d, 3d}, range.values, 0d);
+  }
+
+  @Test
+  public void testOldestSamplesAreOverwrittenWhenFull() {
+    TemperatureHistory history = new TemperatureHistory(3);
+    for (int i = 1; i <= 5; i++) {
+      history.record(i * 10L, i);
+    }
+
+    Device.RespondTemperatureRange range = history.range(1L, 0L, Long.MAX_VALUE);
+
+    assertArrayEquals(new long[] {30L, 40L, 50L}, range.timestamps);
+    assertArrayEquals(new double[] {3d, 4d, 5d}, range.values, 0d);
+  }
+
+  @Test
+  public void testDownsampleSkipsEmptyBuckets() {
+    TemperatureHistory history = new TemperatureHistory(16);
+    history.record(0L, 1d);
+    history.record(5L, 3d);
+    history.record(9L, 2d);
+    history.record(25L, 10d);
+
+    Device.RespondDownsampled buckets = history.downsample(2L, 0L, 30L, 10L);
+
+    assertEquals(2L, buckets.requestId);
+    assertArrayEquals(new long[] {0L, 20L}, buckets.bucketStarts);
+    assertArrayEquals(new double[] {1d, 10d}, buckets.min, 0d);
+    assertArrayEquals(new double[] {3d, 10d}, buckets.max, 0d);
+    assertArrayEquals(new double[] {2d, 10d}, buckets.avg, 0d);
+    assertArrayEquals(new int[] {3, 1}, buckets.counts);
+  }
+
+  @Test
+  public void testDownsampleFromTheBeginning() {
+    TemperatureHistory history = new TemperatureHistory(16);
+    history.record(1_000L, 1d);
+    history.record(1_004L, 3d);
+    history.record(1_012L, 5d);
+
+    Device.RespondDownsampled buckets = history.downsample(3L, Long.MIN_VALUE, 2_000L, 8L);
+
+    // buckets stay aligned on Long.MIN_VALUE, a multiple of 8
+    assertArrayEquals(new long[] {1_000L, 1_008L}, buckets.bucketStarts);
+    assertArrayEquals(new double[] {2d, 5d}, buckets.avg, 0d);
+    assertArrayEquals(new int[] {2, 1}, buckets.counts);
+  }
+
+  @Test
+  public void testTimestampsStayOrderedWhenClockStepsBack() {
+    TemperatureHistory history = new TemperatureHistory(4);
+    history.record(100L, 1d);
+    history.record(90L, 2d);
+
+    Device.RespondTemperatureRange range = history.range(1L, 100L, 101L);
+
+    assertArrayEquals(new long[] {100L, 100L}, range.timestamps);
+  }
+
+  @Test
+  public void testEmptyHistoryReturnsNoSamples() {
+    TemperatureHistory history = new TemperatureHistory(0);
+
+    assertEquals(0, history.range(1L, 0L, Long.MAX_VALUE).timestamps.length);
+    assertEquals(0, history.downsample(1L, 0L, Long.MAX_VALUE, 10L).counts.length);
+  }
+}
@@ -0,0 +1,146 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.testkit.javadsl.TestKit;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TemperatureSubscriptionTest {
+
+  static ActorSystem actorSystem;
+  static Materializer materializer;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create("subscriptions");
+    materializer = ActorMaterializer.create(actorSystem);
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(actorSystem);
+  }
+
+  @Test
+  public void testDeviceSendsOnlyRequestedUpdatesAndConflatesTheRest() {
+    TestKit recorder = new TestKit(actorSystem);
+    TestKit subscriber = new TestKit(actorSystem);
+    ActorRef deviceActor = actorSystem.actorOf(Device.props("group", "device"));
+
+    deviceActor.tell(new TemperatureSubscription.Subscribe(7L), subscriber.getRef());
+    deviceActor.tell(new Device.RecordTemperature(1L, 20.0), recorder.getRef());
+    deviceActor.tell(new Device.RecordTemperature(2L, 21.0), recorder.getRef());
+    deviceActor.tell(new Device.RecordTemperature(3L, 22.0), recorder.getRef());
+    recorder.receiveN(3);
+    subscriber.expectNoMessage(Duration.ofMillis(100));
+
+    deviceActor.tell(new TemperatureSubscription.Request(7L, 5), subscriber.getRef());
+    TemperatureSubscription.TemperatureChanged latest =
+        subscriber.expectMsgClass(TemperatureSubscription.TemperatureChanged.class);
+    assertEquals(7L, latest.requestId);
+    assertEquals("device", latest.deviceId);
+    assertEquals(22.0, latest.value, 0.0);
+    subscriber.expectNoMessage(Duration.ofMillis(100));
+
+    // demand left over is spent on the next readings as they come
+    deviceActor.tell(new Device.RecordTemperature(4L, 23.0), recorder.getRef());
+    assertEquals(23.0,
+        subscriber.expectMsgClass(TemperatureSubscription.TemperatureChanged.class).value, 0.0);
+
+    deviceActor.tell(new TemperatureSubscription.Unsubscribe(7L), subscriber.getRef());
+    deviceActor.tell(new Device.RecordTemperature(5L, 24.0), recorder.getRef());
+    subscriber.expectNoMessage(Duration.ofMillis(100));
+  }
+
+  @Test
+  public void testGroupConflatesToLatestReadingPerDevice() {
+    TestKit recorder = new TestKit(actorSystem);
+    TestKit subscriber = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), recorder.getRef());
+    recorder.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor1 = recorder.getLastSender();
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), recorder.getRef());
+    recorder.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor2 = recorder.getLastSender();
+
+    groupActor.tell(new TemperatureSubscription.Subscribe(1L), subscriber.getRef());
+    deviceActor1.tell(new Device.RecordTemperature(1L, 20.0), recorder.getRef());
+    deviceActor2.tell(new Device.RecordTemperature(2L, 30.0), recorder.getRef());
+    deviceActor1.tell(new Device.RecordTemperature(3L, 21.0), recorder.getRef());
+    recorder.receiveN(3);
+    subscriber.expectNoMessage(Duration.ofMillis(100));
+
+    groupActor.tell(new TemperatureSubscription.Request(1L, 10), subscriber.getRef());
+    List<Object> updates = subscriber.receiveN(2);
+    subscriber.expectNoMessage(Duration.ofMillis(100));
+
+    // the two devices report to the group concurrently, so their updates come in any order
+    Map<String, Double> latest = new HashMap<>();
+    for (Object update : updates) {
+      TemperatureSubscription.TemperatureChanged changed =
+          (TemperatureSubscription.TemperatureChanged) update;
+      latest.put(changed.deviceId, changed.value);
+    }
+    Map<String, Double> expected = new HashMap<>();
+    expected.put("device1", 21.0);
+    expected.put("device2", 30.0);
+    assertEquals(expected, latest);
+  }
+
+  @Test
+  public void testSourceStreamsGroupUpdatesOnDemand() throws Exception {
+    TestKit recorder = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"));
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), recorder.getRef());
+    recorder.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor = recorder.getLastSender();
+
+    CompletableFuture<List<TemperatureSubscription.TemperatureChanged>> updates =
+        TemperatureSubscription.source(groupActor, 3L)
+            .take(2)
+            .runWith(Sink.seq(), materializer)
+            .toCompletableFuture();
+
+    // the subscription is set up asynchronously, keep recording until the stream is done
+    for (int i = 0; !updates.isDone() && i < 100; i++) {
+      deviceActor.tell(new Device.RecordTemperature(i, 20.0 + i), recorder.getRef());
+      recorder.expectMsgClass(Device.TemperatureRecorded.class);
+      Thread.sleep(20);
+    }
+
+    List<TemperatureSubscription.TemperatureChanged> received =
+        updates.get(3, TimeUnit.SECONDS);
+    assertEquals(2, received.size());
+    assertEquals(3L, received.get(0).requestId);
+    assertEquals("device1", received.get(0).deviceId);
+    assertTrue(received.get(1).value > received.get(0).value);
+  }
+
+  @Test
+  public void testSourceCompletesWhenPublisherStops() throws Exception {
+    ActorRef deviceActor = actorSystem.actorOf(Device.props("group", "stopping"));
+
+    CompletableFuture<List<TemperatureSubscription.TemperatureChanged>> updates =
+        TemperatureSubscription.source(deviceActor, 4L)
+            .runWith(Sink.seq(), materializer)
+            .toCompletableFuture();
+    actorSystem.stop(deviceActor);
+
+    assertTrue(updates.get(3, TimeUnit.SECONDS).isEmpty());
+  }
+}
@@ -0,0 +1,62 @@
+package com.ecacho.akkadomotic.actor;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class WindowedAggregatesTest {
+
+  static final Duration MINUTE = Duration.ofMinutes(1);
+
+  @Test
+  public void testSlidingWindowCoversTheLastWindowOfBuckets() {
+    WindowedAggregates aggregates = new WindowedAggregates(Arrays.asList(MINUTE), 60);
+    aggregates.record(10_000L, 20d);
+    aggregates.record(30_500L, 22d);
+    aggregates.record(70_000L, 27d);
+
+    // buckets 11..70, the reading at 10s has slid out
+    DeviceGroup.WindowAggregate aggregate = aggregates.sliding(70_999L).get(MINUTE);
+    assertEquals(11_000L, aggregate.from);
+    assertEquals(71_000L, aggregate.to);
+    assertEquals(2, aggregate.count);
+    assertEquals(22d, aggregate.min, 0d);
+    assertEquals(27d, aggregate.max, 0d);
+    assertEquals(24.5d, aggregate.mean, 0d);
+  }
+
+  @Test
+  public void testTumblingWindowIsTheLastCompleteOne() {
+    WindowedAggregates aggregates =
+        new WindowedAggregates(Arrays.asList(MINUTE, Duration.ofMinutes(5)), 60);
+    aggregates.record(10_000L, 20d);
+    aggregates.record(50_000L, 30d);
+    aggregates.record(65_000L, 40d);
+
+    DeviceGroup.WindowAggregate minute = aggregates.tumbling(90_000L).get(MINUTE);
+    assertEquals(0L, minute.from);
+    assertEquals(60_000L, minute.to);
+    assertEquals(2, minute.count);
+    assertEquals(25d, minute.mean, 0d);
+
+    // the first five minutes are not over yet
+    DeviceGroup.WindowAggregate fiveMinutes =
+        aggregates.tumbling(90_000L).get(Duration.ofMinutes(5));
+    assertEquals(0, fiveMinutes.count);
+    assertTrue(Double.isNaN(fiveMinutes.mean));
+  }
+
+  @Test
+  public void testReadingsOlderThanTheRingAreDropped() {
+    WindowedAggregates aggregates = new WindowedAggregates(Arrays.asList(MINUTE), 60);
+    aggregates.record(200_000L, 20d);
+    // lands in the same slot as the reading above, two windows earlier
+    aggregates.record(80_000L, 99d);
+
+    DeviceGroup.WindowAggregate aggregate = aggregates.sliding(200_000L).get(MINUTE);
+    assertEquals(1, aggregate.count);
+    assertEquals(20d, aggregate.max, 0d);
+  }
+}
@@ -0,0 +1,52 @@
+package com.ecacho.akkadomotic.load;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.ecacho.akkadomotic.actor.ShardedDeviceManager;
+import com.typesafe.config.ConfigFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+
+  static ActorSystem actorSystem;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create("load");
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(actorSystem);
+  }
+
+  @Test
+  public void testShortRunRecordsAndPollsWithoutTimeouts() throws Exception {
+    LoadSettings settings = new LoadSettings(ConfigFactory.parseString(
+        "groups = 3, devices-per-group = 20, readings-per-second = 10, pollers = 2, "
+            + "poll-interval = 100ms, poll-timeout = 5s, tick-interval = 20ms, "
+            + "report-interval = 500ms, duration = 1500ms, sharded = on")
+        .withFallback(ConfigFactory.load().getConfig("akkadomotic.load")));
+    ActorRef manager = actorSystem.actorOf(ShardedDeviceManager.props(), "load-devices");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    LoadGenerator generator =
+        new LoadGenerator(actorSystem, manager, settings, new PrintStream(output, true));
+    generator.run();
+
+    LoadStats stats = generator.stats;
+    assertTrue(stats.readingsAcked.sum() > 0);
+    assertTrue(stats.pollsAnswered.sum() > 0);
+    assertEquals(0, stats.pollsTimedOut.sum());
+    assertEquals(0, stats.deviceTimeouts.sum());
+    assertEquals(0, stats.devicesNotAvailable.sum());
+    assertTrue(output.toString().contains("Final report"));
+  }
+}
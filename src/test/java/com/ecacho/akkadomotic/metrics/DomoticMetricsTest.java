@@ -0,0 +1,81 @@
+package com.ecacho.akkadomotic.metrics;
+
+import static org.junit.Assert.*;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.ecacho.akkadomotic.actor.DeviceGroup;
+import com.ecacho.akkadomotic.actor.DeviceManager;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DomoticMetricsTest {
+
+  static ActorSystem actorSystem;
+
+  @BeforeClass
+  public static void setup() {
+    actorSystem = ActorSystem.create("metrics");
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(actorSystem);
+  }
+
+  @Test
+  public void testCountRegistrationsAndTerminations() {
+    DomoticMetrics metrics = DomoticMetrics.get(actorSystem);
+    long registrations = metrics.getRegistrations();
+    long terminations = metrics.getTerminations();
+
+    TestKit probe = new TestKit(actorSystem);
+    ActorRef groupActor = actorSystem.actorOf(DeviceGroup.props("group"), "counted-group");
+
+    groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+    probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+    ActorRef deviceActor = probe.getLastSender();
+
+    assertEquals(registrations + 1, metrics.getRegistrations());
+
+    deviceActor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    probe.awaitAssert(() -> {
+      assertEquals(terminations + 1, metrics.getTerminations());
+      return null;
+    });
+
+    MetricsSnapshot snapshot = metrics.getSnapshot();
+    assertTrue(snapshot.mailboxDepths.containsKey("/user/counted-group"));
+    assertTrue(snapshot.messageLatencies.stream().anyMatch(latency ->
+        latency.name.equals("DeviceGroup/" + DeviceManager.RequestTrackDevice.class.getName())
+            && latency.count > 0));
+  }
+
+  @Test
+  public void testExposeMetricsThroughJmx() throws Exception {
+    DomoticMetrics metrics = DomoticMetrics.get(actorSystem);
+    metrics.registrations.increment();
+
+    Object registrations = ManagementFactory.getPlatformMBeanServer().getAttribute(
+        new ObjectName("com.ecacho.akkadomotic:type=Metrics,system=\"metrics\""),
+        "Registrations");
+
+    assertEquals(metrics.getRegistrations(), registrations);
+  }
+
+  @Test
+  public void testPushSnapshotsToReporters() throws Exception {
+    DomoticMetrics metrics = DomoticMetrics.get(actorSystem);
+    MetricsSnapshot[] reported = new MetricsSnapshot[1];
+    metrics.addReporter(snapshot -> reported[0] = snapshot);
+
+    metrics.report();
+
+    assertNotNull(reported[0]);
+  }
+}
@@ -0,0 +1,40 @@
+package com.ecacho.akkadomotic.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverEveryValueInOrder() {
+    int previous = -1;
+    for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 1_000_000, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertTrue(bucket >= previous);
+      assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+      previous = bucket;
+    }
+  }
+
+  @Test
+  public void testPercentilesStayWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 10_000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    assertEquals(10_000, histogram.count());
+    assertEquals(5_000_000, histogram.percentile(0.5), 5_000_000 * 0.07);
+    assertEquals(9_900_000, histogram.percentile(0.99), 9_900_000 * 0.07);
+    assertEquals(10_000_000, histogram.percentile(1.0), 10_000_000 * 0.07);
+  }
+
+  @Test
+  public void testEmptyHistogramReportsZero() {
+    LatencySummary summary = new LatencyHistogram().summary("empty");
+
+    assertEquals(0, summary.count);
+    assertEquals(0, summary.p99Nanos);
+  }
+}
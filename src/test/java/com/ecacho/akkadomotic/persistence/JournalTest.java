@@ -0,0 +1,162 @@
+package com.ecacho.akkadomotic.persistence;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalTest {
+
+  Path directory;
+
+  @Before
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("journal-test");
+  }
+
+  @Test
+  public void testRecoverTrackedDevicesAndLatestReadings() throws IOException {
+    try (Journal journal = open(1 << 20)) {
+      journal.appendTrack(Journal.key("group1"), Journal.key("device1"));
+      journal.appendTrack(Journal.key("group1"), Journal.key("device2"));
+      journal.appendRecord(Journal.key("group1"), Journal.key("device1"), 10d);
+      journal.appendRecord(Journal.key("group1"), Journal.key("device1"), 11d);
+      journal.appendRecord(Journal.key("group2"), Journal.key("device1"), 20d);
+    }
+
+    FleetState state = Journal.recover(directory);
+
+    Map<String, Double> group1 = new HashMap<>();
+    group1.put("device1", 11d);
+    group1.put("device2", null);
+    assertEquals(group1, state.groups().get("group1"));
+    assertEquals(Collections.singletonMap("device1", 20d), state.groups().get("group2"));
+    assertEquals(3, state.deviceCount());
+  }
+
+  @Test
+  public void testRollSegmentsWhenFull() throws IOException {
+    try (Journal journal = open(256)) {
+      for (int i = 0; i < 100; i++) {
+        journal.appendRecord(Journal.key("group"), Journal.key("device" + (i % 10)), i);
+      }
+    }
+
+    assertTrue(Journal.sequences(directory, Journal.SUFFIX).size() > 1);
+
+    FleetState state = Journal.recover(directory);
+    assertEquals(10, state.deviceCount());
+    assertEquals(Double.valueOf(99d), state.groups().get("group").get("device9"));
+  }
+
+  @Test
+  public void testSnapshotReplacesSealedSegments() throws IOException {
+    try (Journal journal = open(256)) {
+      for (int i = 0; i < 50; i++) {
+        journal.appendRecord(Journal.key("group"), Journal.key("device" + (i % 5)), i);
+      }
+      journal.snapshot();
+
+      assertEquals(1, Snapshots.list(directory).size());
+      // only the fresh segment opened by the snapshot, and the one mapped ahead of it, are left
+      long snapshot = Snapshots.list(directory).get(0);
+      for (Long sequence : Journal.sequences(directory, Journal.SUFFIX)) {
+        assertTrue(sequence > snapshot);
+      }
+
+      journal.appendRecord(Journal.key("group"), Journal.key("device0"), 100d);
+    }
+
+    FleetState state = Journal.recover(directory);
+    assertEquals(5, state.deviceCount());
+    assertEquals(Double.valueOf(100d), state.groups().get("group").get("device0"));
+    assertEquals(Double.valueOf(49d), state.groups().get("group").get("device4"));
+  }
+
+  @Test
+  public void testKeepEveryEntryOfConcurrentAppenders() throws Exception {
+    int appenders = 4;
+    int records = 10_000;
+    try (Journal journal = open(4096)) {
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < appenders; t++) {
+        byte[] deviceId = Journal.key("device" + t);
+        Thread thread = new Thread(() -> {
+          for (int i = 0; i < records; i++) {
+            journal.appendRecord(Journal.key("group"), deviceId, i);
+          }
+        });
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+
+    Map<String, Double> group = Journal.recover(directory).groups().get("group");
+    assertEquals(appenders, group.size());
+    for (int t = 0; t < appenders; t++) {
+      assertEquals(Double.valueOf(records - 1), group.get("device" + t));
+    }
+  }
+
+  @Test
+  public void testDropEventsWhileWriterIsMaxPendingBehind() throws Exception {
+    LongAdder dropped = new LongAdder();
+    CountDownLatch release = new CountDownLatch(1);
+    try (Journal journal = Journal.open(directory, 1 << 20, 4, dropped,
+        Duration.ofHours(1), Duration.ofHours(1))) {
+      journal.writer.execute(() -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      for (int i = 0; i < 10; i++) {
+        journal.appendRecord(Journal.key("group"), Journal.key("device" + i), i);
+      }
+      assertEquals(6, dropped.sum());
+
+      release.countDown();
+      journal.writer.submit(() -> { }).get();
+      journal.appendRecord(Journal.key("group"), Journal.key("device9"), 9d);
+      assertEquals(6, dropped.sum());
+    }
+
+    Map<String, Double> group = Journal.recover(directory).groups().get("group");
+    assertEquals(5, group.size());
+    assertEquals(Double.valueOf(3d), group.get("device3"));
+    assertEquals(Double.valueOf(9d), group.get("device9"));
+    assertFalse(group.containsKey("device4"));
+  }
+
+  @Test
+  public void testReopenContinuesAfterExistingSegments() throws IOException {
+    try (Journal journal = open(1 << 20)) {
+      journal.appendRecord(Journal.key("group"), Journal.key("device"), 1d);
+    }
+    try (Journal journal = open(1 << 20)) {
+      journal.appendRecord(Journal.key("group"), Journal.key("device"), 2d);
+    }
+
+    assertEquals(Double.valueOf(2d), Journal.recover(directory).groups().get("group").get("device"));
+  }
+
+  private Journal open(int segmentSize) throws IOException {
+    return Journal.open(directory, segmentSize, 1 << 16, new LongAdder(),
+        Duration.ofHours(1), Duration.ofHours(1));
+  }
+}